@@ -0,0 +1,112 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import org.glassfish.jersey.process.Inflector;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.Resource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Response;
+
+import io.opentracing.Tracer;
+
+/**
+ * Shared fixtures for the JMH benchmarks: a no-op {@link WavefrontSender}, nested resource models
+ * and the stubbed {@link ContainerRequest}s of the unit tests' {@link FilterTestFixtures}, so the
+ * filter can be exercised without a running Jersey application.
+ */
+final class BenchmarkFixtures {
+
+  static final ApplicationTags APPLICATION_TAGS =
+      new ApplicationTags.Builder("benchmark", "jersey").cluster("local").shard("primary").build();
+
+  private BenchmarkFixtures() {
+  }
+
+  static Tracer newTracer() {
+    return new WavefrontTracer.Builder(new FilterTestFixtures.NoopSpanReporter(),
+        APPLICATION_TAGS).build();
+  }
+
+  /**
+   * Builds a resource model with {@code depth} nested sub-resources, e.g. for depth 3:
+   * {@code /level0/level1/{id1}/level2/{id2}}, and returns the innermost resource.
+   */
+  static Resource nestedResource(int depth) {
+    Resource.Builder builder = Resource.builder(resourcePath(depth - 1));
+    builder.addMethod("GET").handledBy(
+        (Inflector<ContainerRequestContext, String>) containerRequestContext -> "ok");
+    for (int i = depth - 2; i >= 0; i--) {
+      Resource child = builder.build();
+      builder = Resource.builder(resourcePath(i));
+      builder.addChildResource(child);
+    }
+    // parent links are only set on the resources created by the outermost build()
+    Resource resource = builder.build();
+    while (!resource.getChildResources().isEmpty()) {
+      resource = resource.getChildResources().get(0);
+    }
+    return resource;
+  }
+
+  private static String resourcePath(int level) {
+    return level == 0 ? "/level0" : "level" + level + "/{id" + level + "}";
+  }
+
+  static ContainerRequest newRequest(String httpMethod, Resource matchedResource) {
+    return FilterTestFixtures.newRequest(httpMethod, matchedResource);
+  }
+
+  static ContainerResponse newResponse(ContainerRequest request, int status) {
+    return new ContainerResponse(request, Response.status(status).build());
+  }
+
+  static final class NoopWavefrontSender implements WavefrontSender {
+    @Override
+    public void sendMetric(String name, double value, Long timestamp, String source,
+                           Map<String, String> tags) {
+      // no-op
+    }
+
+    @Override
+    public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                 Set<HistogramGranularity> histogramGranularities,
+                                 Long timestamp, String source, Map<String, String> tags) {
+      // no-op
+    }
+
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis, String source,
+                         UUID traceId, UUID spanId, List<UUID> parents, List<UUID> followsFrom,
+                         List<Pair<String, String>> tags, List<SpanLog> spanLogs) {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.wavefront.sdk.jersey;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the benchmarks with the GC profiler attached so that allocation rate per operation
+ * ({@code gc.alloc.rate.norm}) is reported along with the timings. The reporter benchmarks are
+ * repeated with 1, 4, 16 and 64 threads.
+ *
+ * <p>Usage: {@code java -jar target/benchmarks.jar [resultDirectory]}. One JSON result file per
+ * run is written to {@code resultDirectory} (defaults to the working directory).
+ */
+public class BenchmarkRunner {
+
+  private static final int[] REPORTER_THREADS = {1, 4, 16, 64};
+
+  public static void main(String[] args) throws RunnerException {
+    String resultDirectory = args.length > 0 ? args[0] : ".";
+
+    run(new OptionsBuilder().
+        include(WavefrontJerseyFilterBenchmark.class.getSimpleName()).
+        include(MetricNameUtilsBenchmark.class.getSimpleName()).
+        addProfiler(GCProfiler.class).
+        resultFormat(ResultFormatType.JSON).
+        result(resultDirectory + "/jersey-filter.json").
+        build());
+
+    for (int threads : REPORTER_THREADS) {
+      run(new OptionsBuilder().
+          include(WavefrontJerseyReporterBenchmark.class.getSimpleName()).
+          threads(threads).
+          addProfiler(GCProfiler.class).
+          resultFormat(ResultFormatType.JSON).
+          result(resultDirectory + "/jersey-reporter-" + threads + "-threads.json").
+          build());
+    }
+  }
+
+  private static void run(Options options) throws RunnerException {
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,47 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.Pair;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MetricNameUtils#metricNameAndPath(ContainerRequest)} for increasingly nested
+ * sub-resources.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricNameUtilsBenchmark {
+
+  @Param({"1", "3", "6"})
+  public int depth;
+
+  private ContainerRequest request;
+
+  @Setup
+  public void setup() {
+    request = BenchmarkFixtures.newRequest("GET", BenchmarkFixtures.nestedResource(depth));
+  }
+
+  @Benchmark
+  public Optional<Pair<String, String>> metricNameAndPath() {
+    return MetricNameUtils.metricNameAndPath(request);
+  }
+}
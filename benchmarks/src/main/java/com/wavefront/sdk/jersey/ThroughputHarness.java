@@ -0,0 +1,264 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * End-to-end throughput harness. Runs a Jersey application in-process through
+ * {@link ApplicationHandler} (no container, no network) and drives a fixed mix of routes at
+ * increasing concurrency, once without the filter, once with metrics only and once with metrics
+ * and tracing. The results (throughput, p50 and p99 latency and the overhead relative to running
+ * without the filter) are written as JSON.
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar com.wavefront.sdk.jersey.ThroughputHarness
+ * [reportFile] [maxOverheadPercent]}. When {@code maxOverheadPercent} is given the process exits
+ * with status 1 if the throughput overhead of any mode exceeds it, so it can gate a release.
+ */
+public class ThroughputHarness {
+
+  private static final int[] CONCURRENCY = {1, 2, 4, 8, 16, 32};
+  private static final long WARMUP_MILLIS = 2_000;
+  private static final long MEASUREMENT_MILLIS = 5_000;
+  // latencies of the last LATENCY_SAMPLES requests of every worker are kept for percentiles
+  private static final int LATENCY_SAMPLES = 1 << 16;
+
+  private static final URI BASE_URI = URI.create("http://localhost/");
+  private static final String[][] ROUTES = {
+      {"GET", "sample/foo/bar"},
+      {"GET", "sample/foo/bar/1"},
+      {"GET", "sample/foo/bar/2"},
+      {"POST", "sample/foo/bar"},
+      {"PUT", "sample/foo/bar/1"},
+      {"DELETE", "sample/foo/bar/1"}
+  };
+
+  enum Mode {
+    FILTER_OFF, METRICS, METRICS_AND_TRACING
+  }
+
+  public static void main(String[] args) throws Exception {
+    String reportFile = args.length > 0 ? args[0] : "throughput-report.json";
+    double maxOverheadPercent = args.length > 1 ? Double.parseDouble(args[1]) : Double.NaN;
+
+    List<Result> results = new ArrayList<>();
+    for (Mode mode : Mode.values()) {
+      ApplicationHandler handler = new ApplicationHandler(resourceConfig(mode));
+      for (int concurrency : CONCURRENCY) {
+        run(handler, concurrency, WARMUP_MILLIS);
+        Result result = run(handler, concurrency, MEASUREMENT_MILLIS);
+        result.mode = mode;
+        results.add(result);
+        System.out.println(result.toJson());
+      }
+    }
+
+    boolean withinBudget = true;
+    StringBuilder json = new StringBuilder("{\"results\":[");
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      Result baseline = results.get(i % CONCURRENCY.length);
+      result.overheadPercent = baseline.throughput == 0 ? 0 :
+          100.0 * (baseline.throughput - result.throughput) / baseline.throughput;
+      if (!Double.isNaN(maxOverheadPercent) && result.overheadPercent > maxOverheadPercent) {
+        withinBudget = false;
+      }
+      json.append(i == 0 ? "" : ",").append(result.toJson());
+    }
+    json.append("],\"maxOverheadPercent\":").
+        append(Double.isNaN(maxOverheadPercent) ? "null" : format(maxOverheadPercent)).
+        append(",\"withinBudget\":").append(withinBudget).append('}');
+    Files.write(Paths.get(reportFile), json.toString().getBytes(StandardCharsets.UTF_8));
+    System.out.println("Report written to " + reportFile);
+    if (!withinBudget) {
+      System.err.println("Filter overhead exceeds " + maxOverheadPercent + "%");
+      System.exit(1);
+    }
+  }
+
+  private static ResourceConfig resourceConfig(Mode mode) {
+    ResourceConfig resourceConfig = new ResourceConfig(HarnessResource.class);
+    if (mode != Mode.FILTER_OFF) {
+      WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(
+          BenchmarkFixtures.APPLICATION_TAGS).withSource("harness").
+          build(new BenchmarkFixtures.NoopWavefrontSender());
+      WavefrontJerseyFilter.Builder builder = new WavefrontJerseyFilter.Builder(reporter,
+          BenchmarkFixtures.APPLICATION_TAGS);
+      if (mode == Mode.METRICS_AND_TRACING) {
+        builder.withTracer(BenchmarkFixtures.newTracer());
+      }
+      resourceConfig.register(builder.build());
+    }
+    return resourceConfig;
+  }
+
+  private static Result run(ApplicationHandler handler, int concurrency, long durationMillis)
+      throws InterruptedException {
+    AtomicBoolean running = new AtomicBoolean(true);
+    CountDownLatch done = new CountDownLatch(concurrency);
+    Worker[] workers = new Worker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new Worker(handler, running, done, i);
+      new Thread(workers[i], "harness-worker-" + i).start();
+    }
+    Thread.sleep(durationMillis);
+    running.set(false);
+    done.await(1, TimeUnit.MINUTES);
+
+    long requests = 0;
+    long errors = 0;
+    List<long[]> samples = new ArrayList<>();
+    for (Worker worker : workers) {
+      requests += worker.requests;
+      errors += worker.errors;
+      samples.add(Arrays.copyOf(worker.latencies, (int) Math.min(worker.requests,
+          LATENCY_SAMPLES)));
+    }
+    long[] latencies = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+
+    Result result = new Result();
+    result.concurrency = concurrency;
+    result.requests = requests;
+    result.errors = errors;
+    result.throughput = requests * 1000.0 / durationMillis;
+    result.p50Micros = percentile(latencies, 0.50) / 1000.0;
+    result.p99Micros = percentile(latencies, 0.99) / 1000.0;
+    return result;
+  }
+
+  private static long percentile(long[] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)];
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  private static final class Worker implements Runnable {
+    private final ApplicationHandler handler;
+    private final AtomicBoolean running;
+    private final CountDownLatch done;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int route;
+    private long requests;
+    private long errors;
+
+    Worker(ApplicationHandler handler, AtomicBoolean running, CountDownLatch done, int offset) {
+      this.handler = handler;
+      this.running = running;
+      this.done = done;
+      this.route = offset % ROUTES.length;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running.get()) {
+          String[] next = ROUTES[route];
+          route = (route + 1) % ROUTES.length;
+          ContainerRequest request = new ContainerRequest(BASE_URI,
+              BASE_URI.resolve(next[1]), next[0], null, new MapPropertiesDelegate());
+          request.setEntityStream(new ByteArrayInputStream(new byte[0]));
+          long start = System.nanoTime();
+          try {
+            ContainerResponse response = handler.apply(request).get();
+            if (response.getStatus() >= 400) {
+              errors++;
+            }
+          } catch (Exception e) {
+            errors++;
+          }
+          latencies[(int) (requests++ & (LATENCY_SAMPLES - 1))] = System.nanoTime() - start;
+        }
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  private static final class Result {
+    Mode mode;
+    int concurrency;
+    long requests;
+    long errors;
+    double throughput;
+    double p50Micros;
+    double p99Micros;
+    double overheadPercent;
+
+    String toJson() {
+      return "{\"mode\":\"" + mode + "\",\"concurrency\":" + concurrency +
+          ",\"requests\":" + requests + ",\"errors\":" + errors +
+          ",\"throughputPerSecond\":" + format(throughput) +
+          ",\"p50Micros\":" + format(p50Micros) + ",\"p99Micros\":" + format(p99Micros) +
+          ",\"overheadPercent\":" + format(overheadPercent) + "}";
+    }
+  }
+
+  @Path("/sample/foo")
+  @Produces(MediaType.TEXT_PLAIN)
+  public static class HarnessResource {
+
+    @POST
+    @Path("/bar")
+    public void barCreate() {
+      // no-op
+    }
+
+    @GET
+    @Path("/bar/{id}")
+    public String barGet(@PathParam("id") String id) {
+      return "don't care";
+    }
+
+    @GET
+    @Path("/bar")
+    public String getAll() {
+      return "don't care";
+    }
+
+    @PUT
+    @Path("/bar/{id}")
+    public void barUpdate() {
+      // no-op
+    }
+
+    @DELETE
+    @Path("/bar/{id}")
+    public void barDelete() {
+      // no-op
+    }
+  }
+
+  private ThroughputHarness() {
+  }
+}
@@ -0,0 +1,172 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jaxrs.client.SpanWrapper;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.wavefront.sdk.jaxrs.Constants.PROPERTY_NAME;
+import static com.wavefront.sdk.jaxrs.Constants.WF_SPAN_HEADER;
+
+/**
+ * Measures the cost {@link WavefrontJerseyFilter} adds to a single request/response round trip,
+ * with and without a tracer (i.e. with and without span creation) and with and without header
+ * tags.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WavefrontJerseyFilterBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class FilterState {
+    @Param({"false", "true"})
+    public boolean tracing;
+
+    @Param({"false", "true"})
+    public boolean headerTags;
+
+    WavefrontJerseyFilter filter;
+
+    @Setup
+    public void setup() {
+      WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(
+          BenchmarkFixtures.APPLICATION_TAGS).withSource("benchmark").
+          build(new BenchmarkFixtures.NoopWavefrontSender());
+      WavefrontJerseyFilter.Builder builder = new WavefrontJerseyFilter.Builder(reporter,
+          BenchmarkFixtures.APPLICATION_TAGS);
+      if (tracing) {
+        builder.withTracer(BenchmarkFixtures.newTracer());
+      }
+      if (headerTags) {
+        builder.headerTags(Collections.singleton("X-Tenant"));
+      }
+      filter = builder.build();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ExcludedFilterState {
+    WavefrontJerseyFilter filter;
+
+    @Setup
+    public void setup() {
+      WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(
+          BenchmarkFixtures.APPLICATION_TAGS).withSource("benchmark").
+          build(new BenchmarkFixtures.NoopWavefrontSender());
+      filter = new WavefrontJerseyFilter.Builder(reporter, BenchmarkFixtures.APPLICATION_TAGS).
+          withTracer(BenchmarkFixtures.newTracer()).
+          withExclusions(new RouteExclusions.Builder().
+              resourceClasses(FilterTestFixtures.SampleResource.class).
+              build()).
+          build();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class RequestState {
+    Resource resource;
+    boolean headerTags;
+    ContainerRequest request;
+    ContainerResponse response;
+
+    @Setup
+    public void setup(FilterState filterState) {
+      resource = BenchmarkFixtures.nestedResource(3);
+      headerTags = filterState.headerTags;
+      request = newRequest();
+      response = BenchmarkFixtures.newResponse(request, 200);
+    }
+
+    ContainerRequest newRequest() {
+      ContainerRequest request = BenchmarkFixtures.newRequest("GET", resource);
+      if (headerTags) {
+        request.header("X-Tenant", "tenant-1");
+      }
+      return request;
+    }
+  }
+
+  /**
+   * A request without header tags, for the benchmarks which do not depend on the parameters of
+   * {@link FilterState}.
+   */
+  @State(Scope.Thread)
+  public static class PlainRequestState {
+    Resource resource;
+    ContainerRequest request;
+    ContainerResponse response;
+
+    @Setup
+    public void setup() {
+      resource = BenchmarkFixtures.nestedResource(3);
+      request = BenchmarkFixtures.newRequest("GET", resource);
+      response = BenchmarkFixtures.newResponse(request, 200);
+    }
+  }
+
+  @Benchmark
+  public ContainerResponse requestResponse(FilterState filterState, RequestState requestState) {
+    filterState.filter.filter(requestState.request);
+    filterState.filter.filter(requestState.request, requestState.response);
+    // the filter adds the span header on every response, keep the response from growing
+    requestState.response.getHeaders().remove(WF_SPAN_HEADER);
+    return requestState.response;
+  }
+
+  /**
+   * Round trip of a request of an excluded route (counted), e.g. a health check.
+   */
+  @Benchmark
+  public ContainerResponse excludedRequestResponse(ExcludedFilterState filterState,
+                                                   PlainRequestState requestState) {
+    filterState.filter.filter(requestState.request);
+    filterState.filter.filter(requestState.request, requestState.response);
+    return requestState.response;
+  }
+
+  /**
+   * The request filter alone, on a fresh request per operation which is never completed. Its
+   * scope is closed so the span of the next request is not a child of its span. Subtract
+   * {@link #newRequest} for the cost of the filter.
+   */
+  @Benchmark
+  public ContainerRequest requestOnly(FilterState filterState, RequestState requestState) {
+    ContainerRequest request = requestState.newRequest();
+    filterState.filter.filter(request);
+    Object spanWrapper = request.getProperty(PROPERTY_NAME);
+    if (spanWrapper instanceof SpanWrapper) {
+      io.opentracing.Scope scope = ((SpanWrapper) spanWrapper).getScope();
+      if (scope != null) {
+        scope.close();
+      }
+    }
+    return request;
+  }
+
+  /**
+   * Baseline of {@link #requestOnly}: the creation of a request, without header tags.
+   */
+  @Benchmark
+  public ContainerRequest newRequest(PlainRequestState requestState) {
+    return BenchmarkFixtures.newRequest("GET", requestState.resource);
+  }
+}
@@ -0,0 +1,68 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures counter and histogram updates through {@link WavefrontJerseyReporter}. Every thread
+ * updates the same series, so running with more threads (see {@link BenchmarkRunner}, 1 to 64)
+ * shows the cost of contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class WavefrontJerseyReporterBenchmark {
+
+  private WavefrontJerseyReporter reporter;
+  private MetricName counterName;
+  private MetricName deltaCounterName;
+  private MetricName histogramName;
+
+  @Setup
+  public void setup() {
+    reporter = new WavefrontJerseyReporter.Builder(BenchmarkFixtures.APPLICATION_TAGS).
+        withSource("benchmark").build(new BenchmarkFixtures.NoopWavefrontSender());
+    Map<String, String> tags = new HashMap<>();
+    tags.put("jersey.resource.class", FilterTestFixtures.SampleResource.class.getCanonicalName());
+    tags.put("jersey.resource.method", "get");
+    counterName = new MetricName("response.level0.GET.200.cumulative", tags);
+    deltaCounterName = new MetricName("response.level0.GET.200.aggregated_per_service", tags);
+    histogramName = new MetricName("response.level0.GET.200.latency", tags);
+  }
+
+  @Benchmark
+  public void incrementCounter() {
+    reporter.incrementCounter(counterName);
+  }
+
+  @Benchmark
+  public void incrementDeltaCounter() {
+    reporter.incrementDeltaCounter(deltaCounterName);
+  }
+
+  @Benchmark
+  public void updateHistogram() {
+    reporter.updateHistogram(histogramName, ThreadLocalRandom.current().nextInt(1000));
+  }
+}
@@ -0,0 +1,115 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit adjusted with a gradient algorithm: the limit grows while the short term
+ * latency stays close to the long term latency and shrinks as soon as latency starts building
+ * up, i.e. when requests are queueing.
+ *
+ * <pre>
+ * gradient = max(0.5, min(1.0, tolerance * longTermLatency / shortTermLatency))
+ * newLimit = limit * gradient + (limited ? sqrt(limit) : 0)
+ * limit    = limit * (1 - smoothing) + newLimit * smoothing
+ * </pre>
+ *
+ * The limit is only probed upwards when it was limited, i.e. when the in-flight count reached
+ * half of the limit during the window: light traffic does not raise an unused limit up to the
+ * maximum, where the next spike would not be shed. The in-flight counts and latencies are the
+ * ones measured by {@link WavefrontJerseyFilter}. They are only accumulated on the request path,
+ * the limit is recomputed at most once per window by whichever request closes the window.
+ */
+final class AdaptiveConcurrencyLimit {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final double tolerance;
+  private final long windowMillis;
+
+  private final AtomicInteger limit;
+  private final AtomicInteger windowMaxInflight = new AtomicInteger();
+  private final LongAdder windowLatencyMillis = new LongAdder();
+  private final LongAdder windowSamples = new LongAdder();
+  private final AtomicLong windowStartMillis;
+  // only updated by the thread closing a window
+  private volatile double longTermLatencyMillis;
+  private volatile double preciseLimit;
+
+  /**
+   * @param startMillis start of the first window.
+   */
+  AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double smoothing,
+                           double tolerance, long windowMillis, long startMillis) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.tolerance = tolerance;
+    this.windowMillis = windowMillis;
+    this.limit = new AtomicInteger(initialLimit);
+    this.preciseLimit = initialLimit;
+    this.windowStartMillis = new AtomicLong(startMillis);
+  }
+
+  /**
+   * @param inflight number of requests in flight, including this one.
+   * @return {@code true} if the request is admitted, in which case its latency is recorded
+   * with {@link #record} once it completes.
+   */
+  boolean tryAcquire(int inflight) {
+    if (inflight > windowMaxInflight.get()) {
+      windowMaxInflight.accumulateAndGet(inflight, Math::max);
+    }
+    return inflight <= limit.get();
+  }
+
+  /**
+   * Record the latency of a request admitted by {@link #tryAcquire}, and recompute the limit if
+   * the window is over.
+   *
+   * @param latencyMillis latency of the request.
+   * @param nowMillis     time the request completed at.
+   */
+  void record(long latencyMillis, long nowMillis) {
+    windowLatencyMillis.add(latencyMillis);
+    windowSamples.increment();
+    long windowStart = windowStartMillis.get();
+    if (nowMillis - windowStart >= windowMillis &&
+        windowStartMillis.compareAndSet(windowStart, nowMillis)) {
+      long samples = windowSamples.sumThenReset();
+      long latency = windowLatencyMillis.sumThenReset();
+      int maxInflight = windowMaxInflight.getAndSet(0);
+      if (samples > 0) {
+        // latencies are measured in millis, below 1 ms their changes are noise
+        update(Math.max(1.0, (double) latency / samples), maxInflight);
+      }
+    }
+  }
+
+  private void update(double shortTermLatencyMillis, int maxInflight) {
+    double longTerm = longTermLatencyMillis;
+    if (longTerm == 0) {
+      longTerm = shortTermLatencyMillis;
+    } else {
+      longTerm = longTerm * 0.95 + shortTermLatencyMillis * 0.05;
+      // recover quickly once the latency is back to normal
+      if (longTerm > shortTermLatencyMillis * 2) {
+        longTerm = shortTermLatencyMillis * 2;
+      }
+    }
+    longTermLatencyMillis = longTerm;
+
+    double gradient = Math.max(0.5, Math.min(1.0, tolerance * longTerm / shortTermLatencyMillis));
+    double current = preciseLimit;
+    double newLimit = current * gradient + (maxInflight * 2 >= current ? Math.sqrt(current) : 0);
+    preciseLimit = Math.max(minLimit, Math.min(maxLimit,
+        current * (1 - smoothing) + newLimit * smoothing));
+    limit.set((int) preciseLimit);
+  }
+
+  AtomicInteger getLimit() {
+    return limit;
+  }
+}
@@ -0,0 +1,295 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static com.wavefront.sdk.jersey.MetricNameUtils.REQUEST_PREFIX;
+
+/**
+ * Optional load shedding companion of {@link WavefrontJerseyFilter}. Maintains an adaptive
+ * concurrency limit (see {@link AdaptiveConcurrencyLimit}) per route and for the whole
+ * application from the in-flight counts and latencies measured by the
+ * {@link WavefrontJerseyFilter} it is built for, and rejects requests over the limit with a 503
+ * and a {@code Retry-After} header before the resource method runs. Excluded routes are never
+ * limited.
+ *
+ * <p>The filter runs after {@link WavefrontJerseyFilter} so rejected requests are still reported
+ * as 503 responses. It is also an event listener: when Jersey skips the response filters
+ * (unmapped exception, failed write, cancelled async response), the request is taken out of the
+ * in-flight counts once it is finished. Register the filter instance with all its contracts.
+ * Limits and rejections are reported through the reporter of the filter:
+ * <ol>
+ * <li>jersey.server.request.api.v2.alert.summary.GET.concurrency_limit (Gauge)</li>
+ * <li>jersey.server.request.api.v2.alert.summary.GET.rejected (Counter)</li>
+ * <li>jersey.server.total_requests.concurrency_limit (Gauge)</li>
+ * <li>jersey.server.total_requests.rejected (Counter)</li>
+ * </ol>
+ */
+@Priority(Priorities.USER + 100)
+public class ConcurrencyLimitFilter implements ContainerRequestFilter, ApplicationEventListener {
+
+  // the RouteLimit of an admitted request
+  private static final String PROPERTY_NAME = ConcurrencyLimitFilter.class.getName() + ".route";
+
+  private final WavefrontJerseyFilter wfJerseyFilter;
+  private final SdkReporter wfJerseyReporter;
+  private final ApplicationTags applicationTags;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final double tolerance;
+  private final long windowMillis;
+  private final String retryAfterSeconds;
+  private final AdaptiveConcurrencyLimit globalLimit;
+  private final MetricName globalRejected;
+  private final ConcurrentMap<RouteDescriptor, RouteLimit> routeLimits =
+      new ConcurrentHashMap<>();
+  private final RequestEventListener requestEventListener = this::onRequestEvent;
+
+  private ConcurrencyLimitFilter(WavefrontJerseyFilter wfJerseyFilter, int initialLimit,
+                                 int minLimit, int maxLimit, int globalMaxLimit,
+                                 double smoothing, double tolerance, long windowMillis,
+                                 int retryAfterSeconds) {
+    Preconditions.checkNotNull(wfJerseyFilter, "Invalid WavefrontJerseyFilter");
+    Preconditions.checkArgument(minLimit > 0 && minLimit <= initialLimit &&
+        initialLimit <= maxLimit, "Invalid limits");
+    Preconditions.checkArgument(globalMaxLimit >= minLimit, "Invalid globalMaxLimit");
+    Preconditions.checkArgument(smoothing > 0 && smoothing <= 1, "Invalid smoothing");
+    // below 1, the limit would shrink even when the latency is stable
+    Preconditions.checkArgument(tolerance >= 1 && !Double.isInfinite(tolerance),
+        "Invalid tolerance");
+    Preconditions.checkArgument(windowMillis > 0, "Invalid windowMillis");
+    this.wfJerseyFilter = wfJerseyFilter;
+    this.wfJerseyReporter = wfJerseyFilter.getReporter();
+    this.applicationTags = wfJerseyFilter.getApplicationTags();
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.tolerance = tolerance;
+    this.windowMillis = windowMillis;
+    this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    this.globalLimit = new AdaptiveConcurrencyLimit(Math.min(globalMaxLimit,
+        initialLimit * 10), minLimit, globalMaxLimit, smoothing, tolerance, windowMillis,
+        System.currentTimeMillis());
+
+    Map<String, String> overallTags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+    }};
+    wfJerseyReporter.registerGauge(new MetricName("total_requests.concurrency_limit",
+        overallTags), globalLimit.getLimit());
+    this.globalRejected = new MetricName("total_requests.rejected", overallTags);
+    wfJerseyFilter.setConcurrencyLimitFilter(this);
+  }
+
+  public static final class Builder {
+    private final WavefrontJerseyFilter wfJerseyFilter;
+    private int initialLimit = 20;
+    private int minLimit = 1;
+    private int maxLimit = 1000;
+    private int globalMaxLimit = 10000;
+    private double smoothing = 0.2;
+    private double tolerance = 1.5;
+    private long windowMillis = 1000;
+    private int retryAfterSeconds = 1;
+
+    /**
+     * @param wfJerseyFilter the filter measuring the requests to limit, a filter can only have
+     *                       one {@link ConcurrencyLimitFilter}.
+     */
+    public Builder(WavefrontJerseyFilter wfJerseyFilter) {
+      this.wfJerseyFilter = wfJerseyFilter;
+    }
+
+    /**
+     * @param initialLimit initial per route limit, defaults to 20.
+     * @return {@code this}.
+     */
+    public Builder initialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /**
+     * @param minLimit minimum per route and global limit, defaults to 1.
+     * @return {@code this}.
+     */
+    public Builder minLimit(int minLimit) {
+      this.minLimit = minLimit;
+      return this;
+    }
+
+    /**
+     * @param maxLimit maximum per route limit, defaults to 1000.
+     * @return {@code this}.
+     */
+    public Builder maxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * @param globalMaxLimit maximum limit for all the routes together, defaults to 10000.
+     * @return {@code this}.
+     */
+    public Builder globalMaxLimit(int globalMaxLimit) {
+      this.globalMaxLimit = globalMaxLimit;
+      return this;
+    }
+
+    /**
+     * @param smoothing weight of a new limit estimate, between 0 and 1, defaults to 0.2.
+     * @return {@code this}.
+     */
+    public Builder smoothing(double smoothing) {
+      this.smoothing = smoothing;
+      return this;
+    }
+
+    /**
+     * @param tolerance how much the latency may exceed the long term latency before the limit
+     *                  is reduced, at least 1, defaults to 1.5.
+     * @return {@code this}.
+     */
+    public Builder tolerance(double tolerance) {
+      this.tolerance = tolerance;
+      return this;
+    }
+
+    /**
+     * @param windowMillis how often limits are recomputed, defaults to 1000.
+     * @return {@code this}.
+     */
+    public Builder windowMillis(long windowMillis) {
+      this.windowMillis = windowMillis;
+      return this;
+    }
+
+    /**
+     * @param retryAfterSeconds value of the {@code Retry-After} header of rejected requests,
+     *                          defaults to 1.
+     * @return {@code this}.
+     */
+    public Builder retryAfterSeconds(int retryAfterSeconds) {
+      this.retryAfterSeconds = retryAfterSeconds;
+      return this;
+    }
+
+    public ConcurrencyLimitFilter build() {
+      return new ConcurrencyLimitFilter(wfJerseyFilter, initialLimit, minLimit, maxLimit,
+          globalMaxLimit, smoothing, tolerance, windowMillis, retryAfterSeconds);
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext containerRequestContext) {
+    Object route = containerRequestContext.getProperty(WavefrontJerseyFilter.ROUTE_PROPERTY_NAME);
+    // not set for the unmatched and excluded requests
+    if (!(route instanceof RouteDescriptor)) {
+      return;
+    }
+    RouteDescriptor routeDescriptor = (RouteDescriptor) route;
+    RouteLimit routeLimit = routeLimit(routeDescriptor);
+    // the in-flight counts of the WavefrontJerseyFilter already include this request, both
+    // limits see it so they know whether they are limiting
+    boolean admitted = globalLimit.tryAcquire(wfJerseyFilter.getTotalInflight().get());
+    admitted = routeLimit.limit.tryAcquire(routeDescriptor.getInflight().get()) && admitted;
+    if (admitted) {
+      containerRequestContext.setProperty(PROPERTY_NAME, routeLimit);
+    } else {
+      wfJerseyReporter.incrementCounter(routeLimit.rejected);
+      wfJerseyReporter.incrementCounter(globalRejected);
+      containerRequestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).
+          header(HttpHeaders.RETRY_AFTER, retryAfterSeconds).build());
+    }
+  }
+
+  /**
+   * Called by the {@link WavefrontJerseyFilter} with the latency it measured once the response
+   * of a request is filtered. Only the latency of the admitted requests is recorded.
+   *
+   * @param latencyMillis latency of the request.
+   * @param nowMillis     time the request completed at.
+   */
+  void onResponse(ContainerRequestContext containerRequestContext, long latencyMillis,
+                  long nowMillis) {
+    Object routeLimit = containerRequestContext.getProperty(PROPERTY_NAME);
+    if (routeLimit instanceof RouteLimit) {
+      ((RouteLimit) routeLimit).limit.record(latencyMillis, nowMillis);
+      globalLimit.record(latencyMillis, nowMillis);
+    }
+  }
+
+  @Override
+  public void onEvent(ApplicationEvent event) {
+    // nothing to do
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    // stateless, shared by all the requests
+    return requestEventListener;
+  }
+
+  private void onRequestEvent(RequestEvent event) {
+    if (event.getType() == RequestEvent.Type.FINISHED && event.getContainerRequest() != null) {
+      // no-op when the response filter already ran
+      wfJerseyFilter.releaseInflight(event.getContainerRequest());
+    }
+  }
+
+  private RouteLimit routeLimit(RouteDescriptor route) {
+    RouteLimit routeLimit = routeLimits.get(route);
+    if (routeLimit != null) {
+      return routeLimit;
+    }
+    return routeLimits.computeIfAbsent(route, key -> {
+      String requestMetricKey = REQUEST_PREFIX + key.getRoute();
+      RouteLimit newRouteLimit = new RouteLimit(new AdaptiveConcurrencyLimit(initialLimit,
+          minLimit, maxLimit, smoothing, tolerance, windowMillis, System.currentTimeMillis()),
+          new MetricName(requestMetricKey + ".rejected", key.getTags()));
+      wfJerseyReporter.registerGauge(new MetricName(requestMetricKey + ".concurrency_limit",
+          key.getTags()), newRouteLimit.limit.getLimit());
+      return newRouteLimit;
+    });
+  }
+
+  private static final class RouteLimit {
+    private final AdaptiveConcurrencyLimit limit;
+    private final MetricName rejected;
+
+    RouteLimit(AdaptiveConcurrencyLimit limit, MetricName rejected) {
+      this.limit = limit;
+      this.rejected = rejected;
+    }
+  }
+}
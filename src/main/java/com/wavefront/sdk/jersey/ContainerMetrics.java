@@ -0,0 +1,347 @@
+package com.wavefront.sdk.jersey;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import java.io.Closeable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+
+/**
+ * Reports the saturation of the container hosting your Jersey application by polling its worker
+ * thread pool and connectors in the background, without any per request cost:
+ * <ol>
+ * <li>jersey.server.container.threads.busy (Gauge)</li>
+ * <li>jersey.server.container.threads.total (Gauge)</li>
+ * <li>jersey.server.container.threads.max (Gauge)</li>
+ * <li>jersey.server.container.threads.utilization_pct (Gauge)</li>
+ * <li>jersey.server.container.queue.depth (Gauge)</li>
+ * <li>jersey.server.container.connections (Gauge, Jetty only)</li>
+ * </ol>
+ * The container is detected from the given server object: a Jetty {@code Server} or
+ * {@code QueuedThreadPool} (e.g. from a Dropwizard {@code ServerLifecycleListener}), a Grizzly
+ * {@code HttpServer}, a JDK {@code com.sun.net.httpserver.HttpServer} or any
+ * {@link ThreadPoolExecutor}. The containers are accessed reflectively so none of them is a
+ * dependency of this SDK. The methods are resolved once when the container is detected, the
+ * figures whose methods a container does not expose are not reported.
+ *
+ * <pre>
+ * environment.lifecycle().addServerLifecycleListener(server -&gt;
+ *     new ContainerMetrics.Builder(wfJerseyReporter, applicationTags).build(server));
+ * </pre>
+ */
+public class ContainerMetrics implements Closeable {
+  private static final Logger logger = Logger.getLogger(ContainerMetrics.class.getName());
+
+  private final List<Poller> pollers = new ArrayList<>();
+  private final ScheduledExecutorService executor;
+
+  private ContainerMetrics(SdkReporter wfJerseyReporter, ApplicationTags applicationTags,
+                           Object server, long pollIntervalSeconds) {
+    Preconditions.checkNotNull(wfJerseyReporter, "Invalid JerseyReporter");
+    Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
+    Preconditions.checkNotNull(server, "Invalid server");
+    Preconditions.checkArgument(pollIntervalSeconds > 0, "Invalid pollIntervalSeconds");
+
+    String container = detect(server);
+    Preconditions.checkArgument(container != null, "Unsupported container: " +
+        server.getClass().getName());
+    Map<String, String> tags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+      put("container", container);
+    }};
+    for (Poller poller : pollers) {
+      wfJerseyReporter.registerGauge(new MetricName("container." + poller.name, tags),
+          poller.value);
+    }
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-container-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::poll, 0, pollIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public static final class Builder {
+    private final SdkReporter wfJerseyReporter;
+    private final ApplicationTags applicationTags;
+    private long pollIntervalSeconds = 10;
+
+    public Builder(SdkReporter wfJerseyReporter, ApplicationTags applicationTags) {
+      this.wfJerseyReporter = wfJerseyReporter;
+      this.applicationTags = applicationTags;
+    }
+
+    /**
+     * @param pollIntervalSeconds how often the container is polled, defaults to 10.
+     * @return {@code this}.
+     */
+    public Builder pollIntervalSeconds(long pollIntervalSeconds) {
+      this.pollIntervalSeconds = pollIntervalSeconds;
+      return this;
+    }
+
+    /**
+     * @param server the server or worker thread pool of the container.
+     * @return the started {@link ContainerMetrics}.
+     * @throws IllegalArgumentException if the container is not supported.
+     */
+    public ContainerMetrics build(Object server) {
+      return new ContainerMetrics(wfJerseyReporter, applicationTags, server,
+          pollIntervalSeconds);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  @Nullable
+  private String detect(Object server) {
+    if (server instanceof ThreadPoolExecutor) {
+      addThreadPool(server);
+      return "executor";
+    } else if (isInstance(server, "org.eclipse.jetty.util.thread.QueuedThreadPool")) {
+      addThreadPool(server);
+      return "jetty";
+    } else if (isInstance(server, "org.eclipse.jetty.server.Server")) {
+      Object threadPool = invoke(server, "getThreadPool");
+      if (threadPool != null) {
+        addThreadPool(threadPool);
+      }
+      Method getConnectors = resolve(server.getClass(), "getConnectors");
+      Method getConnectedEndPoints = resolve(loadClass(server,
+          "org.eclipse.jetty.server.Connector"), "getConnectedEndPoints");
+      add("connections", () -> {
+        Object connectors = getConnectors.invoke(server);
+        int connections = 0;
+        for (int i = 0; i < Array.getLength(connectors); i++) {
+          connections += size(getConnectedEndPoints.invoke(Array.get(connectors, i)));
+        }
+        return connections;
+      }, getConnectors, getConnectedEndPoints);
+      return "jetty";
+    } else if (isInstance(server, "org.glassfish.grizzly.http.server.HttpServer")) {
+      Object listeners = invoke(server, "getListeners");
+      if (listeners instanceof Collection && !((Collection<?>) listeners).isEmpty()) {
+        Object listener = ((Collection<?>) listeners).iterator().next();
+        Object threadPool = invoke(invoke(listener, "getTransport"), "getWorkerThreadPool");
+        if (threadPool != null) {
+          addThreadPool(threadPool);
+        }
+      } else {
+        logger.log(Level.WARNING, "The Grizzly server has no listener, no thread pool " +
+            "metrics will be reported");
+      }
+      return "grizzly";
+    } else if (server instanceof HttpServer) {
+      Object threadPool = ((HttpServer) server).getExecutor();
+      if (threadPool != null) {
+        addThreadPool(threadPool);
+      } else {
+        logger.log(Level.WARNING, "The JDK HTTP server has no executor, no thread pool " +
+            "metrics will be reported");
+      }
+      return "jdk";
+    }
+    return null;
+  }
+
+  private void addThreadPool(Object threadPool) {
+    Class<?> poolClass = threadPool.getClass();
+    if (threadPool instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+      add("threads.busy", pool::getActiveCount);
+      add("threads.total", pool::getPoolSize);
+      add("threads.max", pool::getMaximumPoolSize);
+      add("threads.utilization_pct", () -> utilization(pool.getActiveCount(),
+          pool.getMaximumPoolSize()));
+      add("queue.depth", () -> pool.getQueue().size());
+    } else if (hasMethod(poolClass, "getBusyThreads")) {
+      // Jetty QueuedThreadPool
+      Method getBusyThreads = resolve(poolClass, "getBusyThreads");
+      Method getThreads = resolve(poolClass, "getThreads");
+      Method getMaxThreads = resolve(poolClass, "getMaxThreads");
+      Method getQueueSize = resolve(poolClass, "getQueueSize");
+      add("threads.busy", () -> intValue(getBusyThreads.invoke(threadPool)), getBusyThreads);
+      add("threads.total", () -> intValue(getThreads.invoke(threadPool)), getThreads);
+      add("threads.max", () -> intValue(getMaxThreads.invoke(threadPool)), getMaxThreads);
+      add("threads.utilization_pct", () -> utilization(
+          intValue(getBusyThreads.invoke(threadPool)), intValue(getMaxThreads.invoke(threadPool))),
+          getBusyThreads, getMaxThreads);
+      add("queue.depth", () -> intValue(getQueueSize.invoke(threadPool)), getQueueSize);
+    } else if (hasMethod(poolClass, "getConfig")) {
+      // Grizzly AbstractThreadPool
+      Method getConfig = resolve(poolClass, "getConfig");
+      Object config = invoke(threadPool, "getConfig");
+      Class<?> configClass = config == null ? null : config.getClass();
+      Method getMaxPoolSize = resolve(configClass, "getMaxPoolSize");
+      Method getQueue = resolve(configClass, "getQueue");
+      add("threads.max", () -> intValue(getMaxPoolSize.invoke(getConfig.invoke(threadPool))),
+          getConfig, getMaxPoolSize);
+      add("queue.depth", () -> size(getQueue.invoke(getConfig.invoke(threadPool))),
+          getConfig, getQueue);
+    } else {
+      logger.log(Level.WARNING, "Unsupported thread pool: " + poolClass.getName());
+    }
+  }
+
+  /**
+   * Poll the figure with the given reader, unless one of the methods it calls is not resolved.
+   */
+  private void add(String name, Reader reader, @Nullable Method... methods) {
+    for (Method method : methods) {
+      if (method == null) {
+        logger.log(Level.WARNING, "Container metric " + name + " is not supported by this " +
+            "container, it will not be reported");
+        return;
+      }
+    }
+    pollers.add(new Poller(name, reader));
+  }
+
+  private void poll() {
+    for (Poller poller : pollers) {
+      try {
+        poller.value.set(poller.reader.read());
+      } catch (Throwable t) {
+        // the value of the previous poll is kept
+        Level level = poller.failed ? Level.FINE : Level.WARNING;
+        poller.failed = true;
+        logger.log(level, "Unable to poll container metric " + poller.name, t);
+      }
+    }
+  }
+
+  private static int utilization(int busy, int max) {
+    return max <= 0 ? 0 : (int) (busy * 100L / max);
+  }
+
+  private static boolean isInstance(Object object, String className) {
+    for (Class<?> clazz = object.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+      if (clazz.getName().equals(className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasMethod(Class<?> clazz, String methodName) {
+    try {
+      clazz.getMethod(methodName);
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private static Class<?> loadClass(Object object, String className) {
+    try {
+      return Class.forName(className, false, object.getClass().getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the public no-arg method of the class, made accessible when its declaring class is
+   * not public, or {@code null} if it does not exist or can't be made accessible.
+   */
+  @Nullable
+  static Method resolve(@Nullable Class<?> clazz, String methodName) {
+    if (clazz == null) {
+      return null;
+    }
+    try {
+      Method method = clazz.getMethod(methodName);
+      if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+        method.setAccessible(true);
+      }
+      return method;
+    } catch (NoSuchMethodException | RuntimeException e) {
+      // RuntimeException: SecurityException, or InaccessibleObjectException (JDK 9+)
+      logger.log(Level.FINE, "Unable to resolve " + clazz.getName() + "." + methodName, e);
+      return null;
+    }
+  }
+
+  /**
+   * Invoke a method once, while detecting the container.
+   */
+  @Nullable
+  private static Object invoke(@Nullable Object target, String methodName) {
+    Method method = target == null ? null : resolve(target.getClass(), methodName);
+    if (method == null) {
+      return null;
+    }
+    try {
+      return method.invoke(target);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.log(Level.FINE, "Unable to invoke " + target.getClass().getName() + "." +
+          methodName, e);
+      return null;
+    }
+  }
+
+  private static int intValue(@Nullable Object value) {
+    if (!(value instanceof Number)) {
+      throw new IllegalStateException("Not a number: " + value);
+    }
+    return ((Number) value).intValue();
+  }
+
+  private static int size(@Nullable Object value) {
+    if (!(value instanceof Collection)) {
+      throw new IllegalStateException("Not a collection: " + value);
+    }
+    return ((Collection<?>) value).size();
+  }
+
+  @FunctionalInterface
+  private interface Reader {
+    int read() throws ReflectiveOperationException;
+  }
+
+  private static final class Poller {
+    private final String name;
+    private final Reader reader;
+    private final AtomicInteger value = new AtomicInteger();
+    // only accessed by the polling thread
+    private boolean failed;
+
+    private Poller(String name, Reader reader) {
+      this.name = name;
+      this.reader = reader;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jaxrs.client.SpanWrapper;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static com.wavefront.sdk.jaxrs.Constants.PROPERTY_NAME;
+import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
+
+/**
+ * Jersey event listener counting the exceptions thrown while serving requests, per route and
+ * exception class, register it next to the {@link WavefrontJerseyFilter}:
+ *
+ * <pre>
+ * environment.jersey().register(wavefrontJerseyFactory.getExceptionMetrics());
+ * </pre>
+ *
+ * <p>Every {@link RequestEvent.Type#ON_EXCEPTION} event increments
+ * {@code jersey.server.response.<route>.exceptions} (Counter), tagged like the other metrics of
+ * the route plus {@code exception.class}. Exceptions thrown before a route is matched are
+ * reported as route {@code unmatched}. At most {@code maxExceptionClasses} classes are reported
+ * individually, any other class is reported as {@code other}. The metric names are built once
+ * per route and class, so an error storm only costs a couple of map lookups and counter
+ * increments per exception.
+ *
+ * <p>Optionally, the active span of the request is tagged with {@code error} and
+ * {@code exception.class}, and up to {@code maxStackTracesPerMinute} stack traces are logged,
+ * the others are dropped.
+ */
+public class ExceptionMetrics implements ApplicationEventListener {
+  private static final Logger logger = Logger.getLogger(ExceptionMetrics.class.getName());
+
+  private static final String UNMATCHED_ROUTE = "unmatched";
+  private static final String OTHER_CLASS = "other";
+  private static final long STACK_TRACE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final SdkReporter wfJerseyReporter;
+  private final int maxExceptionClasses;
+  private final boolean tagSpans;
+  private final int maxStackTracesPerMinute;
+  private final Map<String, String> unmatchedTags;
+
+  private final Set<String> exceptionClasses = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger exceptionClassCount = new AtomicInteger();
+  // route -> exception class -> metric name
+  private final ConcurrentMap<String, ConcurrentMap<String, MetricName>> metricNames =
+      new ConcurrentHashMap<>();
+  private final Function<String, ConcurrentMap<String, MetricName>> newRoute =
+      route -> new ConcurrentHashMap<>();
+  private final AtomicLong stackTraceWindowStart = new AtomicLong(System.nanoTime());
+  private final AtomicInteger stackTraceCount = new AtomicInteger();
+  private final RequestEventListener requestEventListener = this::onRequestEvent;
+
+  private ExceptionMetrics(SdkReporter wfJerseyReporter, ApplicationTags applicationTags,
+                           int maxExceptionClasses, boolean tagSpans,
+                           int maxStackTracesPerMinute) {
+    Preconditions.checkNotNull(wfJerseyReporter, "Invalid JerseyReporter");
+    Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
+    Preconditions.checkArgument(maxExceptionClasses >= 0, "Invalid maxExceptionClasses");
+    Preconditions.checkArgument(maxStackTracesPerMinute >= 0, "Invalid maxStackTracesPerMinute");
+    this.wfJerseyReporter = wfJerseyReporter;
+    this.maxExceptionClasses = maxExceptionClasses;
+    this.tagSpans = tagSpans;
+    this.maxStackTracesPerMinute = maxStackTracesPerMinute;
+    this.unmatchedTags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+    }};
+  }
+
+  public static final class Builder {
+    private final SdkReporter wfJerseyReporter;
+    private final ApplicationTags applicationTags;
+    private int maxExceptionClasses = 50;
+    private boolean tagSpans = true;
+    private int maxStackTracesPerMinute = 0;
+
+    public Builder(SdkReporter wfJerseyReporter, ApplicationTags applicationTags) {
+      this.wfJerseyReporter = wfJerseyReporter;
+      this.applicationTags = applicationTags;
+    }
+
+    /**
+     * @param maxExceptionClasses maximum number of exception classes reported individually,
+     *                            defaults to 50.
+     * @return {@code this}.
+     */
+    public Builder maxExceptionClasses(int maxExceptionClasses) {
+      this.maxExceptionClasses = maxExceptionClasses;
+      return this;
+    }
+
+    /**
+     * @param tagSpans whether to tag the span of the request with the exception, defaults to
+     *                 {@code true}.
+     * @return {@code this}.
+     */
+    public Builder tagSpans(boolean tagSpans) {
+      this.tagSpans = tagSpans;
+      return this;
+    }
+
+    /**
+     * @param maxStackTracesPerMinute maximum number of stack traces logged per minute, defaults
+     *                                to 0 (none).
+     * @return {@code this}.
+     */
+    public Builder maxStackTracesPerMinute(int maxStackTracesPerMinute) {
+      this.maxStackTracesPerMinute = maxStackTracesPerMinute;
+      return this;
+    }
+
+    public ExceptionMetrics build() {
+      return new ExceptionMetrics(wfJerseyReporter, applicationTags, maxExceptionClasses,
+          tagSpans, maxStackTracesPerMinute);
+    }
+  }
+
+  @Override
+  public void onEvent(ApplicationEvent event) {
+    // nothing to do
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    // stateless, shared by all the requests
+    return requestEventListener;
+  }
+
+  private void onRequestEvent(RequestEvent event) {
+    if (event.getType() != RequestEvent.Type.ON_EXCEPTION || event.getException() == null) {
+      return;
+    }
+    Throwable exception = event.getException();
+    ContainerRequest request = event.getContainerRequest();
+    Object property = request == null ? null :
+        request.getProperty(WavefrontJerseyFilter.ROUTE_PROPERTY_NAME);
+    RouteDescriptor route = property instanceof RouteDescriptor ? (RouteDescriptor) property :
+        null;
+    String routeName = route == null ? UNMATCHED_ROUTE : route.getRoute();
+    String exceptionClass = exceptionClass(exception.getClass().getName());
+
+    ConcurrentMap<String, MetricName> routeMetricNames = metricNames.get(routeName);
+    if (routeMetricNames == null) {
+      routeMetricNames = metricNames.computeIfAbsent(routeName, newRoute);
+    }
+    MetricName metricName = routeMetricNames.get(exceptionClass);
+    if (metricName == null) {
+      Map<String, String> tags = new HashMap<>(route == null ? unmatchedTags :
+          route.getTags());
+      tags.put("exception.class", exceptionClass);
+      metricName = routeMetricNames.computeIfAbsent(exceptionClass, key -> new MetricName(
+          RESPONSE_PREFIX + routeName + ".exceptions", tags));
+    }
+    wfJerseyReporter.incrementCounter(metricName);
+
+    if (tagSpans && request != null) {
+      Object spanWrapper = request.getProperty(PROPERTY_NAME);
+      if (spanWrapper instanceof SpanWrapper) {
+        Span span = ((SpanWrapper) spanWrapper).getSpan();
+        Tags.ERROR.set(span, true);
+        span.setTag("exception.class", exceptionClass);
+      }
+    }
+    if (maxStackTracesPerMinute > 0 && acquireStackTrace()) {
+      logger.log(Level.WARNING, "Exception serving " + routeName, exception);
+    }
+  }
+
+  private String exceptionClass(String className) {
+    if (exceptionClasses.contains(className)) {
+      return className;
+    }
+    if (exceptionClassCount.get() < maxExceptionClasses &&
+        exceptionClassCount.incrementAndGet() <= maxExceptionClasses) {
+      if (!exceptionClasses.add(className)) {
+        // added concurrently by another request
+        exceptionClassCount.decrementAndGet();
+      }
+      return className;
+    }
+    return OTHER_CLASS;
+  }
+
+  private boolean acquireStackTrace() {
+    long now = System.nanoTime();
+    long windowStart = stackTraceWindowStart.get();
+    if (now - windowStart >= STACK_TRACE_WINDOW_NANOS &&
+        stackTraceWindowStart.compareAndSet(windowStart, now)) {
+      stackTraceCount.set(0);
+    }
+    return stackTraceCount.get() < maxStackTracesPerMinute &&
+        stackTraceCount.incrementAndGet() <= maxStackTracesPerMinute;
+  }
+}
@@ -0,0 +1,388 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+
+/**
+ * Finds the heaviest consumers of every route, as identified by a request header (tenant, API
+ * key, user agent, ...), without one series per header value. The values of the header are
+ * counted per route in a fixed size Space-Saving sketch and, every interval, only the top K
+ * values by request count, latency sum and error count are reported:
+ * <ol>
+ * <li>jersey.server.response.api.v2.alert.summary.GET.heavy_hitter.requests</li>
+ * <li>jersey.server.response.api.v2.alert.summary.GET.heavy_hitter.latency_sum</li>
+ * <li>jersey.server.response.api.v2.alert.summary.GET.heavy_hitter.errors</li>
+ * </ol>
+ * tagged with the header name and value. As the header may carry secrets, e.g. an API key, the
+ * values are reported hashed by default, see {@link #hash(String)}.
+ *
+ * <p>The sketch of a route is split in stripes by value, so concurrent requests with different
+ * values seldom contend on the same monitor. Request counts are upper bounds, over-estimated by
+ * at most the number of requests of the stripe divided by the capacity of a stripe. Requests
+ * without the header are ignored.
+ */
+public class HeavyHitters implements Closeable {
+  private static final Logger logger = Logger.getLogger(HeavyHitters.class.getName());
+
+  private final WavefrontJerseyReporter reporter;
+  private final String header;
+  private final int stripeCapacity;
+  private final int stripeMask;
+  private final int topK;
+  private final int maxValueLength;
+  private final boolean hashValues;
+  private final Map<String, String> tags;
+  private final ConcurrentMap<String, AtomicReferenceArray<SpaceSaving>> routes =
+      new ConcurrentHashMap<>();
+  private final Function<String, AtomicReferenceArray<SpaceSaving>> newRoute;
+  private final ScheduledExecutorService executor;
+
+  private HeavyHitters(WavefrontJerseyReporter reporter, ApplicationTags applicationTags,
+                       String header, int capacity, int stripes, int topK, int maxValueLength,
+                       boolean hashValues, int reportingIntervalSeconds) {
+    Preconditions.checkNotNull(reporter, "Invalid WavefrontJerseyReporter");
+    Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
+    Preconditions.checkNotNull(header, "Invalid header");
+    Preconditions.checkArgument(capacity > 0, "Invalid capacity");
+    Preconditions.checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1 &&
+        stripes <= capacity, "Invalid stripes");
+    Preconditions.checkArgument(topK > 0 && topK <= capacity, "Invalid topK");
+    Preconditions.checkArgument(maxValueLength > 0, "Invalid maxValueLength");
+    Preconditions.checkArgument(reportingIntervalSeconds > 0, "Invalid reportingIntervalSeconds");
+    this.reporter = reporter;
+    this.header = header;
+    this.stripeCapacity = (capacity + stripes - 1) / stripes;
+    this.stripeMask = stripes - 1;
+    this.topK = topK;
+    this.maxValueLength = maxValueLength;
+    this.hashValues = hashValues;
+    this.tags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+    }};
+    this.newRoute = route -> {
+      AtomicReferenceArray<SpaceSaving> sketches = new AtomicReferenceArray<>(stripes);
+      for (int i = 0; i < stripes; i++) {
+        sketches.set(i, new SpaceSaving(stripeCapacity));
+      }
+      return sketches;
+    };
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-heavy-hitters");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleAtFixedRate(this::report, reportingIntervalSeconds,
+        reportingIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public static final class Builder {
+    private final WavefrontJerseyReporter reporter;
+    private final ApplicationTags applicationTags;
+    private final String header;
+    private int capacity = 64;
+    private int stripes = Math.min(8,
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+    private int topK = 10;
+    private int maxValueLength = 128;
+    private boolean hashValues = true;
+    private int reportingIntervalSeconds = 60;
+
+    /**
+     * @param reporter        reporter to send the top consumers with.
+     * @param applicationTags metadata about your application.
+     * @param header          request header identifying the consumer, e.g. {@code X-Tenant}.
+     */
+    public Builder(WavefrontJerseyReporter reporter, ApplicationTags applicationTags,
+                   String header) {
+      this.reporter = reporter;
+      this.applicationTags = applicationTags;
+      this.header = header;
+    }
+
+    /**
+     * @param capacity number of header values counted per route, defaults to 64.
+     * @return {@code this}.
+     */
+    public Builder capacity(int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * @param stripes number of sketches per route the capacity is split into, a power of two,
+     *                defaults to the number of processors, up to 8. Use 1 for the tightest
+     *                error bound when the requests are not concurrent.
+     * @return {@code this}.
+     */
+    public Builder stripes(int stripes) {
+      this.stripes = stripes;
+      return this;
+    }
+
+    /**
+     * @param topK number of header values reported per route and per criteria, defaults to 10.
+     * @return {@code this}.
+     */
+    public Builder topK(int topK) {
+      this.topK = topK;
+      return this;
+    }
+
+    /**
+     * @param maxValueLength header values are truncated to this length, defaults to 128.
+     * @return {@code this}.
+     */
+    public Builder maxValueLength(int maxValueLength) {
+      this.maxValueLength = maxValueLength;
+      return this;
+    }
+
+    /**
+     * @param hashValues whether the header values are reported hashed, see
+     *                   {@link HeavyHitters#hash(String)}, defaults to true. Only disable it for
+     *                   headers carrying no secret, e.g. a tenant ID.
+     * @return {@code this}.
+     */
+    public Builder hashValues(boolean hashValues) {
+      this.hashValues = hashValues;
+      return this;
+    }
+
+    /**
+     * @param reportingIntervalSeconds how often the top consumers are reported, defaults to 60.
+     * @return {@code this}.
+     */
+    public Builder reportingIntervalSeconds(int reportingIntervalSeconds) {
+      this.reportingIntervalSeconds = reportingIntervalSeconds;
+      return this;
+    }
+
+    public HeavyHitters build() {
+      return new HeavyHitters(reporter, applicationTags, header, capacity,
+          Math.min(stripes, Math.max(1, Integer.highestOneBit(capacity))), topK, maxValueLength,
+          hashValues, reportingIntervalSeconds);
+    }
+  }
+
+  String getHeader() {
+    return header;
+  }
+
+  /**
+   * @param route         route of the request, e.g. {@code api.v2.alert.summary.GET}.
+   * @param value         value of the header, the request is ignored if {@code null}.
+   * @param latencyMillis latency of the request.
+   * @param error         whether the response is a 4xx/5xx.
+   */
+  void record(String route, @Nullable String value, long latencyMillis, boolean error) {
+    if (value == null) {
+      return;
+    }
+    if (value.length() > maxValueLength) {
+      value = value.substring(0, maxValueLength);
+    }
+    AtomicReferenceArray<SpaceSaving> sketches = routes.get(route);
+    if (sketches == null) {
+      sketches = routes.computeIfAbsent(route, newRoute);
+    }
+    int hash = value.hashCode();
+    sketches.get((hash ^ (hash >>> 16)) & stripeMask).offer(value, latencyMillis, error);
+  }
+
+  /**
+   * @param value value of the header, truncated to the maximum value length.
+   * @return the reported value when hashed: the first 16 hex digits of the SHA-256 digest of
+   * the UTF-8 bytes of the value.
+   */
+  public static String hash(String value) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(
+          value.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM supports SHA-256
+      throw new IllegalStateException(e);
+    }
+    StringBuilder hex = new StringBuilder(16);
+    for (int i = 0; i < 8; i++) {
+      hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).
+          append(Character.forDigit(digest[i] & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  void report() {
+    try {
+      long timestamp = System.currentTimeMillis();
+      for (Map.Entry<String, AtomicReferenceArray<SpaceSaving>> route : routes.entrySet()) {
+        AtomicReferenceArray<SpaceSaving> sketches = route.getValue();
+        // the values of the stripes are disjoint, the merged sketch holds all of them
+        SpaceSaving sketch = new SpaceSaving(stripeCapacity * sketches.length());
+        for (int i = 0; i < sketches.length(); i++) {
+          SpaceSaving stripe = sketches.getAndSet(i, new SpaceSaving(stripeCapacity));
+          // waits for the offers still in progress on the swapped stripe
+          synchronized (stripe) {
+            sketch.addAll(stripe);
+          }
+        }
+        boolean[] top = sketch.top(topK);
+        String prefix = MetricNameUtils.RESPONSE_PREFIX + route.getKey() + ".heavy_hitter.";
+        for (int i = 0; i < top.length; i++) {
+          if (!top[i]) {
+            continue;
+          }
+          Map<String, String> pointTags = new HashMap<>(tags);
+          pointTags.put(header, hashValues ? hash(sketch.values[i]) : sketch.values[i]);
+          reporter.sendPoint(prefix + "requests", sketch.counts[i], timestamp, pointTags);
+          reporter.sendPoint(prefix + "latency_sum", sketch.latencySums[i], timestamp,
+              pointTags);
+          reporter.sendPoint(prefix + "errors", sketch.errors[i], timestamp, pointTags);
+        }
+      }
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error reporting heavy hitters", t);
+    }
+  }
+
+  /**
+   * Space-Saving sketch: when all the slots are taken, a new value replaces the value with the
+   * lowest count and inherits its count. The latency sum and error count of the replaced value
+   * are reset.
+   */
+  static final class SpaceSaving {
+    private final String[] values;
+    private final long[] counts;
+    private final long[] latencySums;
+    private final long[] errors;
+    private final Map<String, Integer> slots;
+    private int size;
+
+    SpaceSaving(int capacity) {
+      this.values = new String[capacity];
+      this.counts = new long[capacity];
+      this.latencySums = new long[capacity];
+      this.errors = new long[capacity];
+      this.slots = new HashMap<>(capacity * 2);
+    }
+
+    synchronized void offer(String value, long latencyMillis, boolean error) {
+      Integer slot = slots.get(value);
+      int index;
+      if (slot != null) {
+        index = slot;
+      } else if (size < values.length) {
+        index = size++;
+        values[index] = value;
+        slots.put(value, index);
+      } else {
+        index = 0;
+        for (int i = 1; i < size; i++) {
+          if (counts[i] < counts[index]) {
+            index = i;
+          }
+        }
+        slots.remove(values[index]);
+        values[index] = value;
+        slots.put(value, index);
+        latencySums[index] = 0;
+        errors[index] = 0;
+      }
+      counts[index]++;
+      latencySums[index] += latencyMillis;
+      if (error) {
+        errors[index]++;
+      }
+    }
+
+    /**
+     * Append the slots of a sketch holding none of the values of this one.
+     */
+    void addAll(SpaceSaving other) {
+      for (int i = 0; i < other.size; i++) {
+        values[size] = other.values[i];
+        counts[size] = other.counts[i];
+        latencySums[size] = other.latencySums[i];
+        errors[size] = other.errors[i];
+        slots.put(values[size], size);
+        size++;
+      }
+    }
+
+    /**
+     * @return the count of the value, 0 if not counted.
+     */
+    synchronized long count(String value) {
+      Integer slot = slots.get(value);
+      return slot == null ? 0 : counts[slot];
+    }
+
+    /**
+     * @return the slots among the top K by request count, latency sum or error count.
+     */
+    boolean[] top(int k) {
+      boolean[] top = new boolean[size];
+      markTop(top, counts, k);
+      markTop(top, latencySums, k);
+      markTop(top, errors, k);
+      return top;
+    }
+
+    private void markTop(boolean[] top, long[] metric, int k) {
+      if (size == 0) {
+        return;
+      }
+      long[] sorted = Arrays.copyOf(metric, size);
+      Arrays.sort(sorted);
+      long threshold = Math.max(1, sorted[Math.max(0, size - k)]);
+      int marked = 0;
+      for (int i = 0; i < size; i++) {
+        if (metric[i] > threshold) {
+          top[i] = true;
+          marked++;
+        }
+      }
+      // the slots tied at the threshold fill the remaining places, in slot order
+      for (int i = 0; i < size && marked < k; i++) {
+        if (metric[i] == threshold) {
+          top[i] = true;
+          marked++;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,381 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.container.ContainerRequestContext;
+
+import io.opentracing.SpanContext;
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Lock-free registry of the requests currently being served. Requests are stored in a fixed
+ * number of preallocated slots which are claimed with a CAS, so registering a request never
+ * locks and only allocates the request property pointing to its slot. A request only probes
+ * {@value #MAX_PROBES} slots from a start hashed from its thread: when they are all taken, e.g.
+ * when the registry is full under overload, the request is not tracked and only counted.
+ *
+ * <p>A background scanner periodically computes the age percentiles of the in-flight requests and
+ * the number of requests older than the stuck threshold and publishes them as gauges:
+ * <ol>
+ * <li>jersey.server.inflight.age.p50_ms</li>
+ * <li>jersey.server.inflight.age.p99_ms</li>
+ * <li>jersey.server.inflight.age.max_ms</li>
+ * <li>jersey.server.inflight.stuck</li>
+ * <li>jersey.server.inflight.untracked</li>
+ * </ol>
+ * The current requests can be listed with {@link #snapshot()}, e.g. through
+ * {@link InflightRequestsResource}.
+ *
+ * <p>The registry is also a Jersey event listener, which releases the slots of the requests
+ * whose response filters are skipped (unmapped exceptions, failed writes, cancelled async
+ * responses): register the instance with Jersey as well.
+ */
+public class InflightRequestRegistry implements Closeable, ApplicationEventListener {
+  private static final Logger logger = Logger.getLogger(InflightRequestRegistry.class.getName());
+
+  private static final String PROPERTY_NAME = InflightRequestRegistry.class.getName() + ".slot";
+
+  private static final int FREE = 0;
+  private static final int WRITING = 1;
+  private static final int ACTIVE = 2;
+
+  /**
+   * Maximum number of slots probed to register a request.
+   */
+  static final int MAX_PROBES = 8;
+
+  private final Slot[] slots;
+  private final AtomicIntegerArray states;
+  private final int mask;
+  private final long stuckThresholdNanos;
+  private final LongAdder untracked = new LongAdder();
+  private final ScheduledExecutorService executor;
+  private final RequestEventListener requestEventListener = this::onRequestEvent;
+
+  private final AtomicInteger p50AgeMillis = new AtomicInteger();
+  private final AtomicInteger p99AgeMillis = new AtomicInteger();
+  private final AtomicInteger maxAgeMillis = new AtomicInteger();
+  private final AtomicInteger stuckRequests = new AtomicInteger();
+  private final AtomicInteger untrackedRequests = new AtomicInteger();
+
+  private InflightRequestRegistry(int capacity, long stuckThresholdMillis,
+                                  long scanIntervalSeconds) {
+    Preconditions.checkArgument(capacity > 0, "Invalid capacity");
+    Preconditions.checkArgument(stuckThresholdMillis > 0, "Invalid stuckThresholdMillis");
+    Preconditions.checkArgument(scanIntervalSeconds > 0, "Invalid scanIntervalSeconds");
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    size = size <= 0 ? 1 : size;
+    this.slots = new Slot[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot(i);
+    }
+    this.states = new AtomicIntegerArray(size);
+    this.mask = size - 1;
+    this.stuckThresholdNanos = TimeUnit.MILLISECONDS.toNanos(stuckThresholdMillis);
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-inflight-scanner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::scan, scanIntervalSeconds, scanIntervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  public static final class Builder {
+    private int capacity = 1024;
+    private long stuckThresholdMillis = 30_000;
+    private long scanIntervalSeconds = 10;
+
+    /**
+     * @param capacity maximum number of tracked in-flight requests, rounded up to a power of
+     *                 two, defaults to 1024.
+     * @return {@code this}.
+     */
+    public Builder capacity(int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * @param stuckThresholdMillis age after which an in-flight request is counted as stuck,
+     *                             defaults to 30000.
+     * @return {@code this}.
+     */
+    public Builder stuckThresholdMillis(long stuckThresholdMillis) {
+      this.stuckThresholdMillis = stuckThresholdMillis;
+      return this;
+    }
+
+    /**
+     * @param scanIntervalSeconds how often the age gauges are recomputed, defaults to 10.
+     * @return {@code this}.
+     */
+    public Builder scanIntervalSeconds(long scanIntervalSeconds) {
+      this.scanIntervalSeconds = scanIntervalSeconds;
+      return this;
+    }
+
+    public InflightRequestRegistry build() {
+      return new InflightRequestRegistry(capacity, stuckThresholdMillis, scanIntervalSeconds);
+    }
+  }
+
+  /**
+   * Register the gauges computed by the scanner.
+   *
+   * @param reporter reporter to register the gauges with.
+   * @param tags     point tags of the gauges.
+   */
+  void registerGauges(SdkReporter reporter, Map<String, String> tags) {
+    reporter.registerGauge(new MetricName("inflight.age.p50_ms", tags), p50AgeMillis);
+    reporter.registerGauge(new MetricName("inflight.age.p99_ms", tags), p99AgeMillis);
+    reporter.registerGauge(new MetricName("inflight.age.max_ms", tags), maxAgeMillis);
+    reporter.registerGauge(new MetricName("inflight.stuck", tags), stuckRequests);
+    reporter.registerGauge(new MetricName("inflight.untracked", tags), untrackedRequests);
+  }
+
+  /**
+   * Register a request served by the current thread, unless the slots it probes are all taken.
+   *
+   * @param request the request, to pass to {@link #unregister}.
+   */
+  void register(ContainerRequestContext request, String operationName, String httpMethod,
+                String path, @Nullable SpanContext spanContext) {
+    Thread thread = Thread.currentThread();
+    int start = (int) (thread.getId() * 0x9E3779B9L) & mask;
+    // bounded, a full registry must not cost a scan of every slot to every request
+    int probes = Math.min(MAX_PROBES, mask + 1);
+    for (int i = 0; i < probes; i++) {
+      int index = (start + i) & mask;
+      if (states.get(index) == FREE && states.compareAndSet(index, FREE, WRITING)) {
+        Slot slot = slots[index];
+        slot.operationName = operationName;
+        slot.httpMethod = httpMethod;
+        slot.path = path;
+        slot.spanContext = spanContext;
+        slot.thread = thread;
+        slot.startNanos = System.nanoTime();
+        slot.request = request;
+        // publishes the plain writes above
+        states.set(index, ACTIVE);
+        request.setProperty(PROPERTY_NAME, slot);
+        return;
+      }
+    }
+    untracked.increment();
+  }
+
+  /**
+   * Release the slot of a request, a no-op when the request is not tracked or already released.
+   *
+   * @param request the request passed to {@link #register}.
+   */
+  void unregister(ContainerRequestContext request) {
+    Object slot = request.getProperty(PROPERTY_NAME);
+    if (!(slot instanceof Slot)) {
+      return;
+    }
+    int index = ((Slot) slot).index;
+    while (true) {
+      int state = states.get(index);
+      if (state == FREE) {
+        return;
+      }
+      if (state == ACTIVE && states.compareAndSet(index, ACTIVE, WRITING)) {
+        // the slot may have been released and claimed by another request since
+        if (slots[index].request == request) {
+          slots[index].spanContext = null;
+          slots[index].thread = null;
+          slots[index].request = null;
+          states.set(index, FREE);
+        } else {
+          states.set(index, ACTIVE);
+        }
+        return;
+      }
+      // being claimed, or checked by the release of another request, only for a few writes
+      Thread.yield();
+    }
+  }
+
+  /**
+   * @return number of requests which were not tracked because the slots they probed were taken.
+   */
+  public long getUntrackedCount() {
+    return untracked.sum();
+  }
+
+  /**
+   * @return the requests in flight right now, oldest first.
+   */
+  public List<InflightRequest> snapshot() {
+    long now = System.nanoTime();
+    List<InflightRequest> requests = new ArrayList<>();
+    for (int i = 0; i <= mask; i++) {
+      if (states.get(i) != ACTIVE) {
+        continue;
+      }
+      Slot slot = slots[i];
+      String operationName = slot.operationName;
+      String httpMethod = slot.httpMethod;
+      String path = slot.path;
+      SpanContext spanContext = slot.spanContext;
+      Thread thread = slot.thread;
+      long startNanos = slot.startNanos;
+      // skip the slot if it got released while being read
+      if (states.get(i) != ACTIVE || thread == null || slot.startNanos != startNanos) {
+        continue;
+      }
+      requests.add(new InflightRequest(operationName, httpMethod, path,
+          spanContext == null ? null : spanContext.toTraceId(), thread.getName(),
+          TimeUnit.NANOSECONDS.toMillis(now - startNanos)));
+    }
+    requests.sort((r1, r2) -> Long.compare(r2.getAgeMillis(), r1.getAgeMillis()));
+    return requests;
+  }
+
+  @Override
+  public void onEvent(ApplicationEvent event) {
+    // nothing to do
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    // stateless, shared by all the requests
+    return requestEventListener;
+  }
+
+  private void onRequestEvent(RequestEvent event) {
+    if (event.getType() == RequestEvent.Type.FINISHED && event.getContainerRequest() != null) {
+      // no-op when the response filter already released the slot
+      unregister(event.getContainerRequest());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void scan() {
+    try {
+      long now = System.nanoTime();
+      long[] ages = new long[mask + 1];
+      int count = 0;
+      int stuck = 0;
+      for (int i = 0; i <= mask; i++) {
+        if (states.get(i) == ACTIVE) {
+          long age = now - slots[i].startNanos;
+          ages[count++] = age;
+          if (age >= stuckThresholdNanos) {
+            stuck++;
+          }
+        }
+      }
+      Arrays.sort(ages, 0, count);
+      p50AgeMillis.set(ageMillis(ages, count, 0.50));
+      p99AgeMillis.set(ageMillis(ages, count, 0.99));
+      maxAgeMillis.set(count == 0 ? 0 : toMillis(ages[count - 1]));
+      stuckRequests.set(stuck);
+      untrackedRequests.set((int) Math.min(Integer.MAX_VALUE, untracked.sum()));
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error scanning in-flight requests", t);
+    }
+  }
+
+  private static int ageMillis(long[] sortedAges, int count, double quantile) {
+    if (count == 0) {
+      return 0;
+    }
+    return toMillis(sortedAges[(int) Math.min(count - 1, Math.ceil(quantile * count) - 1)]);
+  }
+
+  private static int toMillis(long nanos) {
+    return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  private static final class Slot {
+    private final int index;
+    private String operationName;
+    private String httpMethod;
+    private String path;
+    private SpanContext spanContext;
+    private Thread thread;
+    private long startNanos;
+    // the owner of the slot, its property points back to the slot
+    private ContainerRequestContext request;
+
+    private Slot(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * An immutable view of a request in flight.
+   */
+  public static final class InflightRequest {
+    private final String operationName;
+    private final String httpMethod;
+    private final String path;
+    @Nullable
+    private final String traceId;
+    private final String threadName;
+    private final long ageMillis;
+
+    InflightRequest(String operationName, String httpMethod, String path,
+                    @Nullable String traceId, String threadName, long ageMillis) {
+      this.operationName = operationName;
+      this.httpMethod = httpMethod;
+      this.path = path;
+      this.traceId = traceId;
+      this.threadName = threadName;
+      this.ageMillis = ageMillis;
+    }
+
+    public String getOperationName() {
+      return operationName;
+    }
+
+    public String getHttpMethod() {
+      return httpMethod;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    @Nullable
+    public String getTraceId() {
+      return traceId;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    public long getAgeMillis() {
+      return ageMillis;
+    }
+  }
+}
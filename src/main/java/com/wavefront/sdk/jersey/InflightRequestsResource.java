@@ -0,0 +1,74 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Optional admin resource listing the requests currently in flight, oldest first. Register it
+ * with your (admin) Jersey application to look at stuck requests:
+ *
+ * <pre>
+ * environment.jersey().register(new InflightRequestsResource(inflightRequestRegistry));
+ * </pre>
+ */
+@Path("/wavefront/inflight")
+public class InflightRequestsResource {
+
+  private final InflightRequestRegistry registry;
+
+  public InflightRequestsResource(InflightRequestRegistry registry) {
+    Preconditions.checkNotNull(registry, "Invalid InflightRequestRegistry");
+    this.registry = registry;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public String getInflightRequests() {
+    List<InflightRequestRegistry.InflightRequest> requests = registry.snapshot();
+    StringBuilder json = new StringBuilder("{\"untracked\":").
+        append(registry.getUntrackedCount()).append(",\"requests\":[");
+    for (int i = 0; i < requests.size(); i++) {
+      InflightRequestRegistry.InflightRequest request = requests.get(i);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"operationName\":");
+      appendString(json, request.getOperationName());
+      json.append(",\"httpMethod\":");
+      appendString(json, request.getHttpMethod());
+      json.append(",\"path\":");
+      appendString(json, request.getPath());
+      json.append(",\"traceId\":");
+      appendString(json, request.getTraceId());
+      json.append(",\"thread\":");
+      appendString(json, request.getThreadName());
+      json.append(",\"ageMillis\":").append(request.getAgeMillis()).append('}');
+    }
+    return json.append("]}").toString();
+  }
+
+  static void appendString(StringBuilder json, String value) {
+    if (value == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+}
@@ -0,0 +1,224 @@
+package com.wavefront.sdk.jersey;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Selects the response metrics and histograms {@link WavefrontJerseyFilter} reports. The metric
+ * names of every route are built once with the selected granularity, the metrics which are not
+ * selected are neither recorded nor flushed.
+ *
+ * <p>By default every aggregation level and histogram is reported, per status code. The
+ * granularity can also be loaded from a YAML file:
+ *
+ * <pre>
+ * aggregationLevels: [source, service, application]
+ * statusClasses: true
+ * histograms: [latency]
+ * </pre>
+ */
+public final class MetricGranularity {
+
+  /**
+   * Aggregation levels of the response counters.
+   */
+  public enum AggregationLevel {
+    /**
+     * The {@code .cumulative}, {@code .errors}, {@code .total_time} and
+     * {@code aggregated_per_source} counters, reported per source.
+     */
+    SOURCE,
+    /**
+     * The {@code aggregated_per_shard} delta counters.
+     */
+    SHARD,
+    /**
+     * The {@code aggregated_per_service} delta counters.
+     */
+    SERVICE,
+    /**
+     * The {@code aggregated_per_cluster} delta counters.
+     */
+    CLUSTER,
+    /**
+     * The {@code aggregated_per_application} delta counters.
+     */
+    APPLICATION
+  }
+
+  /**
+   * Response histograms.
+   */
+  public enum ResponseHistogram {
+    /**
+     * The {@code .latency} histogram.
+     */
+    LATENCY,
+    /**
+     * The {@code .cpu_ns} histogram, the CPU time of the request thread is not read without it.
+     */
+    CPU_NS,
+    /**
+     * The sampled {@code .alloc_bytes} histogram.
+     */
+    ALLOC_BYTES,
+    /**
+     * The sampled {@code .blocked_ms}, {@code .waited_ms}, {@code .blocked_count} and
+     * {@code .waited_count} histograms.
+     */
+    CONTENTION,
+    /**
+     * The {@code .downstream_time} and {@code .self_time} histograms.
+     */
+    DOWNSTREAM_TIME
+  }
+
+  public static final MetricGranularity DEFAULT = new Builder().build();
+
+  private final Set<AggregationLevel> aggregationLevels;
+  private final boolean statusClasses;
+  private final Set<ResponseHistogram> histograms;
+
+  private MetricGranularity(Set<AggregationLevel> aggregationLevels, boolean statusClasses,
+                            Set<ResponseHistogram> histograms) {
+    this.aggregationLevels = Collections.unmodifiableSet(aggregationLevels);
+    this.statusClasses = statusClasses;
+    this.histograms = Collections.unmodifiableSet(histograms);
+  }
+
+  public static final class Builder {
+    private final Set<AggregationLevel> aggregationLevels =
+        EnumSet.allOf(AggregationLevel.class);
+    private boolean statusClasses = false;
+    private final Set<ResponseHistogram> histograms = EnumSet.allOf(ResponseHistogram.class);
+
+    /**
+     * @param aggregationLevels the aggregation levels to report, defaults to all of them.
+     * @return {@code this}.
+     */
+    public Builder aggregationLevels(AggregationLevel... aggregationLevels) {
+      this.aggregationLevels.clear();
+      Collections.addAll(this.aggregationLevels, aggregationLevels);
+      return this;
+    }
+
+    /**
+     * Report the response metrics and histograms per status class ({@code 2xx}, {@code 4xx},
+     * {@code 5xx}, ...) instead of per status code.
+     *
+     * @param statusClasses whether to bucket the status codes, defaults to false.
+     * @return {@code this}.
+     */
+    public Builder statusClasses(boolean statusClasses) {
+      this.statusClasses = statusClasses;
+      return this;
+    }
+
+    /**
+     * @param histograms the response histograms to report, defaults to all of them.
+     * @return {@code this}.
+     */
+    public Builder histograms(ResponseHistogram... histograms) {
+      this.histograms.clear();
+      Collections.addAll(this.histograms, histograms);
+      return this;
+    }
+
+    public MetricGranularity build() {
+      return new MetricGranularity(EnumSet.copyOf(aggregationLevels), statusClasses,
+          EnumSet.copyOf(histograms));
+    }
+  }
+
+  /**
+   * Load the granularity from a YAML file with the optional {@code aggregationLevels},
+   * {@code statusClasses} and {@code histograms} properties, the missing properties keep their
+   * default.
+   *
+   * @param yamlFile path of the YAML file.
+   * @return the granularity.
+   * @throws IllegalArgumentException if the file cannot be read or is invalid.
+   */
+  public static MetricGranularity fromYamlFile(String yamlFile) {
+    Map<?, ?> properties;
+    try {
+      properties = new ObjectMapper(new YAMLFactory()).readValue(new File(yamlFile), Map.class);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read metric granularity from " + yamlFile,
+          e);
+    }
+    Builder builder = new Builder();
+    if (properties == null) {
+      return builder.build();
+    }
+    Object levels = properties.get("aggregationLevels");
+    if (levels != null) {
+      builder.aggregationLevels(parse(AggregationLevel.class, levels, "aggregationLevels").
+          toArray(new AggregationLevel[0]));
+    }
+    Object statusClasses = properties.get("statusClasses");
+    if (statusClasses != null) {
+      builder.statusClasses(Boolean.parseBoolean(statusClasses.toString()));
+    }
+    Object histograms = properties.get("histograms");
+    if (histograms != null) {
+      builder.histograms(parse(ResponseHistogram.class, histograms, "histograms").
+          toArray(new ResponseHistogram[0]));
+    }
+    return builder.build();
+  }
+
+  private static <E extends Enum<E>> Set<E> parse(Class<E> type, Object values,
+                                                  String property) {
+    Preconditions.checkArgument(values instanceof Collection, "Invalid " + property);
+    Set<E> parsed = EnumSet.noneOf(type);
+    for (Object value : (Collection<?>) values) {
+      try {
+        parsed.add(Enum.valueOf(type, String.valueOf(value).trim().toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid " + property + ": " + value, e);
+      }
+    }
+    return parsed;
+  }
+
+  public boolean reports(AggregationLevel aggregationLevel) {
+    return aggregationLevels.contains(aggregationLevel);
+  }
+
+  public boolean reports(ResponseHistogram histogram) {
+    return histograms.contains(histogram);
+  }
+
+  public boolean isStatusClasses() {
+    return statusClasses;
+  }
+
+  public Set<AggregationLevel> getAggregationLevels() {
+    return aggregationLevels;
+  }
+
+  public Set<ResponseHistogram> getHistograms() {
+    return histograms;
+  }
+
+  /**
+   * @param statusCode status code of the response.
+   * @return the status as it appears in the metric names, e.g. {@code 200} or {@code 2xx}.
+   */
+  String status(int statusCode) {
+    return statusClasses && statusCode >= 100 && statusCode <= 999 ?
+        (statusCode / 100) + "xx" : Integer.toString(statusCode);
+  }
+}
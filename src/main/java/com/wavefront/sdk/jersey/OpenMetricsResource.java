@@ -0,0 +1,43 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.OpenMetricsExporter;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import java.io.BufferedOutputStream;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Optional resource serving the metrics recorded by a {@link WavefrontJerseyReporter} in the
+ * OpenMetrics text format, for clusters scraping a sidecar instead of pushing to a Wavefront
+ * proxy. The output is streamed to the response as it is written.
+ *
+ * <pre>
+ * environment.jersey().register(new OpenMetricsResource(wavefrontJerseyReporter));
+ * </pre>
+ */
+@Path("/wavefront/metrics")
+public class OpenMetricsResource {
+
+  private final OpenMetricsExporter exporter;
+
+  public OpenMetricsResource(WavefrontJerseyReporter reporter) {
+    Preconditions.checkNotNull(reporter, "Invalid WavefrontJerseyReporter");
+    this.exporter = new OpenMetricsExporter(reporter);
+  }
+
+  @GET
+  @Produces(OpenMetricsExporter.CONTENT_TYPE)
+  public StreamingOutput getMetrics() {
+    return output -> {
+      BufferedOutputStream buffered = new BufferedOutputStream(output);
+      exporter.write(buffered);
+      buffered.flush();
+    };
+  }
+}
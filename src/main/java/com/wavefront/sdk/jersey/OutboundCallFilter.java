@@ -0,0 +1,267 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+
+/**
+ * JAX-RS client filter measuring the outbound calls of your application, register it on your
+ * clients next to the {@code WavefrontJaxrsClientFilter}:
+ *
+ * <pre>
+ * client.register(wavefrontJerseyFactory.getOutboundCallFilter());
+ * </pre>
+ *
+ * <p>Every call is reported per remote host and per route of the server request that made the
+ * call ({@code none} for calls made outside of a server request), to spot slow dependencies and
+ * size connection pools:
+ * <ol>
+ * <li>jersey.server.client.latency (WavefrontHistogram)</li>
+ * <li>jersey.server.client.errors (Counter)</li>
+ * <li>jersey.server.client.response_bytes (WavefrontHistogram, when the length is known)</li>
+ * </ol>
+ * At most {@code maxHosts} remote hosts are reported, the calls to any other host are reported
+ * as host {@code other}. The metric names are built once per host and route.
+ *
+ * <p>When {@link WavefrontJerseyFilter.Builder#reportSelfTime(boolean)} is enabled, the calls
+ * also let {@link WavefrontJerseyFilter} split the latency of the server request into
+ * {@code .downstream_time} and {@code .self_time}. Outbound calls are attributed to the server
+ * request being served by the calling thread when the call starts. Calls which fail before
+ * receiving a response are not measured.
+ *
+ * <p>The start of a call is kept in a marker reused by the following calls of the same server
+ * request (or of the same thread, outside of a server request): only concurrent calls allocate
+ * additional markers.
+ */
+public class OutboundCallFilter implements ClientRequestFilter, ClientResponseFilter {
+
+  static final String PROPERTY_NAME = OutboundCallFilter.class.getName() + ".call";
+  private static final String NO_ROUTE = "none";
+  private static final String OTHER_HOST = "other";
+
+  /**
+   * Outbound calls of the server request being served by the current thread, set by
+   * {@link WavefrontJerseyFilter}.
+   */
+  private static final ThreadLocal<OutboundCalls> currentCalls = new ThreadLocal<>();
+  /**
+   * Outbound calls made by the current thread outside of a server request, never reported.
+   */
+  private static final ThreadLocal<OutboundCalls> unattributedCalls =
+      ThreadLocal.withInitial(() -> new OutboundCalls(NO_ROUTE));
+
+  private final SdkReporter wfJerseyReporter;
+  private final ApplicationTags applicationTags;
+  private final int maxHosts;
+  private final AtomicInteger hostCount = new AtomicInteger();
+  // remote host -> server route -> metric names
+  private final ConcurrentMap<String, ConcurrentMap<String, Dependency>> dependencies =
+      new ConcurrentHashMap<>();
+  private final Function<String, ConcurrentMap<String, Dependency>> newHost =
+      host -> new ConcurrentHashMap<>();
+  // only counts the hosts actually inserted, null once maxHosts are reported
+  private final Function<String, ConcurrentMap<String, Dependency>> newCountedHost =
+      host -> {
+        int count;
+        do {
+          count = hostCount.get();
+          if (count >= maxHosts) {
+            return null;
+          }
+        } while (!hostCount.compareAndSet(count, count + 1));
+        return new ConcurrentHashMap<>();
+      };
+
+  private OutboundCallFilter(SdkReporter wfJerseyReporter, ApplicationTags applicationTags,
+                             int maxHosts) {
+    Preconditions.checkNotNull(wfJerseyReporter, "Invalid JerseyReporter");
+    Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
+    Preconditions.checkArgument(maxHosts >= 0, "Invalid maxHosts");
+    this.wfJerseyReporter = wfJerseyReporter;
+    this.applicationTags = applicationTags;
+    this.maxHosts = maxHosts;
+  }
+
+  public static final class Builder {
+    private final SdkReporter wfJerseyReporter;
+    private final ApplicationTags applicationTags;
+    private int maxHosts = 100;
+
+    public Builder(SdkReporter wfJerseyReporter, ApplicationTags applicationTags) {
+      this.wfJerseyReporter = wfJerseyReporter;
+      this.applicationTags = applicationTags;
+    }
+
+    /**
+     * @param maxHosts maximum number of remote hosts reported individually, defaults to 100.
+     * @return {@code this}.
+     */
+    public Builder maxHosts(int maxHosts) {
+      this.maxHosts = maxHosts;
+      return this;
+    }
+
+    public OutboundCallFilter build() {
+      return new OutboundCallFilter(wfJerseyReporter, applicationTags, maxHosts);
+    }
+  }
+
+  @Override
+  public void filter(ClientRequestContext requestContext) {
+    OutboundCalls calls = currentCalls.get();
+    if (calls == null) {
+      calls = unattributedCalls.get();
+    }
+    requestContext.setProperty(PROPERTY_NAME, calls.start(System.nanoTime()));
+  }
+
+  @Override
+  public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) {
+    Object property = requestContext.getProperty(PROPERTY_NAME);
+    if (!(property instanceof OutboundCall)) {
+      return;
+    }
+    requestContext.removeProperty(PROPERTY_NAME);
+    OutboundCall call = (OutboundCall) property;
+    long nanos = System.nanoTime() - call.startNanos;
+    OutboundCalls calls = call.calls;
+    // no longer referenced by the request context
+    calls.release(call);
+    calls.nanos.addAndGet(nanos);
+    calls.count.incrementAndGet();
+
+    Dependency dependency = dependency(requestContext.getUri().getHost(), calls.route);
+    wfJerseyReporter.updateHistogram(dependency.latency, TimeUnit.NANOSECONDS.toMillis(nanos));
+    int status = responseContext.getStatus();
+    if (status >= 400 && status <= 599) {
+      wfJerseyReporter.incrementCounter(dependency.errors);
+    }
+    int length = responseContext.getLength();
+    if (length >= 0) {
+      wfJerseyReporter.updateHistogram(dependency.responseBytes, length);
+    }
+  }
+
+  private Dependency dependency(@Nullable String host, String route) {
+    if (host == null) {
+      host = OTHER_HOST;
+    }
+    ConcurrentMap<String, Dependency> routes = dependencies.get(host);
+    if (routes == null) {
+      routes = OTHER_HOST.equals(host) ? null : dependencies.computeIfAbsent(host,
+          newCountedHost);
+      if (routes == null) {
+        host = OTHER_HOST;
+        routes = dependencies.computeIfAbsent(host, newHost);
+      }
+    }
+    Dependency dependency = routes.get(route);
+    if (dependency == null) {
+      String remoteHost = host;
+      dependency = routes.computeIfAbsent(route, key -> new Dependency(remoteHost, key));
+    }
+    return dependency;
+  }
+
+  static void setCurrentCalls(@Nullable OutboundCalls calls) {
+    if (calls == null) {
+      currentCalls.remove();
+    } else {
+      currentCalls.set(calls);
+    }
+  }
+
+  /**
+   * Accumulates the count and duration of the outbound calls of one server request. Calls may
+   * complete on other threads (async clients), hence the atomics.
+   */
+  static final class OutboundCalls {
+    private final String route;
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+    // marker of the last completed call, reused by the next call
+    private final AtomicReference<OutboundCall> freeCall = new AtomicReference<>();
+
+    /**
+     * @param route route of the server request, e.g. {@code api.v2.alert.summary.GET}.
+     */
+    OutboundCalls(String route) {
+      this.route = route;
+    }
+
+    long getNanos() {
+      return nanos.get();
+    }
+
+    int getCount() {
+      return count.get();
+    }
+
+    private OutboundCall start(long startNanos) {
+      OutboundCall call = freeCall.getAndSet(null);
+      if (call == null) {
+        // first call, or concurrent calls
+        call = new OutboundCall(this);
+      }
+      call.startNanos = startNanos;
+      return call;
+    }
+
+    private void release(OutboundCall call) {
+      freeCall.lazySet(call);
+    }
+  }
+
+  private static final class OutboundCall {
+    private final OutboundCalls calls;
+    private long startNanos;
+
+    private OutboundCall(OutboundCalls calls) {
+      this.calls = calls;
+    }
+  }
+
+  private final class Dependency {
+    private final MetricName latency;
+    private final MetricName errors;
+    private final MetricName responseBytes;
+
+    private Dependency(String remoteHost, String route) {
+      Map<String, String> tags = new HashMap<String, String>() {{
+        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+            applicationTags.getCluster());
+        put(SERVICE_TAG_KEY, applicationTags.getService());
+        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+            applicationTags.getShard());
+        put("remote.host", remoteHost);
+        put("jersey.route", route);
+      }};
+      this.latency = new MetricName("client.latency", tags);
+      this.errors = new MetricName("client.errors", tags);
+      this.responseBytes = new MetricName("client.response_bytes", tags);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Counter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.WavefrontHistogram;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+/**
+ * Business metrics of the request being served, e.g. cache hits or items returned, reported
+ * through the same reporter as the metrics of {@link WavefrontJerseyFilter}:
+ * <ol>
+ * <li>jersey.server.custom.&lt;name&gt; (Counter)</li>
+ * <li>jersey.server.custom.&lt;name&gt; (WavefrontHistogram)</li>
+ * </ol>
+ * tagged with the {@code ApplicationTags} and the resource class, method and operation name of
+ * the route serving the request. Get it from the resource method with
+ * {@code @Context RequestMetrics requestMetrics} (register a {@link RequestMetricsBinder}) or
+ * with {@link #current()}.
+ *
+ * <p>One instance is bound to every route and the metrics are bound to it on first use, so
+ * recording a metric does not build a metric name. Outside of an instrumented request (e.g. an
+ * excluded route) the metrics are ignored.
+ */
+public final class RequestMetrics {
+
+  static final String PROPERTY_NAME = RequestMetrics.class.getName();
+  private static final String PREFIX = "custom.";
+  private static final RequestMetrics NOOP = new RequestMetrics(null, null);
+
+  /**
+   * Metrics of the request being served by the current thread, set by
+   * {@link WavefrontJerseyFilter}.
+   */
+  private static final ThreadLocal<RequestMetrics> current = new ThreadLocal<>();
+
+  @Nullable
+  private final SdkReporter reporter;
+  @Nullable
+  private final WavefrontJerseyReporter jerseyReporter;
+  @Nullable
+  private final Map<String, String> tags;
+  private final ConcurrentMap<String, Handle> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Handle> histograms = new ConcurrentHashMap<>();
+  private final Function<String, Handle> newCounter;
+  private final Function<String, Handle> newHistogram;
+
+  /**
+   * @param reporter reporter to report the metrics with, {@code null} to ignore them.
+   * @param tags     tags of the route.
+   */
+  RequestMetrics(@Nullable SdkReporter reporter, @Nullable Map<String, String> tags) {
+    this.reporter = reporter;
+    this.jerseyReporter = reporter instanceof WavefrontJerseyReporter ?
+        (WavefrontJerseyReporter) reporter : null;
+    this.tags = tags;
+    this.newCounter = name -> {
+      MetricName metricName = new MetricName(PREFIX + name, this.tags);
+      return new Handle(metricName, jerseyReporter == null ? null :
+          jerseyReporter.counter(metricName), null);
+    };
+    this.newHistogram = name -> {
+      MetricName metricName = new MetricName(PREFIX + name, this.tags);
+      return new Handle(metricName, null, jerseyReporter == null ? null :
+          jerseyReporter.histogram(metricName));
+    };
+  }
+
+  /**
+   * @return the metrics of the request being served by the current thread, metrics recorded
+   * outside of an instrumented request are ignored.
+   */
+  public static RequestMetrics current() {
+    RequestMetrics requestMetrics = current.get();
+    return requestMetrics == null ? NOOP : requestMetrics;
+  }
+
+  static void setCurrent(@Nullable RequestMetrics requestMetrics) {
+    if (requestMetrics == null) {
+      current.remove();
+    } else {
+      current.set(requestMetrics);
+    }
+  }
+
+  /**
+   * @return the metrics of the given request, ignored if the request is not instrumented.
+   */
+  static RequestMetrics of(@Nullable Object property) {
+    return property instanceof RequestMetrics ? (RequestMetrics) property : NOOP;
+  }
+
+  /**
+   * Increment the counter {@code jersey.server.custom.<name>} of the route.
+   *
+   * @param name name of the counter, e.g. {@code cache.hits}.
+   */
+  public void increment(String name) {
+    increment(name, 1);
+  }
+
+  /**
+   * Increment the counter {@code jersey.server.custom.<name>} of the route.
+   *
+   * @param name name of the counter, e.g. {@code cache.hits}.
+   * @param n    the increment.
+   */
+  public void increment(String name, long n) {
+    if (reporter == null) {
+      return;
+    }
+    Handle handle = handle(counters, name, newCounter);
+    if (handle.counter != null) {
+      handle.counter.inc(n);
+    } else {
+      reporter.incrementCounter(handle.metricName, n);
+    }
+  }
+
+  /**
+   * Record a value in the histogram {@code jersey.server.custom.<name>} of the route.
+   *
+   * @param name  name of the histogram, e.g. {@code items.returned}.
+   * @param value the value.
+   */
+  public void record(String name, long value) {
+    if (reporter == null) {
+      return;
+    }
+    Handle handle = handle(histograms, name, newHistogram);
+    if (handle.histogram != null) {
+      handle.histogram.update(value);
+    } else {
+      reporter.updateHistogram(handle.metricName, value);
+    }
+  }
+
+  private static Handle handle(ConcurrentMap<String, Handle> handles, String name,
+                               Function<String, Handle> factory) {
+    Handle handle = handles.get(name);
+    return handle != null ? handle : handles.computeIfAbsent(name, factory);
+  }
+
+  private static final class Handle {
+    private final MetricName metricName;
+    @Nullable
+    private final Counter counter;
+    @Nullable
+    private final WavefrontHistogram histogram;
+
+    private Handle(MetricName metricName, @Nullable Counter counter,
+                   @Nullable WavefrontHistogram histogram) {
+      this.metricName = metricName;
+      this.counter = counter;
+      this.histogram = histogram;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.wavefront.sdk.jersey;
+
+import org.glassfish.hk2.api.Factory;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.process.internal.RequestScoped;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.container.ContainerRequestContext;
+
+/**
+ * Makes the {@link RequestMetrics} of the request injectable in resources with
+ * {@code @Context RequestMetrics requestMetrics}:
+ *
+ * <pre>
+ * environment.jersey().register(new RequestMetricsBinder());
+ * </pre>
+ */
+public class RequestMetricsBinder extends AbstractBinder {
+
+  @Override
+  protected void configure() {
+    bindFactory(RequestMetricsFactory.class).to(RequestMetrics.class).in(RequestScoped.class);
+  }
+
+  // public, instantiated by HK2
+  public static final class RequestMetricsFactory implements Factory<RequestMetrics> {
+    private final Provider<ContainerRequestContext> requestContext;
+
+    @Inject
+    public RequestMetricsFactory(Provider<ContainerRequestContext> requestContext) {
+      this.requestContext = requestContext;
+    }
+
+    @Override
+    public RequestMetrics provide() {
+      return RequestMetrics.of(requestContext.get().getProperty(RequestMetrics.PROPERTY_NAME));
+    }
+
+    @Override
+    public void dispose(RequestMetrics requestMetrics) {
+      // nothing to release
+    }
+  }
+}
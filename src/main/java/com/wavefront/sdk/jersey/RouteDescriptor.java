@@ -0,0 +1,288 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.MetricGranularity.AggregationLevel;
+import com.wavefront.sdk.jersey.MetricGranularity.ResponseHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
+import static com.wavefront.sdk.jersey.MetricNameUtils.REQUEST_PREFIX;
+import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
+
+/**
+ * Everything {@link WavefrontJerseyFilter} needs to report the requests of one route: its names,
+ * tags, in-flight gauge and the metric names of every status, built on the first request of the
+ * route instead of on every request. The metric names which are not selected by the
+ * {@link MetricGranularity} are {@code null}.
+ */
+final class RouteDescriptor {
+  private static final int MIN_STATUS_CODE = 100;
+  private static final int MAX_STATUS_CODE = 599;
+
+  private final String route;
+  private final String matchingPath;
+  private final String className;
+  private final String methodName;
+  private final String operationName;
+  private final boolean excluded;
+  private final boolean histograms;
+  private final double traceSampleRate;
+  @Nullable
+  private final AtomicInteger inflight;
+  private final RequestMetrics requestMetrics;
+  @Nullable
+  private final MetricName errors;
+  @Nullable
+  private final MetricName responseErrors;
+
+  private final MetricGranularity granularity;
+  private final Map<String, String> completeTags;
+  @Nullable
+  private final Map<String, String> aggregatedPerShardTags;
+  private final Map<String, String> aggregatedPerServiceTags;
+  @Nullable
+  private final Map<String, String> aggregatedPerClusterTags;
+  private final Map<String, String> aggregatedPerApplicationTags;
+  // indexed by status code, or status class when bucketing status codes
+  private final AtomicReferenceArray<StatusMetrics> statuses;
+
+  /**
+   * @param route           route of the request, e.g. {@code api.v2.alert.summary.GET}.
+   * @param matchingPath    path template of the route, e.g. {@code api/v2/alert/summary}.
+   * @param excluded        whether the route is excluded, its metrics are not registered.
+   * @param histograms      whether to report the response histograms of the route.
+   * @param traceSampleRate fraction of the requests of the route whose span is reported.
+   * @param reporter        reporter of the business metrics of the route.
+   * @param gauges          provides the value of a registered gauge.
+   */
+  RouteDescriptor(String route, String matchingPath, String className, String methodName,
+                  boolean excluded, boolean histograms, double traceSampleRate,
+                  ApplicationTags applicationTags, MetricGranularity granularity,
+                  SdkReporter reporter, Function<MetricName, AtomicInteger> gauges) {
+    this.route = route;
+    this.matchingPath = matchingPath;
+    this.className = className;
+    this.methodName = methodName;
+    this.operationName = className.substring(className.lastIndexOf('.') + 1) + "." + methodName;
+    this.excluded = excluded;
+    this.histograms = histograms;
+    this.traceSampleRate = traceSampleRate;
+    this.granularity = granularity;
+
+    String cluster = applicationTags.getCluster() == null ? NULL_TAG_VAL :
+        applicationTags.getCluster();
+    String shard = applicationTags.getShard() == null ? NULL_TAG_VAL : applicationTags.getShard();
+    this.completeTags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, cluster);
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, shard);
+      put("jersey.resource.class", className);
+      put("jersey.resource.method", methodName);
+      put("operationName", operationName);
+    }};
+    this.aggregatedPerShardTags = applicationTags.getShard() == null ? null :
+        new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, cluster);
+          put(SERVICE_TAG_KEY, applicationTags.getService());
+          put(SHARD_TAG_KEY, shard);
+          put("jersey.resource.class", className);
+          put("jersey.resource.method", methodName);
+          put("operationName", operationName);
+          put("source", WAVEFRONT_PROVIDED_SOURCE);
+        }};
+    this.aggregatedPerServiceTags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, cluster);
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put("jersey.resource.class", className);
+      put("jersey.resource.method", methodName);
+      put("operationName", operationName);
+      put("source", WAVEFRONT_PROVIDED_SOURCE);
+    }};
+    this.aggregatedPerClusterTags = applicationTags.getCluster() == null ? null :
+        new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, cluster);
+          put("jersey.resource.class", className);
+          put("jersey.resource.method", methodName);
+          put("operationName", operationName);
+          put("source", WAVEFRONT_PROVIDED_SOURCE);
+        }};
+    this.aggregatedPerApplicationTags = new HashMap<String, String>() {{
+      put("jersey.resource.class", className);
+      put("jersey.resource.method", methodName);
+      put("operationName", operationName);
+      put("source", WAVEFRONT_PROVIDED_SOURCE);
+    }};
+
+    this.inflight = excluded ? null : gauges.apply(new MetricName(
+        REQUEST_PREFIX + route + ".inflight", completeTags));
+    this.requestMetrics = new RequestMetrics(excluded ? null : reporter, completeTags);
+    boolean perSource = !excluded && granularity.reports(AggregationLevel.SOURCE);
+    this.errors = perSource ? new MetricName(RESPONSE_PREFIX + route + ".errors",
+        completeTags) : null;
+    this.responseErrors = perSource ? new MetricName("response.errors", completeTags) : null;
+    this.statuses = new AtomicReferenceArray<>(granularity.isStatusClasses() ?
+        MAX_STATUS_CODE / 100 + 1 : MAX_STATUS_CODE - MIN_STATUS_CODE + 1);
+  }
+
+  /**
+   * @param statusCode status code of the response.
+   * @return the metric names of the status.
+   */
+  StatusMetrics statusMetrics(int statusCode) {
+    if (statusCode < MIN_STATUS_CODE || statusCode > MAX_STATUS_CODE) {
+      // not cached, non standard status codes are rare
+      return new StatusMetrics(granularity.status(statusCode));
+    }
+    int index = granularity.isStatusClasses() ? statusCode / 100 : statusCode - MIN_STATUS_CODE;
+    StatusMetrics statusMetrics = statuses.get(index);
+    if (statusMetrics == null) {
+      statuses.compareAndSet(index, null, new StatusMetrics(granularity.status(statusCode)));
+      statusMetrics = statuses.get(index);
+    }
+    return statusMetrics;
+  }
+
+  String getRoute() {
+    return route;
+  }
+
+  String getMatchingPath() {
+    return matchingPath;
+  }
+
+  String getClassName() {
+    return className;
+  }
+
+  String getMethodName() {
+    return methodName;
+  }
+
+  String getOperationName() {
+    return operationName;
+  }
+
+  /**
+   * @return the tags of the metrics of the route, not to be modified.
+   */
+  Map<String, String> getTags() {
+    return completeTags;
+  }
+
+  boolean isExcluded() {
+    return excluded;
+  }
+
+  /**
+   * @return whether to report the response histograms of the route.
+   */
+  boolean isHistograms() {
+    return histograms;
+  }
+
+  double getTraceSampleRate() {
+    return traceSampleRate;
+  }
+
+  @Nullable
+  AtomicInteger getInflight() {
+    return inflight;
+  }
+
+  RequestMetrics getRequestMetrics() {
+    return requestMetrics;
+  }
+
+  @Nullable
+  MetricName getErrors() {
+    return errors;
+  }
+
+  @Nullable
+  MetricName getResponseErrors() {
+    return responseErrors;
+  }
+
+  /**
+   * Metric names of the responses of one status (or status class) of the route.
+   */
+  final class StatusMetrics {
+    @Nullable
+    final MetricName cumulative;
+    @Nullable
+    final MetricName aggregatedPerShard;
+    @Nullable
+    final MetricName aggregatedPerService;
+    @Nullable
+    final MetricName aggregatedPerCluster;
+    @Nullable
+    final MetricName aggregatedPerApplication;
+    @Nullable
+    final MetricName totalTime;
+    @Nullable
+    final MetricName latency;
+    @Nullable
+    final MetricName cpuNanos;
+    @Nullable
+    final MetricName allocatedBytes;
+    @Nullable
+    final MetricName blockedMillis;
+    @Nullable
+    final MetricName waitedMillis;
+    @Nullable
+    final MetricName blockedCount;
+    @Nullable
+    final MetricName waitedCount;
+    @Nullable
+    final MetricName downstreamTime;
+    @Nullable
+    final MetricName selfTime;
+
+    private StatusMetrics(String status) {
+      String key = RESPONSE_PREFIX + route + "." + status;
+      boolean perSource = granularity.reports(AggregationLevel.SOURCE);
+      this.cumulative = perSource ? new MetricName(key + ".cumulative", completeTags) : null;
+      this.aggregatedPerShard = granularity.reports(AggregationLevel.SHARD) &&
+          aggregatedPerShardTags != null ? new MetricName(key + ".aggregated_per_shard",
+          aggregatedPerShardTags) : null;
+      this.aggregatedPerService = granularity.reports(AggregationLevel.SERVICE) ?
+          new MetricName(key + ".aggregated_per_service", aggregatedPerServiceTags) : null;
+      this.aggregatedPerCluster = granularity.reports(AggregationLevel.CLUSTER) &&
+          aggregatedPerClusterTags != null ? new MetricName(key + ".aggregated_per_cluster",
+          aggregatedPerClusterTags) : null;
+      this.aggregatedPerApplication = granularity.reports(AggregationLevel.APPLICATION) ?
+          new MetricName(key + ".aggregated_per_application", aggregatedPerApplicationTags) :
+          null;
+      this.totalTime = perSource ? new MetricName(key + ".total_time", completeTags) : null;
+      this.latency = histogram(ResponseHistogram.LATENCY, key + ".latency");
+      this.cpuNanos = histogram(ResponseHistogram.CPU_NS, key + ".cpu_ns");
+      this.allocatedBytes = histogram(ResponseHistogram.ALLOC_BYTES, key + ".alloc_bytes");
+      this.blockedMillis = histogram(ResponseHistogram.CONTENTION, key + ".blocked_ms");
+      this.waitedMillis = histogram(ResponseHistogram.CONTENTION, key + ".waited_ms");
+      this.blockedCount = histogram(ResponseHistogram.CONTENTION, key + ".blocked_count");
+      this.waitedCount = histogram(ResponseHistogram.CONTENTION, key + ".waited_count");
+      this.downstreamTime = histogram(ResponseHistogram.DOWNSTREAM_TIME, key +
+          ".downstream_time");
+      this.selfTime = histogram(ResponseHistogram.DOWNSTREAM_TIME, key + ".self_time");
+    }
+
+    @Nullable
+    private MetricName histogram(ResponseHistogram histogram, String name) {
+      return histograms && !excluded && granularity.reports(histogram) ?
+          new MetricName(name, completeTags) : null;
+    }
+  }
+}
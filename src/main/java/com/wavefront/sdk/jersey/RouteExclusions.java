@@ -0,0 +1,162 @@
+package com.wavefront.sdk.jersey;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Routes {@link WavefrontJerseyFilter} does not instrument, typically health checks and static
+ * assets hit at a high rate by load balancers. A route is excluded when its path template, its
+ * resource class or an annotation on its resource method or class matches. The decision is made
+ * once per route and cached with the route, so an excluded request only costs the lookup of its
+ * route and, when counted, the increment of a single striped counter:
+ * {@code jersey.server.total_requests.excluded}.
+ *
+ * <pre>
+ * RouteExclusions exclusions = new RouteExclusions.Builder().
+ *     paths("/healthcheck", "/ping", "/assets/*").
+ *     build();
+ * wfJerseyFilterBuilder.withExclusions(exclusions);
+ * </pre>
+ */
+public final class RouteExclusions {
+
+  public enum Mode {
+    /**
+     * Excluded requests are not reported at all.
+     */
+    SKIP,
+    /**
+     * Excluded requests are only counted, all together.
+     */
+    COUNT
+  }
+
+  private final Set<String> paths;
+  private final List<String> pathPrefixes;
+  private final Set<Class<?>> resourceClasses;
+  private final List<Class<? extends Annotation>> annotations;
+  private final Mode mode;
+
+  private RouteExclusions(Set<String> paths, List<String> pathPrefixes,
+                          Set<Class<?>> resourceClasses,
+                          List<Class<? extends Annotation>> annotations, Mode mode) {
+    Preconditions.checkNotNull(mode, "Invalid mode");
+    this.paths = paths;
+    this.pathPrefixes = pathPrefixes;
+    this.resourceClasses = resourceClasses;
+    this.annotations = annotations;
+    this.mode = mode;
+  }
+
+  public static final class Builder {
+    private final Set<String> paths = new HashSet<>();
+    private final List<String> pathPrefixes = new ArrayList<>();
+    private final Set<Class<?>> resourceClasses = new HashSet<>();
+    private final List<Class<? extends Annotation>> annotations = new ArrayList<>();
+    private Mode mode = Mode.COUNT;
+
+    /**
+     * Exclude the routes with the given path templates, e.g. {@code /healthcheck} or
+     * {@code /items/{id}}. A template ending with {@code /*} excludes the routes below it.
+     *
+     * @param pathTemplates path templates of the routes, leading and trailing slashes are
+     *                      ignored.
+     * @return {@code this}.
+     */
+    public Builder paths(String... pathTemplates) {
+      for (String pathTemplate : pathTemplates) {
+        if (pathTemplate.endsWith("/*")) {
+          String prefix = normalize(pathTemplate.substring(0, pathTemplate.length() - 2));
+          paths.add(prefix);
+          pathPrefixes.add(prefix.isEmpty() ? "" : prefix + "/");
+        } else {
+          paths.add(normalize(pathTemplate));
+        }
+      }
+      return this;
+    }
+
+    /**
+     * @param resourceClasses exclude every route of these resource classes.
+     * @return {@code this}.
+     */
+    public Builder resourceClasses(Class<?>... resourceClasses) {
+      Collections.addAll(this.resourceClasses, resourceClasses);
+      return this;
+    }
+
+    /**
+     * @param annotations exclude the routes whose resource method or class is annotated with
+     *                    any of these runtime annotations.
+     * @return {@code this}.
+     */
+    @SafeVarargs
+    public final Builder annotations(Class<? extends Annotation>... annotations) {
+      Collections.addAll(this.annotations, annotations);
+      return this;
+    }
+
+    /**
+     * @param mode whether excluded requests are skipped or counted, defaults to
+     *             {@link Mode#COUNT}.
+     * @return {@code this}.
+     */
+    public Builder mode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    public RouteExclusions build() {
+      return new RouteExclusions(new HashSet<>(paths), new ArrayList<>(pathPrefixes),
+          new HashSet<>(resourceClasses), new ArrayList<>(annotations), mode);
+    }
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * @param matchingPath   path template of the route, e.g. {@code api/v2/alert/summary}.
+   * @param resourceClass  resource class of the route.
+   * @param resourceMethod resource method of the route.
+   * @return whether the route is excluded.
+   */
+  boolean excludes(String matchingPath, @Nullable Class<?> resourceClass,
+                   @Nullable Method resourceMethod) {
+    String path = normalize(matchingPath);
+    if (paths.contains(path)) {
+      return true;
+    }
+    for (String pathPrefix : pathPrefixes) {
+      if (path.startsWith(pathPrefix)) {
+        return true;
+      }
+    }
+    if (resourceClass != null && resourceClasses.contains(resourceClass)) {
+      return true;
+    }
+    for (Class<? extends Annotation> annotation : annotations) {
+      if ((resourceMethod != null && resourceMethod.isAnnotationPresent(annotation)) ||
+          (resourceClass != null && resourceClass.isAnnotationPresent(annotation))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String normalize(String path) {
+    return path == null ? "" : StringUtils.strip(path, "/");
+  }
+}
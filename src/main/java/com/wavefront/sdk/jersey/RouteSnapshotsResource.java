@@ -0,0 +1,110 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.RouteSnapshot;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Optional admin resource exposing the in-process route snapshots of a
+ * {@link WavefrontJerseyReporter} built with
+ * {@link WavefrontJerseyReporter.Builder#routeSnapshotWindowSeconds(int)}, as JSON or in the
+ * Prometheus text format for local autoscalers:
+ *
+ * <pre>
+ * environment.jersey().register(new RouteSnapshotsResource(wavefrontJerseyReporter));
+ * </pre>
+ */
+@Path("/wavefront/routes")
+public class RouteSnapshotsResource {
+
+  private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+  private final WavefrontJerseyReporter reporter;
+
+  public RouteSnapshotsResource(WavefrontJerseyReporter reporter) {
+    Preconditions.checkNotNull(reporter, "Invalid WavefrontJerseyReporter");
+    this.reporter = reporter;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public String getRouteSnapshots() {
+    StringBuilder json = new StringBuilder("{\"routes\":[");
+    boolean first = true;
+    for (String route : reporter.getSnapshotRoutes()) {
+      RouteSnapshot snapshot = reporter.snapshot(route);
+      if (snapshot == null) {
+        continue;
+      }
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      json.append("{\"route\":");
+      InflightRequestsResource.appendString(json, route);
+      json.append(",\"requests\":").append(snapshot.getRequestCount()).
+          append(",\"errorRate\":").append(snapshot.getErrorRate()).
+          append(",\"p50Millis\":").append(snapshot.getP50Millis()).
+          append(",\"p90Millis\":").append(snapshot.getP90Millis()).
+          append(",\"p99Millis\":").append(snapshot.getP99Millis()).
+          append(",\"p999Millis\":").append(snapshot.getP999Millis()).append('}');
+    }
+    return json.append("]}").toString();
+  }
+
+  @GET
+  @Path("prometheus")
+  @Produces(PROMETHEUS_CONTENT_TYPE)
+  public String getRouteSnapshotsPrometheus() {
+    StringBuilder text = new StringBuilder(
+        "# TYPE jersey_server_route_latency_ms summary\n");
+    StringBuilder errorRates = new StringBuilder(
+        "# TYPE jersey_server_route_error_rate gauge\n");
+    for (String route : reporter.getSnapshotRoutes()) {
+      RouteSnapshot snapshot = reporter.snapshot(route);
+      if (snapshot == null) {
+        continue;
+      }
+      appendQuantile(text, route, "0.5", snapshot.getP50Millis());
+      appendQuantile(text, route, "0.9", snapshot.getP90Millis());
+      appendQuantile(text, route, "0.99", snapshot.getP99Millis());
+      appendQuantile(text, route, "0.999", snapshot.getP999Millis());
+      text.append("jersey_server_route_latency_ms_count{route=");
+      appendLabelValue(text, route);
+      text.append("} ").append(snapshot.getRequestCount()).append('\n');
+      errorRates.append("jersey_server_route_error_rate{route=");
+      appendLabelValue(errorRates, route);
+      errorRates.append("} ").append(snapshot.getErrorRate()).append('\n');
+    }
+    return text.append(errorRates).toString();
+  }
+
+  private static void appendQuantile(StringBuilder text, String route, String quantile,
+                                     long value) {
+    text.append("jersey_server_route_latency_ms{route=");
+    appendLabelValue(text, route);
+    text.append(",quantile=\"").append(quantile).append("\"} ").append(value).append('\n');
+  }
+
+  private static void appendLabelValue(StringBuilder text, String value) {
+    // path templates may contain regular expressions, e.g. {id: \d+}
+    text.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        text.append('\\').append(c);
+      } else if (c == '\n') {
+        text.append("\\n");
+      } else {
+        text.append(c);
+      }
+    }
+    text.append('"');
+  }
+}
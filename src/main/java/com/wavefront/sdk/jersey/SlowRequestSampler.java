@@ -0,0 +1,447 @@
+package com.wavefront.sdk.jersey;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import io.opentracing.Span;
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Samples the stack of the worker thread serving a request once the request has been running
+ * for longer than the latency threshold of its route. The samples are folded into
+ * {@code frame;frame;frame count} lines which are attached to the request span as a span log
+ * and, optionally, appended to a per-route {@code .folded} file that can be rendered with
+ * flame graph tools.
+ *
+ * <p>At most {@code maxSampledRequests} slow requests are sampled at any time, all by a single
+ * background thread, so the cost is bounded regardless of the number of slow requests. The
+ * samples and distinct stacks kept per request are bounded as well, and the span log keeps the
+ * most frequent stacks up to {@link #MAX_SPAN_LOG_LENGTH} characters.
+ *
+ * <p>The sampler is also a Jersey event listener, which stops sampling a request once its
+ * resource method returns: the thread of a suspended (async) request goes on serving other
+ * requests. It also stops tracking the requests whose response filters are skipped (unmapped
+ * exceptions, failed writes, cancelled async responses): register the instance with Jersey as
+ * well.
+ */
+public class SlowRequestSampler implements Closeable, ApplicationEventListener {
+  private static final Logger logger = Logger.getLogger(SlowRequestSampler.class.getName());
+
+  static final String PROPERTY_NAME = SlowRequestSampler.class.getName() + ".request";
+  /**
+   * Maximum length of the folded stacks attached to a span, the least frequent stacks are left
+   * out of longer ones.
+   */
+  static final int MAX_SPAN_LOG_LENGTH = 32 * 1024;
+  // frame of the samples whose stacks are not kept, once a request has too many distinct stacks
+  static final String OTHER_STACKS = "[other_stacks]";
+
+  private final long defaultThresholdMillis;
+  private final Map<String, Long> routeThresholdMillis;
+  private final int maxSampledRequests;
+  private final int maxStackDepth;
+  private final int maxSamplesPerRequest;
+  private final int maxStacksPerRequest;
+  @Nullable
+  private final Path flameGraphDirectory;
+
+  private final Set<InflightRequest> inflightRequests = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger sampledRequests = new AtomicInteger();
+  private final LinkedBlockingQueue<InflightRequest> finishedRequests =
+      new LinkedBlockingQueue<>(1024);
+  private final ScheduledExecutorService executor;
+  private final RequestEventListener requestEventListener = this::onRequestEvent;
+
+  private SlowRequestSampler(long defaultThresholdMillis, Map<String, Long> routeThresholdMillis,
+                             long samplingIntervalMillis, int maxSampledRequests,
+                             int maxStackDepth, int maxSamplesPerRequest,
+                             int maxStacksPerRequest, @Nullable Path flameGraphDirectory) {
+    Preconditions.checkArgument(defaultThresholdMillis >= 0, "Invalid thresholdMillis");
+    Preconditions.checkArgument(samplingIntervalMillis > 0, "Invalid samplingIntervalMillis");
+    Preconditions.checkArgument(maxSampledRequests > 0, "Invalid maxSampledRequests");
+    Preconditions.checkArgument(maxStackDepth > 0, "Invalid maxStackDepth");
+    Preconditions.checkArgument(maxSamplesPerRequest > 0, "Invalid maxSamplesPerRequest");
+    Preconditions.checkArgument(maxStacksPerRequest > 0, "Invalid maxStacksPerRequest");
+    this.defaultThresholdMillis = defaultThresholdMillis;
+    this.routeThresholdMillis = routeThresholdMillis;
+    this.maxSampledRequests = maxSampledRequests;
+    this.maxStackDepth = maxStackDepth;
+    this.maxSamplesPerRequest = maxSamplesPerRequest;
+    this.maxStacksPerRequest = maxStacksPerRequest;
+    this.flameGraphDirectory = flameGraphDirectory;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-slow-request-sampler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::run, samplingIntervalMillis, samplingIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public static final class Builder {
+    private long defaultThresholdMillis = 1000;
+    private final Map<String, Long> routeThresholdMillis = new HashMap<>();
+    private long samplingIntervalMillis = 20;
+    private int maxSampledRequests = 4;
+    private int maxStackDepth = 64;
+    private int maxSamplesPerRequest = 500;
+    private int maxStacksPerRequest = 100;
+    @Nullable
+    private Path flameGraphDirectory;
+
+    /**
+     * Latency threshold after which a request gets sampled, for routes without their own
+     * threshold.
+     *
+     * @param thresholdMillis threshold in milliseconds, defaults to 1000.
+     * @return {@code this}.
+     */
+    public Builder thresholdMillis(long thresholdMillis) {
+      this.defaultThresholdMillis = thresholdMillis;
+      return this;
+    }
+
+    /**
+     * Latency threshold for a single route.
+     *
+     * @param operationName   operation name of the route, e.g. {@code InventoryResource.get}.
+     * @param thresholdMillis threshold in milliseconds.
+     * @return {@code this}.
+     */
+    public Builder routeThresholdMillis(String operationName, long thresholdMillis) {
+      this.routeThresholdMillis.put(operationName, thresholdMillis);
+      return this;
+    }
+
+    /**
+     * @param samplingIntervalMillis interval between two stack samples, defaults to 20.
+     * @return {@code this}.
+     */
+    public Builder samplingIntervalMillis(long samplingIntervalMillis) {
+      this.samplingIntervalMillis = samplingIntervalMillis;
+      return this;
+    }
+
+    /**
+     * @param maxSampledRequests maximum number of slow requests sampled at the same time,
+     *                           defaults to 4.
+     * @return {@code this}.
+     */
+    public Builder maxSampledRequests(int maxSampledRequests) {
+      this.maxSampledRequests = maxSampledRequests;
+      return this;
+    }
+
+    /**
+     * @param maxStackDepth number of innermost frames kept per sample, defaults to 64.
+     * @return {@code this}.
+     */
+    public Builder maxStackDepth(int maxStackDepth) {
+      this.maxStackDepth = maxStackDepth;
+      return this;
+    }
+
+    /**
+     * @param maxSamplesPerRequest number of samples after which the sampling of a request stops,
+     *                             defaults to 500 (10 seconds at the default interval).
+     * @return {@code this}.
+     */
+    public Builder maxSamplesPerRequest(int maxSamplesPerRequest) {
+      this.maxSamplesPerRequest = maxSamplesPerRequest;
+      return this;
+    }
+
+    /**
+     * @param maxStacksPerRequest number of distinct stacks kept per request, the samples of any
+     *                            other stack are counted as {@code [other_stacks]}, defaults
+     *                            to 100.
+     * @return {@code this}.
+     */
+    public Builder maxStacksPerRequest(int maxStacksPerRequest) {
+      this.maxStacksPerRequest = maxStacksPerRequest;
+      return this;
+    }
+
+    /**
+     * Also append the folded stacks of every sampled request to
+     * {@code <directory>/<operationName>.folded}.
+     *
+     * @param flameGraphDirectory directory to write the folded stacks to.
+     * @return {@code this}.
+     */
+    public Builder flameGraphDirectory(Path flameGraphDirectory) {
+      this.flameGraphDirectory = flameGraphDirectory;
+      return this;
+    }
+
+    public SlowRequestSampler build() {
+      return new SlowRequestSampler(defaultThresholdMillis,
+          Collections.unmodifiableMap(new HashMap<>(routeThresholdMillis)),
+          samplingIntervalMillis, maxSampledRequests, maxStackDepth, maxSamplesPerRequest,
+          maxStacksPerRequest, flameGraphDirectory);
+    }
+  }
+
+  /**
+   * Start tracking a request served by the current thread.
+   *
+   * @param operationName operation name of the matched route.
+   * @return the tracked request, to be passed to {@link #finish(InflightRequest, Span)}.
+   */
+  InflightRequest start(String operationName) {
+    Long routeThreshold = routeThresholdMillis.get(operationName);
+    InflightRequest request = new InflightRequest(operationName, Thread.currentThread(),
+        System.currentTimeMillis() + (routeThreshold == null ? defaultThresholdMillis :
+            routeThreshold), maxStacksPerRequest);
+    inflightRequests.add(request);
+    return request;
+  }
+
+  /**
+   * Stop tracking a request and, if it was sampled, attach the folded stacks to its span. A
+   * no-op when the request is already finished.
+   *
+   * @param request the tracked request.
+   * @param span    span of the request, if any.
+   */
+  void finish(InflightRequest request, @Nullable Span span) {
+    inflightRequests.remove(request);
+    int state = request.finish();
+    if (state == InflightRequest.SAMPLING) {
+      sampledRequests.decrementAndGet();
+    }
+    if (state == InflightRequest.FINISHED || request.sampleCount() == 0) {
+      return;
+    }
+    if (span != null) {
+      String foldedStacks = request.foldedStacks(Integer.MAX_VALUE);
+      Map<String, Object> fields = new HashMap<>();
+      fields.put("event", "slow_request.stacks");
+      fields.put("samples", request.sampleCount());
+      if (foldedStacks.length() > MAX_SPAN_LOG_LENGTH) {
+        foldedStacks = request.foldedStacks(MAX_SPAN_LOG_LENGTH);
+        fields.put("stacks.truncated", true);
+      }
+      fields.put("stacks.folded", foldedStacks);
+      span.log(fields);
+    }
+    if (flameGraphDirectory != null) {
+      // written by the sampler thread, drop the samples if it is falling behind
+      finishedRequests.offer(request);
+    }
+  }
+
+  @Override
+  public void onEvent(ApplicationEvent event) {
+    // nothing to do
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    // stateless, shared by all the requests
+    return requestEventListener;
+  }
+
+  private void onRequestEvent(RequestEvent event) {
+    RequestEvent.Type type = event.getType();
+    if ((type != RequestEvent.Type.RESOURCE_METHOD_FINISHED &&
+        type != RequestEvent.Type.FINISHED) || event.getContainerRequest() == null) {
+      return;
+    }
+    Object request = event.getContainerRequest().getProperty(PROPERTY_NAME);
+    if (request instanceof InflightRequest) {
+      if (type == RequestEvent.Type.RESOURCE_METHOD_FINISHED) {
+        // an async request leaves its thread, which goes on serving other requests
+        stopSampling((InflightRequest) request);
+      } else {
+        // no-op when the response filter already finished the request
+        finish((InflightRequest) request, null);
+      }
+    }
+  }
+
+  /**
+   * Stop sampling a request, the samples already taken are reported once it finishes.
+   */
+  private void stopSampling(InflightRequest request) {
+    inflightRequests.remove(request);
+    if (request.stopSampling()) {
+      sampledRequests.decrementAndGet();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void run() {
+    try {
+      long now = System.currentTimeMillis();
+      for (InflightRequest request : inflightRequests) {
+        if (!request.isSampled()) {
+          if (now < request.sampleAfterMillis ||
+              sampledRequests.get() >= maxSampledRequests) {
+            continue;
+          }
+          sampledRequests.incrementAndGet();
+          if (!request.startSampling()) {
+            // finished in the meantime
+            sampledRequests.decrementAndGet();
+            continue;
+          }
+        }
+        if (request.addSample(fold(request.thread.getStackTrace())) >= maxSamplesPerRequest) {
+          stopSampling(request);
+        }
+      }
+      writeFinishedRequests();
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error sampling slow requests", t);
+    }
+  }
+
+  private String fold(StackTraceElement[] stackTrace) {
+    StringBuilder folded = new StringBuilder();
+    for (int i = Math.min(stackTrace.length, maxStackDepth) - 1; i >= 0; i--) {
+      folded.append(stackTrace[i].getClassName()).append('.').
+          append(stackTrace[i].getMethodName());
+      if (i > 0) {
+        folded.append(';');
+      }
+    }
+    return folded.toString();
+  }
+
+  private void writeFinishedRequests() {
+    InflightRequest request;
+    while ((request = finishedRequests.poll()) != null) {
+      Path file = flameGraphDirectory.resolve(request.operationName + ".folded");
+      try {
+        Files.write(file, request.foldedStacks(Integer.MAX_VALUE).getBytes(
+            StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to write folded stacks to " + file, e);
+      }
+    }
+  }
+
+  /**
+   * A request tracked by the sampler. Guarded by its own monitor, which is only contended
+   * between the sampler thread and the thread finishing a sampled request.
+   */
+  static final class InflightRequest {
+    static final int NEW = 0;
+    static final int SAMPLING = 1;
+    // no longer sampled, the samples are kept until the request finishes
+    static final int STOPPED = 2;
+    static final int FINISHED = 3;
+
+    private final String operationName;
+    private final Thread thread;
+    private final long sampleAfterMillis;
+    private final int maxStacks;
+    private final Map<String, Integer> samples = new HashMap<>();
+    private int sampleCount;
+    private int state = NEW;
+
+    InflightRequest(String operationName, Thread thread, long sampleAfterMillis, int maxStacks) {
+      this.operationName = operationName;
+      this.thread = thread;
+      this.sampleAfterMillis = sampleAfterMillis;
+      this.maxStacks = maxStacks;
+    }
+
+    synchronized boolean isSampled() {
+      return state == SAMPLING;
+    }
+
+    synchronized boolean startSampling() {
+      if (state != NEW) {
+        return false;
+      }
+      state = SAMPLING;
+      return true;
+    }
+
+    /**
+     * @return whether the request was being sampled.
+     */
+    synchronized boolean stopSampling() {
+      boolean sampling = state == SAMPLING;
+      if (state != FINISHED) {
+        state = STOPPED;
+      }
+      return sampling;
+    }
+
+    /**
+     * @return the state of the request before it finished.
+     */
+    synchronized int finish() {
+      int previous = state;
+      state = FINISHED;
+      return previous;
+    }
+
+    /**
+     * @return the number of samples of the request.
+     */
+    synchronized int addSample(String foldedStack) {
+      // the thread may already be serving another request
+      if (state == SAMPLING) {
+        samples.merge(samples.size() < maxStacks || samples.containsKey(foldedStack) ?
+            foldedStack : OTHER_STACKS, 1, Integer::sum);
+        sampleCount++;
+      }
+      return sampleCount;
+    }
+
+    synchronized int sampleCount() {
+      return sampleCount;
+    }
+
+    /**
+     * @param maxLength maximum length of the folded stacks.
+     * @return the most frequent folded stacks which fit in the given length.
+     */
+    synchronized String foldedStacks(int maxLength) {
+      List<Map.Entry<String, Integer>> stacks = new ArrayList<>(samples.entrySet());
+      stacks.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+      StringBuilder folded = new StringBuilder();
+      for (Map.Entry<String, Integer> entry : stacks) {
+        String line = entry.getKey() + ' ' + entry.getValue() + '\n';
+        if (folded.length() + line.length() <= maxLength) {
+          folded.append(line);
+        }
+      }
+      return folded.toString();
+    }
+  }
+}
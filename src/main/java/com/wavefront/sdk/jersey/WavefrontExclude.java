@@ -0,0 +1,20 @@
+package com.wavefront.sdk.jersey;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Excludes a resource method, or every resource method of a resource class, from the
+ * instrumentation of {@link WavefrontJerseyFilter}, like the routes matched by
+ * {@link RouteExclusions}. Its requests are counted in
+ * {@code jersey.server.total_requests.excluded}, unless the filter is configured with
+ * {@link RouteExclusions.Mode#SKIP}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface WavefrontExclude {
+}
@@ -6,10 +6,23 @@ import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.application.ApplicationTags;
 import com.wavefront.sdk.jaxrs.client.WavefrontJaxrsClientFilter;
+import com.wavefront.sdk.jersey.reporter.DeferredJerseyReporter;
+import com.wavefront.sdk.jersey.reporter.DeferredWavefrontSender;
+import com.wavefront.sdk.jersey.reporter.InstrumentedSpanReporter;
+import com.wavefront.sdk.jersey.reporter.InstrumentedWavefrontSender;
 import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
 
 import org.apache.commons.lang3.BooleanUtils;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
 import io.opentracing.Tracer;
 
 import static com.wavefront.config.ReportingUtils.constructApplicationTags;
@@ -24,19 +37,54 @@ import static com.wavefront.config.ReportingUtils.constructWavefrontSender;
  * @author Sushant Dewan (sushant@wavefront.com).
  */
 public class WavefrontJerseyFactory {
+  private static final Logger logger = Logger.getLogger(WavefrontJerseyFactory.class.getName());
+
   private final ApplicationTags applicationTags;
   private final String source;
   private final Tracer tracer;
   private final WavefrontSender wavefrontSender;
-  private final WavefrontJerseyReporter wfJerseyReporter;
-  private final WavefrontJerseyFilter wavefrontJerseyFilter;
+  // set by the startup thread when the startup is lazy
+  private volatile WavefrontJerseyReporter wfJerseyReporter;
+  @Nullable
+  private volatile Throwable startupFailure;
   private final WavefrontJaxrsClientFilter wavefrontJaxrsClientFilter;
+  private final WavefrontJerseyFilter wavefrontJerseyFilter;
+  private final OutboundCallFilter outboundCallFilter;
+  private final ExceptionMetrics exceptionMetrics;
+  private final CountDownLatch started = new CountDownLatch(1);
 
   /**
    * Construct WavefrontJerseyFactory with given yaml files path of application tags and Wavefront
    * reporting configuration.
    */
   public WavefrontJerseyFactory(String applicationTagsYamlFile, String wfReportingConfigYamlFile) {
+    this(applicationTagsYamlFile, wfReportingConfigYamlFile, null);
+  }
+
+  /**
+   * Construct WavefrontJerseyFactory with given yaml files path of application tags, Wavefront
+   * reporting configuration and metric granularity (see {@link MetricGranularity#fromYamlFile}).
+   */
+  public WavefrontJerseyFactory(String applicationTagsYamlFile, String wfReportingConfigYamlFile,
+                                @Nullable String metricGranularityYamlFile) {
+    this(applicationTagsYamlFile, wfReportingConfigYamlFile, metricGranularityYamlFile, false);
+  }
+
+  /**
+   * Construct WavefrontJerseyFactory with given yaml files path of application tags, Wavefront
+   * reporting configuration and metric granularity.
+   *
+   * <p>With a lazy startup, the sender, the reporter and the heartbeats are created and started
+   * by a background thread, so neither connecting to the proxy nor resolving the local host name
+   * for the reporter delays the application. The filters and the tracer are usable right away:
+   * until the sender and the reporter are ready, their metrics and spans are buffered in memory
+   * and then handed over. Without a source in the reporting configuration, the tracer and the
+   * client filter report with a placeholder the sender replaces once the local host name is
+   * resolved. Only {@link #getWavefrontJerseyReporter()} waits for the startup to complete.
+   */
+  public WavefrontJerseyFactory(String applicationTagsYamlFile, String wfReportingConfigYamlFile,
+                                @Nullable String metricGranularityYamlFile,
+                                boolean lazyStartup) {
 
     // Step 1 - Create an ApplicationTags instance, which specifies metadata about your application.
     this.applicationTags = constructApplicationTags(applicationTagsYamlFile);
@@ -47,8 +95,53 @@ public class WavefrontJerseyFactory {
 
     this.source = wfReportingConfig.getSource();
 
-    // Step 3 - Create a WavefrontSender for sending data to Wavefront.
-    this.wavefrontSender = constructWavefrontSender(wfReportingConfig);
+    if (lazyStartup) {
+      DeferredWavefrontSender deferredSender = new DeferredWavefrontSender();
+      InstrumentedWavefrontSender instrumentedSender =
+          new InstrumentedWavefrontSender(deferredSender);
+      this.wavefrontSender = instrumentedSender;
+      DeferredJerseyReporter deferredReporter = new DeferredJerseyReporter();
+      WavefrontJerseyFilter.Builder wfJerseyFilterBuilder = new WavefrontJerseyFilter.Builder
+          (deferredReporter, applicationTags);
+      if (metricGranularityYamlFile != null) {
+        wfJerseyFilterBuilder.granularity(
+            MetricGranularity.fromYamlFile(metricGranularityYamlFile));
+      }
+      // the local host name is resolved by the startup thread, see DeferredWavefrontSender
+      String deferredSource = source == null ? DeferredWavefrontSender.DEFERRED_SOURCE : source;
+      InstrumentedSpanReporter spanReporter;
+      if (BooleanUtils.isTrue(wfReportingConfig.getReportTraces())) {
+        // the span reporter sends through the deferred sender, the tracer finds it through the
+        // composite reporter to report the span-derived RED metrics
+        spanReporter = new InstrumentedSpanReporter(new WavefrontSpanReporter.Builder().
+            withSource(deferredSource).build(instrumentedSender), instrumentedSender);
+        tracer = new WavefrontTracer.Builder(spanReporter.getTracerReporter(), applicationTags).
+            build();
+        wfJerseyFilterBuilder.withTracer(tracer);
+      } else {
+        spanReporter = null;
+        tracer = null;
+      }
+      this.wavefrontJerseyFilter = wfJerseyFilterBuilder.build();
+      this.wavefrontJaxrsClientFilter = new WavefrontJaxrsClientFilter(instrumentedSender,
+          applicationTags, deferredSource, tracer);
+      this.outboundCallFilter = new OutboundCallFilter.Builder(deferredReporter,
+          applicationTags).build();
+      this.exceptionMetrics = new ExceptionMetrics.Builder(deferredReporter, applicationTags).
+          build();
+
+      Thread startup = new Thread(() -> startReporting(wfReportingConfig, deferredSender,
+          instrumentedSender, deferredReporter, spanReporter), "wavefront-jersey-startup");
+      startup.setDaemon(true);
+      startup.start();
+      return;
+    }
+
+    // Step 3 - Create a WavefrontSender for sending data to Wavefront. The sender is instrumented
+    // so that points/spans sent and dropped are reported as SDK self metrics.
+    InstrumentedWavefrontSender instrumentedSender =
+        new InstrumentedWavefrontSender(constructWavefrontSender(wfReportingConfig));
+    this.wavefrontSender = instrumentedSender;
 
     // Step 4 - Create a WavefrontJerseyReporter for reporting
     // Jersey metrics and histograms to Wavefront.
@@ -58,13 +151,22 @@ public class WavefrontJerseyFactory {
     // Step 5 - Create a WavefrontJerseyFilter.Builder
     WavefrontJerseyFilter.Builder wfJerseyFilterBuilder = new WavefrontJerseyFilter.Builder
         (wfJerseyReporter, applicationTags);
+    if (metricGranularityYamlFile != null) {
+      wfJerseyFilterBuilder.granularity(
+          MetricGranularity.fromYamlFile(metricGranularityYamlFile));
+    }
 
     if (BooleanUtils.isTrue(wfReportingConfig.getReportTraces())) {
       // Step 6 - Optionally create a WavefrontTracer for reporting trace data
       // from Jersey APIs to Wavefront.
       WavefrontSpanReporter wfSpanReporter;
       wfSpanReporter = new WavefrontSpanReporter.Builder().withSource(source).build(wavefrontSender);
-      tracer = new WavefrontTracer.Builder(wfSpanReporter, applicationTags).build();
+      InstrumentedSpanReporter spanReporter = new InstrumentedSpanReporter(wfSpanReporter,
+          instrumentedSender);
+      wfJerseyReporter.registerSpanReporter(spanReporter);
+      // the tracer finds the sender of the span reporter through the composite reporter
+      tracer = new WavefrontTracer.Builder(spanReporter.getTracerReporter(), applicationTags).
+          build();
       wfJerseyFilterBuilder.withTracer(tracer);
     } else {
       tracer = null;
@@ -78,16 +180,156 @@ public class WavefrontJerseyFactory {
 
     this.wavefrontJaxrsClientFilter = new WavefrontJaxrsClientFilter(wavefrontSender,
         applicationTags, source, tracer);
+    this.outboundCallFilter = new OutboundCallFilter.Builder(wfJerseyReporter, applicationTags).
+        build();
+    this.exceptionMetrics = new ExceptionMetrics.Builder(wfJerseyReporter, applicationTags).
+        build();
+    started.countDown();
+  }
+
+  /**
+   * Construct WavefrontJerseyFactory with given yaml file path of application tags, reporting
+   * through the given runtime shared with the other Jersey applications of the JVM.
+   */
+  public WavefrontJerseyFactory(String applicationTagsYamlFile, WavefrontJerseyRuntime runtime) {
+    this(applicationTagsYamlFile, runtime, null);
+  }
+
+  /**
+   * Construct WavefrontJerseyFactory with given yaml files path of application tags and metric
+   * granularity, reporting through the given runtime shared with the other Jersey applications
+   * of the JVM. The sender, span reporter, scheduler and heartbeats of the runtime are shared,
+   * the reporter and the filters are created for the application.
+   */
+  public WavefrontJerseyFactory(String applicationTagsYamlFile, WavefrontJerseyRuntime runtime,
+                                @Nullable String metricGranularityYamlFile) {
+    this.applicationTags = constructApplicationTags(applicationTagsYamlFile);
+    this.source = runtime.getSource();
+    this.wavefrontSender = runtime.getWavefrontSender();
+
+    this.wfJerseyReporter = new WavefrontJerseyReporter.Builder(applicationTags).
+        withSource(source).reportHeartbeats(false).withScheduler(runtime.getScheduler()).
+        build(wavefrontSender);
+    runtime.registerApplication(applicationTags);
+
+    WavefrontJerseyFilter.Builder wfJerseyFilterBuilder = new WavefrontJerseyFilter.Builder
+        (wfJerseyReporter, applicationTags);
+    if (metricGranularityYamlFile != null) {
+      wfJerseyFilterBuilder.granularity(
+          MetricGranularity.fromYamlFile(metricGranularityYamlFile));
+    }
+    InstrumentedSpanReporter spanReporter = runtime.getSpanReporter();
+    if (spanReporter != null) {
+      wfJerseyReporter.registerSpanReporter(spanReporter);
+      tracer = new WavefrontTracer.Builder(spanReporter.getTracerReporter(), applicationTags).
+          build();
+      wfJerseyFilterBuilder.withTracer(tracer);
+    } else {
+      tracer = null;
+    }
+    wfJerseyReporter.start();
+
+    this.wavefrontJerseyFilter = wfJerseyFilterBuilder.build();
+    this.wavefrontJaxrsClientFilter = new WavefrontJaxrsClientFilter(wavefrontSender,
+        applicationTags, source, tracer);
+    this.outboundCallFilter = new OutboundCallFilter.Builder(wfJerseyReporter, applicationTags).
+        build();
+    this.exceptionMetrics = new ExceptionMetrics.Builder(wfJerseyReporter, applicationTags).
+        build();
+    started.countDown();
+  }
+
+  /**
+   * Lazy startup: create the sender and create and start the reporter, as the eager startup does
+   * in steps 3, 4 and 7, then hand the points, metrics and spans buffered in the meantime over
+   * to them.
+   */
+  private void startReporting(WavefrontReportingConfig wfReportingConfig,
+                              DeferredWavefrontSender deferredSender,
+                              InstrumentedWavefrontSender instrumentedSender,
+                              DeferredJerseyReporter deferredReporter,
+                              @Nullable InstrumentedSpanReporter spanReporter) {
+    try {
+      String resolvedSource = source == null ? localHostName() : source;
+      deferredSender.ready(constructWavefrontSender(wfReportingConfig), resolvedSource);
+      WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder
+          (applicationTags).withSource(resolvedSource).build(instrumentedSender);
+      if (spanReporter != null) {
+        reporter.registerSpanReporter(spanReporter);
+      }
+      reporter.start();
+      this.wfJerseyReporter = reporter;
+      deferredReporter.ready(reporter);
+    } catch (Throwable t) {
+      logger.log(Level.SEVERE, "Unable to start reporting to Wavefront", t);
+      startupFailure = t;
+      deferredSender.discard();
+      deferredReporter.discard();
+    } finally {
+      started.countDown();
+    }
+  }
+
+  private static String localHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      // same fallback as the reporter
+      return "unknown";
+    }
+  }
+
+  /**
+   * Wait for the startup to complete, only needed when the startup is lazy.
+   *
+   * @param timeout maximum time to wait.
+   * @param unit    unit of the timeout.
+   * @return whether the startup completed, successfully or not, before the timeout.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitStartup(long timeout, TimeUnit unit) throws InterruptedException {
+    return started.await(timeout, unit);
+  }
+
+  private void awaitStartup() {
+    try {
+      started.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   public WavefrontJerseyFilter getWavefrontJerseyFilter() {
     return wavefrontJerseyFilter;
   }
 
+  /**
+   * @return the client filter. With a lazy startup, its spans are buffered until the sender is
+   * ready.
+   */
   public WavefrontJaxrsClientFilter getWavefrontJaxrsClientFilter() {
     return wavefrontJaxrsClientFilter;
   }
 
+  /**
+   * @return the client filter to register, next to the {@link WavefrontJaxrsClientFilter}, on
+   * your clients to report the latency of their calls per remote host and the downstream and
+   * self time of the server requests making them. The server filter only tracks the outbound
+   * calls of its requests, for the downstream and self times, once this method is called.
+   */
+  public OutboundCallFilter getOutboundCallFilter() {
+    wavefrontJerseyFilter.enableSelfTime();
+    return outboundCallFilter;
+  }
+
+  /**
+   * @return the event listener to register, next to the {@link WavefrontJerseyFilter}, on your
+   * Jersey application to count the exceptions thrown by its resources.
+   */
+  public ExceptionMetrics getExceptionMetrics() {
+    return exceptionMetrics;
+  }
+
   public ApplicationTags getApplicationTags() {
     return applicationTags;
   }
@@ -100,12 +342,26 @@ public class WavefrontJerseyFactory {
     return tracer;
   }
 
+  /**
+   * @return the sender. With a lazy startup, the points and spans sent before the actual sender
+   * is connected are buffered, see {@link DeferredWavefrontSender}.
+   */
   public WavefrontSender getWavefrontSender() {
     return wavefrontSender;
   }
 
+  /**
+   * @return the reporter. With a lazy startup, blocks until the startup completes, call
+   * {@link #awaitStartup(long, TimeUnit)} first to bound the wait.
+   * @throws IllegalStateException if the lazy startup failed or the wait was interrupted.
+   */
   public WavefrontJerseyReporter getWavefrontJerseyReporter() {
-    return wfJerseyReporter;
+    awaitStartup();
+    WavefrontJerseyReporter reporter = wfJerseyReporter;
+    if (reporter == null) {
+      throw new IllegalStateException("Reporting to Wavefront is not started", startupFailure);
+    }
+    return reporter;
   }
 
 }
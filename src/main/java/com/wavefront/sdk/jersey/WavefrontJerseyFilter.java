@@ -1,16 +1,29 @@
 package com.wavefront.sdk.jersey;
 
 import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Counter;
 import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
 import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.common.application.ApplicationTags;
 import com.wavefront.sdk.jaxrs.client.SpanWrapper;
+import com.wavefront.sdk.jersey.MetricGranularity.AggregationLevel;
+import com.wavefront.sdk.jersey.MetricGranularity.ResponseHistogram;
+import com.wavefront.sdk.jersey.reporter.DeferredJerseyReporter;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
 
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ExtendedUriInfo;
 import org.glassfish.jersey.server.internal.routing.RoutingContext;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
 
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -24,7 +37,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,8 +68,6 @@ import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
 import static com.wavefront.sdk.jaxrs.Constants.PROPERTY_NAME;
 import static com.wavefront.sdk.jaxrs.Constants.WF_SPAN_HEADER;
 import static com.wavefront.sdk.jersey.Constants.JERSEY_SERVER_COMPONENT;
-import static com.wavefront.sdk.jersey.MetricNameUtils.REQUEST_PREFIX;
-import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
 
 /**
  * A filter to generate Wavefront metrics and histograms for Jersey API requests/responses.
@@ -63,25 +77,225 @@ import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
 public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerResponseFilter {
   private static final Logger logger = Logger.getLogger(
       WavefrontJerseyFilter.class.getName());
+  /**
+   * Set when the JVM supports measuring the bytes allocated by a thread.
+   */
+  @Nullable
+  private static final com.sun.management.ThreadMXBean allocationMXBean = allocationMXBean();
+  /**
+   * {@code Thread.isVirtual()}, set when the JVM supports virtual threads (JDK 21+).
+   */
+  @Nullable
+  private static final MethodHandle isVirtualMethod = isVirtualThreadHandle();
+  // the in-flight gauges are decremented once per request, by the response filter or on the
+  // FINISHED event when the response filters were skipped
+  private static final AtomicIntegerFieldUpdater<StatsContext> INFLIGHT_RELEASED =
+      AtomicIntegerFieldUpdater.newUpdater(StatsContext.class, "inflightReleased");
+  /**
+   * Maximum number of resources whose routes are cached, the routes of any other resource (e.g.
+   * built at runtime by sub-resource locators) are built on every request.
+   */
+  private static final int MAX_CACHED_RESOURCES = 1000;
+  /**
+   * Request property holding the {@link RouteDescriptor} of an instrumented request.
+   */
+  static final String ROUTE_PROPERTY_NAME = WavefrontJerseyFilter.class.getName() + ".route";
+  /**
+   * Request property holding the {@link StatsContext} of an instrumented request. It is kept
+   * with the request rather than in a thread local, so the response filter finds the context
+   * of its own request even when it runs on another thread (async response).
+   */
+  static final String STATS_CONTEXT_PROPERTY_NAME = WavefrontJerseyFilter.class.getName() +
+      ".stats";
   private final SdkReporter wfJerseyReporter;
   private final ApplicationTags applicationTags;
-  private final ThreadLocal<StatsContext> statsContextThreadLocal = new ThreadLocal<>();
   private final ConcurrentMap<MetricName, AtomicInteger> gauges = new ConcurrentHashMap<>();
+  // matched resource -> matched resource method (or HTTP method) -> route
+  private final ConcurrentMap<Resource, ConcurrentMap<Object, RouteDescriptor>> routes =
+      new ConcurrentHashMap<>();
+  private final MetricGranularity granularity;
+  private final boolean reportCpu;
+  private final AtomicInteger totalInflight;
+  @Nullable
+  private final RouteExclusions exclusions;
+  // jersey.server.total_requests.excluded, when excluded requests are counted
+  @Nullable
+  private final MetricName excludedRequests;
+  // set on the first excluded route, the counter of the WavefrontJerseyReporter is striped
+  @Nullable
+  private volatile Counter excludedRequestsCounter;
+  @Nullable
+  private final MetricName completedPerSource;
+  @Nullable
+  private final MetricName completedPerShard;
+  @Nullable
+  private final MetricName completedPerService;
+  @Nullable
+  private final MetricName completedPerCluster;
+  @Nullable
+  private final MetricName completedPerApplication;
+  @Nullable
+  private final MetricName errorsPerSource;
+  @Nullable
+  private final MetricName errorsPerShard;
+  @Nullable
+  private final MetricName errorsPerService;
+  @Nullable
+  private final MetricName errorsPerCluster;
+  @Nullable
+  private final MetricName errorsPerApplication;
   private final Set<String> headerTags;
+  private final int overheadSamplingRate;
+  private final int allocationSamplingRate;
+  private final int contentionSamplingRate;
 
   @Nullable
   private final Tracer tracer;
 
+  @Nullable
+  private final SlowRequestSampler slowRequestSampler;
+
+  @Nullable
+  private final InflightRequestRegistry inflightRequestRegistry;
+  // enabled by WavefrontJerseyFactory once its OutboundCallFilter is handed out
+  private volatile boolean reportSelfTime;
+  @Nullable
+  private final HeavyHitters heavyHitters;
+  private final boolean virtualThreads;
+  @Nullable
+  private volatile ConcurrencyLimitFilter concurrencyLimitFilter;
+
+  /**
+   * Set when the reporter supports SDK self metrics (filter overhead) and route snapshots, once
+   * ready when the reporter is deferred.
+   */
+  @Nullable
+  private volatile WavefrontJerseyReporter jerseyReporter;
+  @Nullable
+  private final DeferredJerseyReporter deferredReporter;
+
   private WavefrontJerseyFilter(SdkReporter wfJerseyReporter,
                                 ApplicationTags applicationTags,
                                 @Nullable Tracer tracer,
-                                Set<String> headerTags) {
+                                Set<String> headerTags,
+                                int overheadSamplingRate,
+                                int allocationSamplingRate,
+                                int contentionSamplingRate,
+                                @Nullable SlowRequestSampler slowRequestSampler,
+                                @Nullable InflightRequestRegistry inflightRequestRegistry,
+                                boolean reportSelfTime,
+                                @Nullable HeavyHitters heavyHitters,
+                                MetricGranularity granularity,
+                                @Nullable RouteExclusions exclusions,
+                                boolean virtualThreads) {
     Preconditions.checkNotNull(wfJerseyReporter, "Invalid JerseyReporter");
     Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
+    Preconditions.checkArgument(overheadSamplingRate >= 0, "Invalid overheadSamplingRate");
+    Preconditions.checkArgument(allocationSamplingRate >= 0, "Invalid allocationSamplingRate");
+    Preconditions.checkArgument(contentionSamplingRate >= 0, "Invalid contentionSamplingRate");
+    Preconditions.checkNotNull(granularity, "Invalid MetricGranularity");
     this.wfJerseyReporter = wfJerseyReporter;
     this.applicationTags = applicationTags;
     this.tracer = tracer;
     this.headerTags = headerTags;
+    this.overheadSamplingRate = overheadSamplingRate;
+    this.allocationSamplingRate = allocationMXBean == null ||
+        !granularity.reports(ResponseHistogram.ALLOC_BYTES) ? 0 : allocationSamplingRate;
+    this.contentionSamplingRate = contentionSamplingRate > 0 &&
+        granularity.reports(ResponseHistogram.CONTENTION) &&
+        enableThreadContentionMonitoring() ? contentionSamplingRate : 0;
+    this.slowRequestSampler = slowRequestSampler;
+    this.inflightRequestRegistry = inflightRequestRegistry;
+    this.reportSelfTime = reportSelfTime;
+    this.heavyHitters = heavyHitters;
+    this.virtualThreads = virtualThreads;
+    this.granularity = granularity;
+    this.reportCpu = granularity.reports(ResponseHistogram.CPU_NS);
+    this.exclusions = exclusions;
+    this.jerseyReporter = wfJerseyReporter instanceof WavefrontJerseyReporter ?
+        (WavefrontJerseyReporter) wfJerseyReporter : null;
+    this.deferredReporter = wfJerseyReporter instanceof DeferredJerseyReporter ?
+        (DeferredJerseyReporter) wfJerseyReporter : null;
+    Map<String, String> overallTags = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+    }};
+    this.totalInflight = getGaugeValue(new MetricName("total_requests.inflight", overallTags));
+    // routes may also be excluded with @WavefrontExclude, counted unless configured otherwise
+    this.excludedRequests = exclusions == null ||
+        exclusions.getMode() == RouteExclusions.Mode.COUNT ?
+        new MetricName("total_requests.excluded", overallTags) : null;
+
+    // Overall response metrics, their names are built once
+    Map<String, String> overallAggregatedPerSourceMap = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+    }};
+    Map<String, String> overallAggregatedPerShardMap = applicationTags.getShard() == null ? null :
+        new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+              applicationTags.getCluster());
+          put(SERVICE_TAG_KEY, applicationTags.getService());
+          put(SHARD_TAG_KEY, applicationTags.getShard());
+          put("source", WAVEFRONT_PROVIDED_SOURCE);
+        }};
+    Map<String, String> overallAggregatedPerServiceMap = new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put("source", WAVEFRONT_PROVIDED_SOURCE);
+    }};
+    Map<String, String> overallAggregatedPerClusterMap = applicationTags.getCluster() == null ?
+        null : new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, applicationTags.getCluster());
+          put("source", WAVEFRONT_PROVIDED_SOURCE);
+        }};
+    Map<String, String> overallAggregatedPerApplicationMap = new HashMap<String, String>() {{
+      put("source", WAVEFRONT_PROVIDED_SOURCE);
+    }};
+    this.completedPerSource = overallMetricName("response.completed.aggregated_per_source",
+        AggregationLevel.SOURCE, overallAggregatedPerSourceMap);
+    this.completedPerShard = overallMetricName("response.completed.aggregated_per_shard",
+        AggregationLevel.SHARD, overallAggregatedPerShardMap);
+    this.completedPerService = overallMetricName("response.completed.aggregated_per_service",
+        AggregationLevel.SERVICE, overallAggregatedPerServiceMap);
+    this.completedPerCluster = overallMetricName("response.completed.aggregated_per_cluster",
+        AggregationLevel.CLUSTER, overallAggregatedPerClusterMap);
+    this.completedPerApplication = overallMetricName(
+        "response.completed.aggregated_per_application", AggregationLevel.APPLICATION,
+        overallAggregatedPerApplicationMap);
+    this.errorsPerSource = overallMetricName("response.errors.aggregated_per_source",
+        AggregationLevel.SOURCE, overallAggregatedPerSourceMap);
+    this.errorsPerShard = overallMetricName("response.errors.aggregated_per_shard",
+        AggregationLevel.SHARD, overallAggregatedPerShardMap);
+    this.errorsPerService = overallMetricName("response.errors.aggregated_per_service",
+        AggregationLevel.SERVICE, overallAggregatedPerServiceMap);
+    this.errorsPerCluster = overallMetricName("response.errors.aggregated_per_cluster",
+        AggregationLevel.CLUSTER, overallAggregatedPerClusterMap);
+    this.errorsPerApplication = overallMetricName("response.errors.aggregated_per_application",
+        AggregationLevel.APPLICATION, overallAggregatedPerApplicationMap);
+
+    if (inflightRequestRegistry != null) {
+      /* Gauges
+       * 1) jersey.server.inflight.age.p50_ms
+       * 2) jersey.server.inflight.age.p99_ms
+       * 3) jersey.server.inflight.age.max_ms
+       * 4) jersey.server.inflight.stuck
+       */
+      inflightRequestRegistry.registerGauges(wfJerseyReporter, new HashMap<String, String>() {{
+        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+            applicationTags.getCluster());
+        put(SERVICE_TAG_KEY, applicationTags.getService());
+        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+            applicationTags.getShard());
+      }});
+    }
   }
 
   public static final class Builder {
@@ -89,8 +303,22 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     private final SdkReporter wfJerseyReporter;
     private final ApplicationTags applicationTags;
     private final Set<String> headerTags = new HashSet<>();
+    private int overheadSamplingRate = 100;
+    private int allocationSamplingRate = 0;
+    private int contentionSamplingRate = 0;
     @Nullable
     private Tracer tracer;
+    @Nullable
+    private SlowRequestSampler slowRequestSampler;
+    @Nullable
+    private InflightRequestRegistry inflightRequestRegistry;
+    private boolean reportSelfTime = false;
+    @Nullable
+    private HeavyHitters heavyHitters;
+    private MetricGranularity granularity = MetricGranularity.DEFAULT;
+    @Nullable
+    private RouteExclusions exclusions;
+    private boolean virtualThreads = false;
 
     public Builder(SdkReporter wfJerseyReporter, ApplicationTags applicationTags) {
       this.wfJerseyReporter = wfJerseyReporter;
@@ -107,87 +335,351 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
       return this;
     }
 
+    /**
+     * Measure the time spent in this filter for 1 out of every {@code overheadSamplingRate}
+     * requests and report it as an SDK self metric. 0 disables the measurement.
+     *
+     * @param overheadSamplingRate sampling rate, defaults to 100.
+     * @return {@code this}.
+     */
+    public Builder overheadSamplingRate(int overheadSamplingRate) {
+      this.overheadSamplingRate = overheadSamplingRate;
+      return this;
+    }
+
+    /**
+     * Report the bytes allocated by the request thread for 1 out of every
+     * {@code allocationSamplingRate} requests as the {@code .alloc_bytes} histogram. 0 disables
+     * the measurement.
+     *
+     * @param allocationSamplingRate sampling rate, defaults to 0 (disabled).
+     * @return {@code this}.
+     */
+    public Builder allocationSamplingRate(int allocationSamplingRate) {
+      this.allocationSamplingRate = allocationSamplingRate;
+      return this;
+    }
+
+    /**
+     * Enable thread contention monitoring and report the time the request thread spent blocked
+     * on monitors and waiting as the {@code .blocked_ms} and {@code .waited_ms} histograms, and
+     * the number of times it blocked and waited as the {@code .blocked_count} and
+     * {@code .waited_count} histograms, for 1 out of every {@code contentionSamplingRate}
+     * requests.
+     *
+     * @param contentionSamplingRate sampling rate, defaults to 0 (disabled).
+     * @return {@code this}.
+     */
+    public Builder contentionSamplingRate(int contentionSamplingRate) {
+      this.contentionSamplingRate = contentionSamplingRate;
+      return this;
+    }
+
+    /**
+     * Sample the stacks of requests exceeding their route's latency threshold and attach them to
+     * the request spans.
+     *
+     * @param slowRequestSampler the sampler to use.
+     * @return {@code this}.
+     */
+    public Builder withSlowRequestSampler(SlowRequestSampler slowRequestSampler) {
+      this.slowRequestSampler = slowRequestSampler;
+      return this;
+    }
+
+    /**
+     * Track every in-flight request in the given registry, to report their age and detect stuck
+     * requests.
+     *
+     * @param inflightRequestRegistry the registry to use.
+     * @return {@code this}.
+     */
+    public Builder withInflightRequestRegistry(InflightRequestRegistry inflightRequestRegistry) {
+      this.inflightRequestRegistry = inflightRequestRegistry;
+      return this;
+    }
+
+    /**
+     * Split the latency of the requests making outbound calls through an
+     * {@link OutboundCallFilter} into the {@code .downstream_time} and {@code .self_time}
+     * histograms.
+     *
+     * @param reportSelfTime whether to report the histograms, defaults to false.
+     * @return {@code this}.
+     */
+    public Builder reportSelfTime(boolean reportSelfTime) {
+      this.reportSelfTime = reportSelfTime;
+      return this;
+    }
+
+    /**
+     * Report the top consumers of every route, as identified by a request header.
+     *
+     * @param heavyHitters the heavy hitters to feed.
+     * @return {@code this}.
+     */
+    public Builder withHeavyHitters(HeavyHitters heavyHitters) {
+      this.heavyHitters = heavyHitters;
+      return this;
+    }
+
+    /**
+     * Select the aggregation levels and histograms to report, and whether to report them per
+     * status code or per status class.
+     *
+     * @param granularity the granularity, defaults to {@link MetricGranularity#DEFAULT} (all
+     *                    levels and histograms, per status code).
+     * @return {@code this}.
+     */
+    public Builder granularity(MetricGranularity granularity) {
+      this.granularity = granularity;
+      return this;
+    }
+
+    /**
+     * Skip, or only count, the requests of the excluded routes, e.g. health checks.
+     *
+     * @param exclusions the routes to exclude.
+     * @return {@code this}.
+     */
+    public Builder withExclusions(RouteExclusions exclusions) {
+      this.exclusions = exclusions;
+      return this;
+    }
+
+    /**
+     * Process every request as if it ran on a virtual thread: keep the request state in the
+     * request properties instead of thread locals and only measure the wall-clock time, as the
+     * CPU time, allocations and contention of a carrier thread can't be attributed to a request.
+     * Requests running on virtual threads (JDK 21+) are detected and processed this way
+     * regardless, this option is meant for executors which hop threads between the request and
+     * the response filters. The span of a request is then not activated and, on platform
+     * threads, neither {@link RequestMetrics#current()} nor the outbound calls are bound to the
+     * request thread: inject {@link RequestMetrics} with {@code @Context}, the downstream and
+     * self times are not reported.
+     *
+     * @param virtualThreads whether to always use the virtual thread mode, defaults to false.
+     * @return {@code this}.
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
     public WavefrontJerseyFilter build() {
-      return new WavefrontJerseyFilter(wfJerseyReporter, applicationTags, tracer, headerTags);
+      return new WavefrontJerseyFilter(wfJerseyReporter, applicationTags, tracer, headerTags,
+          overheadSamplingRate, allocationSamplingRate, contentionSamplingRate,
+          slowRequestSampler, inflightRequestRegistry, reportSelfTime, heavyHitters,
+          granularity, exclusions, virtualThreads);
     }
   }
 
   @Override
   public void filter(ContainerRequestContext containerRequestContext) {
+    boolean sampleOverhead = jerseyReporter() != null && overheadSamplingRate > 0 &&
+        ThreadLocalRandom.current().nextInt(overheadSamplingRate) == 0;
+    long overheadStart = sampleOverhead ? System.nanoTime() : 0;
     try {
       processRequest(containerRequestContext);
     } catch (Throwable t) {
       logger.log(Level.SEVERE, "Exception filtering jersey containerRequest", t);
     }
+    if (sampleOverhead) {
+      StatsContext statsContext = statsContext(containerRequestContext);
+      if (statsContext != null) {
+        statsContext.setOverheadNanos(System.nanoTime() - overheadStart);
+      }
+    }
   }
 
   @Override
   public void filter(ContainerRequestContext containerRequestContext,
                      ContainerResponseContext containerResponseContext) {
+    WavefrontJerseyReporter jerseyReporter = jerseyReporter();
+    StatsContext statsContext = jerseyReporter == null ? null :
+        statsContext(containerRequestContext);
+    boolean sampleOverhead = statsContext != null && statsContext.getOverheadNanos() >= 0;
+    long overheadStart = sampleOverhead ? System.nanoTime() : 0;
     try {
       processResponse(containerRequestContext, containerResponseContext);
     } catch (Throwable t) {
       logger.log(Level.SEVERE, "Exception filtering jersey containerResponse", t);
     }
+    if (sampleOverhead) {
+      jerseyReporter.recordFilterOverhead(statsContext.getOverheadNanos() +
+          System.nanoTime() - overheadStart);
+      statsContext.setOverheadNanos(-1);
+    }
   }
 
   private void processRequest(ContainerRequestContext containerRequestContext) {
     if (containerRequestContext instanceof ContainerRequest) {
       ContainerRequest request = (ContainerRequest) containerRequestContext;
+      RouteDescriptor route = routeDescriptor(request);
+      boolean virtualThread = isVirtualThread(Thread.currentThread());
+      boolean requestScoped = virtualThreads || virtualThread;
+      // the thread locals of the request (RequestMetrics, outbound calls) are only set when the
+      // response filter runs on this thread to clear them: outside of the virtual thread mode,
+      // or on a virtual thread, which never serves another request
+      boolean bindThreadLocals = !virtualThreads || virtualThread;
+      if (route != null && route.isExcluded()) {
+        // fast path, no clock read nor span
+        if (excludedRequestsCounter != null) {
+          excludedRequestsCounter.inc();
+        } else if (excludedRequests != null) {
+          wfJerseyReporter.incrementCounter(excludedRequests);
+        }
+        return;
+      }
+      // the thread is not measured for routes without histograms (@WavefrontMetrics), nor when
+      // it is virtual: its CPU time, allocations and contention are those of the carriers
+      boolean measureThread = !requestScoped && (route == null || route.isHistograms());
       long startTime = System.currentTimeMillis();
-      long startTimeCpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
-      Optional<Pair<String, String>> pairOptional = MetricNameUtils.metricNameAndPath(request);
-      if (!pairOptional.isPresent()) {
-        statsContextThreadLocal.set(new StatsContext(startTime, startTimeCpuNanos, null, null));
+      long startTimeCpuNanos = reportCpu && measureThread ?
+          ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() : -1;
+      long startAllocatedBytes = measureThread && sampleAllocation() ?
+          allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+      ThreadInfo startThreadInfo = measureThread && sampleContention() ?
+          ManagementFactory.getThreadMXBean().getThreadInfo(Thread.currentThread().getId()) :
+          null;
+      boolean selfTime = reportSelfTime && bindThreadLocals;
+      if (selfTime) {
+        // in case the previous request of this thread did not complete
+        OutboundCallFilter.setCurrentCalls(null);
+      }
+      if (route == null) {
+        containerRequestContext.setProperty(STATS_CONTEXT_PROPERTY_NAME, new StatsContext(
+            startTime, startTimeCpuNanos, startAllocatedBytes, startThreadInfo, null, null,
+            false));
         return;
       }
-      String requestMetricKey = REQUEST_PREFIX + pairOptional.get()._1;
-      String finalMatchingPath = pairOptional.get()._2;
-      ExtendedUriInfo uriInfo = request.getUriInfo();
-      Pair<String, String> pair = getClassAndMethodName(uriInfo);
-      String finalClassName = pair._1;
-      String finalMethodName = pair._2;
-      String spanOperationName = getSpanOperationName(finalClassName, finalMethodName);
+      String finalMatchingPath = route.getMatchingPath();
+      String finalClassName = route.getClassName();
+      String spanOperationName = route.getOperationName();
 
+      Span span = null;
+      SpanContext parentSpanContext = tracer == null ? null :
+          parentSpanContext(containerRequestContext, requestScoped);
       if (tracer != null) {
         Tracer.SpanBuilder spanBuilder = tracer.buildSpan(spanOperationName).
             withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).
             withTag("jersey.resource.class", finalClassName).
             withTag("jersey.path", finalMatchingPath);
-        SpanContext parentSpanContext = parentSpanContext(containerRequestContext);
         if (parentSpanContext != null) {
           spanBuilder.asChildOf(parentSpanContext);
+        } else if (!sampleTrace(route)) {
+          // every request creates a span, counted by the span-derived RED metrics, the ones
+          // @WavefrontTrace does not sample are not reported; requests continuing a trace
+          // follow the sampling decision of the trace
+          spanBuilder.withTag(Tags.SAMPLING_PRIORITY.getKey(), 0);
         }
 
         handleHeaderTags(containerRequestContext, spanBuilder);
 
-        Span span = spanBuilder.start();
-        Scope scope = tracer.activateSpan(span);
+        span = spanBuilder.start();
+        // a scope must be closed by the thread which activated it: the span of a request scoped
+        // request, whose response filter may run on another thread, is only stored
+        Scope scope = requestScoped ? null : tracer.activateSpan(span);
         decorateRequest(containerRequestContext, span);
         containerRequestContext.setProperty(PROPERTY_NAME, new SpanWrapper(span, scope));
       }
 
+      if (slowRequestSampler != null) {
+        containerRequestContext.setProperty(SlowRequestSampler.PROPERTY_NAME,
+            slowRequestSampler.start(spanOperationName));
+      }
+
       /* Gauges
        * 1) jersey.server.request.api.v2.alert.summary.GET.inflight
        * 2) jersey.server.total_requests.inflight
        */
-      AtomicInteger apiInflight = getGaugeValue(new MetricName(requestMetricKey + ".inflight",
-          getCompleteTagsMap(finalClassName, finalMethodName, spanOperationName)));
+      containerRequestContext.setProperty(ROUTE_PROPERTY_NAME, route);
+      containerRequestContext.setProperty(RequestMetrics.PROPERTY_NAME,
+          route.getRequestMetrics());
+      if (bindThreadLocals) {
+        RequestMetrics.setCurrent(route.getRequestMetrics());
+      }
+
+      AtomicInteger apiInflight = route.getInflight();
       apiInflight.incrementAndGet();
-      AtomicInteger totalInflight = getGaugeValue(new MetricName("total_requests.inflight",
-          new HashMap<String, String>() {{
-            put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-                applicationTags.getCluster());
-            put(SERVICE_TAG_KEY, applicationTags.getService());
-            put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-                applicationTags.getShard());
-          }}));
       totalInflight.incrementAndGet();
-      statsContextThreadLocal.set(new StatsContext(startTime, startTimeCpuNanos, apiInflight,
-          totalInflight));
+      StatsContext statsContext = new StatsContext(startTime, startTimeCpuNanos,
+          startAllocatedBytes, startThreadInfo, apiInflight, totalInflight, bindThreadLocals);
+      if (inflightRequestRegistry != null) {
+        inflightRequestRegistry.register(containerRequestContext, spanOperationName,
+            request.getMethod(), finalMatchingPath, span == null ? null : span.context());
+      }
+      if (selfTime) {
+        OutboundCallFilter.OutboundCalls outboundCalls =
+            new OutboundCallFilter.OutboundCalls(route.getRoute());
+        statsContext.setOutboundCalls(outboundCalls);
+        OutboundCallFilter.setCurrentCalls(outboundCalls);
+      }
+      containerRequestContext.setProperty(STATS_CONTEXT_PROPERTY_NAME, statsContext);
     }
   }
 
+  /**
+   * Start splitting the latency of the requests into the {@code .downstream_time} and
+   * {@code .self_time} histograms, see {@link Builder#reportSelfTime(boolean)}.
+   */
+  void enableSelfTime() {
+    reportSelfTime = true;
+  }
+
+  /**
+   * Feed the latencies measured by this filter to the given {@link ConcurrencyLimitFilter}.
+   */
+  void setConcurrencyLimitFilter(ConcurrencyLimitFilter concurrencyLimitFilter) {
+    Preconditions.checkState(this.concurrencyLimitFilter == null,
+        "ConcurrencyLimitFilter already set");
+    this.concurrencyLimitFilter = concurrencyLimitFilter;
+  }
+
+  SdkReporter getReporter() {
+    return wfJerseyReporter;
+  }
+
+  ApplicationTags getApplicationTags() {
+    return applicationTags;
+  }
+
+  /**
+   * @return the in-flight count of all the instrumented requests.
+   */
+  AtomicInteger getTotalInflight() {
+    return totalInflight;
+  }
+
+  /**
+   * Take a request out of the in-flight gauges if the response filter did not already, used
+   * when Jersey skips the response filters (unmapped exception, failed write, cancelled async
+   * response).
+   */
+  void releaseInflight(ContainerRequestContext containerRequestContext) {
+    StatsContext statsContext = statsContext(containerRequestContext);
+    if (statsContext != null) {
+      releaseInflight(statsContext);
+    }
+  }
+
+  private static void releaseInflight(StatsContext statsContext) {
+    if (INFLIGHT_RELEASED.compareAndSet(statsContext, 0, 1)) {
+      if (statsContext.getApiInflight() != null) {
+        statsContext.getApiInflight().decrementAndGet();
+      }
+      if (statsContext.getTotalInflight() != null) {
+        statsContext.getTotalInflight().decrementAndGet();
+      }
+    }
+  }
+
+  @Nullable
+  private StatsContext statsContext(ContainerRequestContext containerRequestContext) {
+    Object statsContext = containerRequestContext.getProperty(STATS_CONTEXT_PROPERTY_NAME);
+    return statsContext instanceof StatsContext ? (StatsContext) statsContext : null;
+  }
+
   private void handleHeaderTags(ContainerRequestContext containerRequestContext,
                                 Tracer.SpanBuilder spanBuilder) {
     if (headerTags.size() == 0) {
@@ -208,17 +700,28 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
 
   private void processResponse(ContainerRequestContext containerRequestContext,
                                ContainerResponseContext containerResponseContext) {
+    StatsContext statsContext = statsContext(containerRequestContext);
+    // the thread locals are cleared by the thread which set them, another thread (asynchronous
+    // response) may be serving another request
+    boolean clearThreadLocals = statsContext == null ? !virtualThreads :
+        statsContext.isThreadLocalsBound() &&
+            statsContext.getThreadId() == Thread.currentThread().getId();
+    if (clearThreadLocals) {
+      RequestMetrics.setCurrent(null);
+    }
+    Span span = null;
     if (tracer != null) {
       try {
         SpanWrapper spanWrapper = (SpanWrapper) containerRequestContext.getProperty(PROPERTY_NAME);
         if (spanWrapper != null) {
+          span = spanWrapper.getSpan();
+          if (span != null) {
+            decorateResponse(containerResponseContext, span);
+            finishSlowRequest(containerRequestContext, span);
+          }
+          // no scope for request scoped requests
           Scope scope = spanWrapper.getScope();
           if (scope != null) {
-            Span span = spanWrapper.getSpan();
-            if (span != null) {
-              decorateResponse(containerResponseContext, span);
-              span.finish();
-            }
             scope.close();
           }
         }
@@ -226,104 +729,37 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
         // no valid SpanWrapper found
       }
     }
+    finishSlowRequest(containerRequestContext, null);
+    try {
+      reportResponse(containerRequestContext, containerResponseContext, statsContext,
+          clearThreadLocals, span);
+    } finally {
+      // finished once the metrics are reported, the span may be tagged as an exemplar
+      if (span != null) {
+        span.finish();
+      }
+    }
+  }
+
+  private void reportResponse(ContainerRequestContext containerRequestContext,
+                              ContainerResponseContext containerResponseContext,
+                              @Nullable StatsContext statsContext, boolean clearThreadLocals,
+                              @Nullable Span span) {
     if (containerRequestContext instanceof ContainerRequest) {
       ContainerRequest request = (ContainerRequest) containerRequestContext;
-      ExtendedUriInfo uriInfo = request.getUriInfo();
-
-      Pair<String, String> pair = getClassAndMethodName(uriInfo);
-      String finalClassName = pair._1;
-      String finalMethodName = pair._2;
-      String spanOperationName = getSpanOperationName(finalClassName, finalMethodName);
-
-      Optional<Pair<String, String>> apiPathOptionalPair =
-          MetricNameUtils.metricNameAndPath(request);
-      if (!apiPathOptionalPair.isPresent()) {
+      Object routeProperty = request.getProperty(ROUTE_PROPERTY_NAME);
+      // the property is not set for the excluded and unmatched requests
+      RouteDescriptor route = routeProperty instanceof RouteDescriptor ?
+          (RouteDescriptor) routeProperty : routeDescriptor(request);
+      if (route == null || route.isExcluded()) {
         return;
       }
       if (tracer != null) {
-        String matchingPath = apiPathOptionalPair.get()._2;
-        containerResponseContext.getHeaders().add(WF_SPAN_HEADER, matchingPath);
+        containerResponseContext.getHeaders().add(WF_SPAN_HEADER, route.getMatchingPath());
       }
-
-      String responseMetricKeyWithoutStatus = RESPONSE_PREFIX + apiPathOptionalPair.get()._1;
-      String responseMetricKey =
-          responseMetricKeyWithoutStatus + "." + containerResponseContext.getStatus();
-
-      Map<String, String> completeTagsMap = getCompleteTagsMap(
-          finalClassName, finalMethodName, spanOperationName);
-
-      // Response metrics and histograms below
-      Map<String, String> aggregatedPerShardMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerSourceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-      }};
-
-      Map<String, String> overallAggregatedPerShardMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerServiceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerServiceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerClusterMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerClusterMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerApplicationMap = new HashMap<String, String>() {{
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerApplicationMap = new HashMap<String, String>() {{
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
+      boolean isError = isErrorStatusCode(containerResponseContext);
+      RouteDescriptor.StatusMetrics statusMetrics =
+          route.statusMetrics(containerResponseContext.getStatus());
 
       /*
        * Granular response metrics
@@ -333,21 +769,14 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
        * 4) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_cluster.count (DeltaCounter)
        * 5) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_application.count (DeltaCounter)
        * 6) jersey.server.response.api.v2.alert.summary.GET.errors (Counter)
+       *
+       * The metrics not selected by the MetricGranularity have no name.
        */
-      wfJerseyReporter.incrementCounter(new MetricName(responseMetricKey +
-          ".cumulative", completeTagsMap));
-      if (applicationTags.getShard() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-            ".aggregated_per_shard", aggregatedPerShardMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-          ".aggregated_per_service", aggregatedPerServiceMap));
-      if (applicationTags.getCluster() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-            ".aggregated_per_cluster", aggregatedPerClusterMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-          ".aggregated_per_application", aggregatedPerApplicationMap));
+      incrementCounter(statusMetrics.cumulative);
+      incrementDeltaCounter(statusMetrics.aggregatedPerShard);
+      incrementDeltaCounter(statusMetrics.aggregatedPerService);
+      incrementDeltaCounter(statusMetrics.aggregatedPerCluster);
+      incrementDeltaCounter(statusMetrics.aggregatedPerApplication);
 
       /*
        * Overall error response metrics
@@ -357,25 +786,14 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
        * 4) jersey.server.response.errors.aggregated_per_cluster (DeltaCounter)
        * 5) jersey.server.response.errors.aggregated_per_application (DeltaCounter)
        */
-      if (isErrorStatusCode(containerResponseContext)) {
-        wfJerseyReporter.incrementCounter(new MetricName(responseMetricKeyWithoutStatus + ".errors",
-            completeTagsMap));
-        wfJerseyReporter.incrementCounter(new MetricName("response.errors",
-            completeTagsMap));
-        wfJerseyReporter.incrementCounter(new MetricName(
-            "response.errors.aggregated_per_source", overallAggregatedPerSourceMap));
-        if (applicationTags.getShard() != null) {
-          wfJerseyReporter.incrementDeltaCounter(new MetricName(
-              "response.errors.aggregated_per_shard", overallAggregatedPerShardMap));
-        }
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(
-            "response.errors.aggregated_per_service", overallAggregatedPerServiceMap));
-        if (applicationTags.getCluster() != null) {
-          wfJerseyReporter.incrementDeltaCounter(new MetricName(
-              "response.errors.aggregated_per_cluster", overallAggregatedPerClusterMap));
-        }
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(
-            "response.errors.aggregated_per_application", overallAggregatedPerApplicationMap));
+      if (isError) {
+        incrementCounter(route.getErrors());
+        incrementCounter(route.getResponseErrors());
+        incrementCounter(errorsPerSource);
+        incrementDeltaCounter(errorsPerShard);
+        incrementDeltaCounter(errorsPerService);
+        incrementDeltaCounter(errorsPerCluster);
+        incrementDeltaCounter(errorsPerApplication);
       }
 
       /*
@@ -386,58 +804,221 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
        * 3) jersey.server.response.completed.aggregated_per_cluster.count (DeltaCounter)
        * 5) jersey.server.response.completed.aggregated_per_application.count (DeltaCounter)
        */
-      wfJerseyReporter.incrementCounter(new MetricName("response.completed.aggregated_per_source",
-          overallAggregatedPerSourceMap));
-      if (applicationTags.getShard() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-            ".completed.aggregated_per_shard", overallAggregatedPerShardMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-          ".completed.aggregated_per_service", overallAggregatedPerServiceMap));
-      if (applicationTags.getCluster() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-            ".completed.aggregated_per_cluster", overallAggregatedPerClusterMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-          ".completed.aggregated_per_application", overallAggregatedPerApplicationMap));
+      incrementCounter(completedPerSource);
+      incrementDeltaCounter(completedPerShard);
+      incrementDeltaCounter(completedPerService);
+      incrementDeltaCounter(completedPerCluster);
+      incrementDeltaCounter(completedPerApplication);
 
-      StatsContext statsContext = statsContextThreadLocal.get();
       if (statsContext != null) {
 
         /* Gauges - update api inflight and total inflight gauges
          * 1) jersey.server.request.api.v2.alert.summary.GET.inflight
          * 2) jersey.server.total_requests.inflight
          */
-        if (statsContext.getApiInflight() != null) {
-          statsContext.getApiInflight().decrementAndGet();
-        }
+        releaseInflight(statsContext);
 
-        if (statsContext.getTotalInflight() != null) {
-          statsContext.getTotalInflight().decrementAndGet();
+        if (inflightRequestRegistry != null) {
+          inflightRequestRegistry.unregister(containerRequestContext);
         }
 
         /*
          * WavefrontHistograms
          * 1) jersey.server.response.api.v2.alert.summary.GET.200.latency
          * 2) jersey.server.response.api.v2.alert.summary.GET.200.cpu_ns
+         *
+         * Only reported when the response is processed on the thread that processed the request,
+         * the CPU clocks of two threads (async response) cannot be subtracted.
+         */
+        if (statusMetrics.cpuNanos != null && statsContext.getStartCpuNanos() >= 0 &&
+            statsContext.getThreadId() == Thread.currentThread().getId()) {
+          long cpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() -
+              statsContext.getStartCpuNanos();
+          wfJerseyReporter.updateHistogram(statusMetrics.cpuNanos, cpuNanos);
+        }
+
+        /*
+         * Sampled WavefrontHistogram
+         * 3) jersey.server.response.api.v2.alert.summary.GET.200.alloc_bytes
+         *
+         * Only reported when the response is processed on the thread that processed the request,
+         * the bytes allocated by a different thread (async response) are not comparable.
+         */
+        if (statusMetrics.allocatedBytes != null && statsContext.getStartAllocatedBytes() >= 0 &&
+            statsContext.getThreadId() == Thread.currentThread().getId()) {
+          long allocatedBytes = allocationMXBean.getThreadAllocatedBytes(
+              statsContext.getThreadId()) - statsContext.getStartAllocatedBytes();
+          if (allocatedBytes >= 0) {
+            wfJerseyReporter.updateHistogram(statusMetrics.allocatedBytes, allocatedBytes);
+          }
+        }
+
+        /*
+         * Sampled WavefrontHistograms (contention monitoring)
+         * 4) jersey.server.response.api.v2.alert.summary.GET.200.blocked_ms
+         * 5) jersey.server.response.api.v2.alert.summary.GET.200.waited_ms
+         * 6) jersey.server.response.api.v2.alert.summary.GET.200.blocked_count
+         * 7) jersey.server.response.api.v2.alert.summary.GET.200.waited_count
          */
-        long cpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() -
-            statsContext.getStartCpuNanos();
-        wfJerseyReporter.updateHistogram(new MetricName(responseMetricKey + ".cpu_ns",
-            completeTagsMap), cpuNanos);
-
-        long apiLatency = System.currentTimeMillis() - statsContext.getStartTime();
-        wfJerseyReporter.updateHistogram(new MetricName(responseMetricKey + ".latency",
-            completeTagsMap), apiLatency);
+        if (statusMetrics.blockedMillis != null && statsContext.getStartBlockedMillis() >= 0 &&
+            statsContext.getThreadId() == Thread.currentThread().getId()) {
+          ThreadInfo threadInfo = ManagementFactory.getThreadMXBean().getThreadInfo(
+              statsContext.getThreadId());
+          if (threadInfo != null && threadInfo.getBlockedTime() >= 0) {
+            wfJerseyReporter.updateHistogram(statusMetrics.blockedMillis,
+                threadInfo.getBlockedTime() - statsContext.getStartBlockedMillis());
+            wfJerseyReporter.updateHistogram(statusMetrics.waitedMillis,
+                threadInfo.getWaitedTime() - statsContext.getStartWaitedMillis());
+            wfJerseyReporter.updateHistogram(statusMetrics.blockedCount,
+                threadInfo.getBlockedCount() - statsContext.getStartBlockedCount());
+            wfJerseyReporter.updateHistogram(statusMetrics.waitedCount,
+                threadInfo.getWaitedCount() - statsContext.getStartWaitedCount());
+          }
+        }
+
+        long endTime = System.currentTimeMillis();
+        long apiLatency = endTime - statsContext.getStartTime();
+        ConcurrencyLimitFilter concurrencyLimitFilter = this.concurrencyLimitFilter;
+        if (concurrencyLimitFilter != null) {
+          concurrencyLimitFilter.onResponse(containerRequestContext, apiLatency, endTime);
+        }
+        WavefrontJerseyReporter jerseyReporter = jerseyReporter();
+        if (statusMetrics.latency != null) {
+          wfJerseyReporter.updateHistogram(statusMetrics.latency, apiLatency);
+          if (jerseyReporter != null && span != null) {
+            jerseyReporter.recordExemplar(statusMetrics.latency, apiLatency,
+                statsContext.getStartTime(), span);
+          }
+        }
+        if (jerseyReporter != null) {
+          jerseyReporter.recordRouteLatency(route.getRoute(), apiLatency, isError);
+        }
+        if (heavyHitters != null) {
+          heavyHitters.record(route.getRoute(), containerRequestContext.
+              getHeaderString(heavyHitters.getHeader()), apiLatency, isError);
+        }
         /*
          * total time spent counter: jersey.server.response.api.v2.alert.summary.GET.200.total_time
          */
-        wfJerseyReporter.incrementCounter(new MetricName(responseMetricKey + ".total_time",
-            completeTagsMap), apiLatency);
+        if (statusMetrics.totalTime != null) {
+          wfJerseyReporter.incrementCounter(statusMetrics.totalTime, apiLatency);
+        }
+
+        /*
+         * WavefrontHistograms, for requests which made outbound calls through OutboundCallFilter
+         * 6) jersey.server.response.api.v2.alert.summary.GET.200.downstream_time
+         * 7) jersey.server.response.api.v2.alert.summary.GET.200.self_time
+         */
+        OutboundCallFilter.OutboundCalls outboundCalls = statsContext.getOutboundCalls();
+        if (outboundCalls != null) {
+          if (clearThreadLocals) {
+            OutboundCallFilter.setCurrentCalls(null);
+          }
+          statsContext.setOutboundCalls(null);
+          if (outboundCalls.getCount() > 0 && statusMetrics.downstreamTime != null) {
+            long downstreamMillis = TimeUnit.NANOSECONDS.toMillis(outboundCalls.getNanos());
+            wfJerseyReporter.updateHistogram(statusMetrics.downstreamTime, downstreamMillis);
+            // concurrent outbound calls may add up to more than the latency
+            wfJerseyReporter.updateHistogram(statusMetrics.selfTime,
+                Math.max(0, apiLatency - downstreamMillis));
+          }
+        }
       }
     }
   }
 
+  @Nullable
+  private WavefrontJerseyReporter jerseyReporter() {
+    WavefrontJerseyReporter reporter = jerseyReporter;
+    if (reporter == null && deferredReporter != null) {
+      reporter = deferredReporter.getDelegate();
+      jerseyReporter = reporter;
+    }
+    return reporter;
+  }
+
+  private static boolean sampleTrace(RouteDescriptor route) {
+    double sampleRate = route.getTraceSampleRate();
+    return sampleRate >= 1 || (sampleRate > 0 &&
+        ThreadLocalRandom.current().nextDouble() < sampleRate);
+  }
+
+  private boolean sampleAllocation() {
+    return allocationSamplingRate == 1 || (allocationSamplingRate > 1 &&
+        ThreadLocalRandom.current().nextInt(allocationSamplingRate) == 0);
+  }
+
+  private boolean sampleContention() {
+    return contentionSamplingRate == 1 || (contentionSamplingRate > 1 &&
+        ThreadLocalRandom.current().nextInt(contentionSamplingRate) == 0);
+  }
+
+  private static boolean enableThreadContentionMonitoring() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!threadMXBean.isThreadContentionMonitoringSupported()) {
+      logger.log(Level.WARNING, "Thread contention monitoring is not supported by this JVM");
+      return false;
+    }
+    threadMXBean.setThreadContentionMonitoringEnabled(true);
+    return true;
+  }
+
+  /**
+   * @param thread the thread.
+   * @return whether the thread is a virtual thread, always false before JDK 21.
+   */
+  static boolean isVirtualThread(Thread thread) {
+    if (isVirtualMethod == null) {
+      return false;
+    }
+    try {
+      return (boolean) isVirtualMethod.invokeExact(thread);
+    } catch (Throwable t) {
+      return false;
+    }
+  }
+
+  @Nullable
+  private static MethodHandle isVirtualThreadHandle() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+          MethodType.methodType(boolean.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      // virtual threads are not supported by this JVM
+      return null;
+    }
+  }
+
+  @Nullable
+  private static com.sun.management.ThreadMXBean allocationMXBean() {
+    try {
+      java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean allocationMXBean =
+            (com.sun.management.ThreadMXBean) threadMXBean;
+        if (allocationMXBean.isThreadAllocatedMemorySupported() &&
+            allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+          return allocationMXBean;
+        }
+      }
+    } catch (Throwable t) {
+      // com.sun.management is not available on this JVM
+    }
+    return null;
+  }
+
+  private void finishSlowRequest(ContainerRequestContext containerRequestContext,
+                                 @Nullable Span span) {
+    if (slowRequestSampler == null) {
+      return;
+    }
+    Object slowRequest = containerRequestContext.getProperty(SlowRequestSampler.PROPERTY_NAME);
+    if (slowRequest instanceof SlowRequestSampler.InflightRequest) {
+      containerRequestContext.removeProperty(SlowRequestSampler.PROPERTY_NAME);
+      slowRequestSampler.finish((SlowRequestSampler.InflightRequest) slowRequest, span);
+    }
+  }
+
   private Pair<String, String> getClassAndMethodName(ExtendedUriInfo uriInfo) {
     String className = "unknown";
     String methodName = "unknown";
@@ -463,26 +1044,115 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     });
   }
 
-  private Map<String, String> getCompleteTagsMap(String finalClassName, String finalMethodName,
-                                                 String spanOperationName) {
-    return new HashMap<String, String>() {{
-      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-          applicationTags.getCluster());
-      put(SERVICE_TAG_KEY, applicationTags.getService());
-      put(SHARD_TAG_KEY,
-          applicationTags.getShard() == null ? NULL_TAG_VAL : applicationTags.getShard());
-      put("jersey.resource.class", finalClassName);
-      put("jersey.resource.method", finalMethodName);
-      put("operationName", spanOperationName);
-    }};
+  /**
+   * @return the route of the request, built on the first request of the route, or {@code null}
+   * when the request did not match a resource.
+   */
+  @Nullable
+  private RouteDescriptor routeDescriptor(ContainerRequest request) {
+    ExtendedUriInfo uriInfo = request.getUriInfo();
+    Resource resource = uriInfo.getMatchedModelResource();
+    if (resource == null) {
+      return null;
+    }
+    // a different resource method may handle the route when negotiating the content type, the
+    // routes are cached by resource method unless it serves another HTTP method (e.g. HEAD)
+    ResourceMethod resourceMethodModel = uriInfo.getMatchedResourceMethod();
+    Object routeKey = resourceMethodModel != null &&
+        request.getMethod().equals(resourceMethodModel.getHttpMethod()) ?
+        resourceMethodModel : request.getMethod();
+    ConcurrentMap<Object, RouteDescriptor> resourceRoutes = routes.get(resource);
+    if (resourceRoutes != null) {
+      RouteDescriptor route = resourceRoutes.get(routeKey);
+      if (route != null) {
+        return route;
+      }
+    }
+
+    Optional<Pair<String, String>> pairOptional = MetricNameUtils.metricNameAndPath(request);
+    if (!pairOptional.isPresent()) {
+      return null;
+    }
+    Pair<String, String> pair = getClassAndMethodName(uriInfo);
+    Method resourceMethod = uriInfo instanceof RoutingContext ?
+        ((RoutingContext) uriInfo).getResourceMethod() : null;
+    Class<?> resourceClass = uriInfo instanceof RoutingContext ?
+        ((RoutingContext) uriInfo).getResourceClass() : null;
+    // the instrumentation annotations are read once per route
+    Method definitionMethod = resourceMethodModel == null ? null :
+        resourceMethodModel.getInvocable().getDefinitionMethod();
+    WavefrontMetrics metrics = annotation(WavefrontMetrics.class, resourceMethod,
+        definitionMethod, resourceClass);
+    WavefrontTrace trace = annotation(WavefrontTrace.class, resourceMethod, definitionMethod,
+        resourceClass);
+    boolean excluded = annotation(WavefrontExclude.class, resourceMethod, definitionMethod,
+        resourceClass) != null || (exclusions != null &&
+        exclusions.excludes(pairOptional.get()._2, resourceClass, resourceMethod));
+    WavefrontJerseyReporter jerseyReporter = jerseyReporter();
+    if (excluded && excludedRequests != null && jerseyReporter != null &&
+        excludedRequestsCounter == null) {
+      excludedRequestsCounter = jerseyReporter.counter(excludedRequests);
+    }
+    RouteDescriptor route = new RouteDescriptor(pairOptional.get()._1, pairOptional.get()._2,
+        pair._1, pair._2, excluded, metrics == null || metrics.histograms(),
+        trace == null ? 1.0 : trace.sampleRate(), applicationTags, granularity,
+        wfJerseyReporter, this::getGaugeValue);
+    if (resourceRoutes == null && routes.size() < MAX_CACHED_RESOURCES) {
+      resourceRoutes = routes.computeIfAbsent(resource, key -> new ConcurrentHashMap<>());
+    }
+    if (resourceRoutes != null) {
+      RouteDescriptor cachedRoute = resourceRoutes.putIfAbsent(routeKey, route);
+      if (cachedRoute != null) {
+        return cachedRoute;
+      }
+    }
+    return route;
   }
 
-  private String getSpanOperationName(String finalClassName, String finalMethodName) {
-    return finalClassName.substring(finalClassName.lastIndexOf('.') + 1) + "." + finalMethodName;
+  /**
+   * @return the annotation of the resource method, or else of its resource class.
+   */
+  @Nullable
+  private static <A extends Annotation> A annotation(Class<A> type,
+                                                     @Nullable Method resourceMethod,
+                                                     @Nullable Method definitionMethod,
+                                                     @Nullable Class<?> resourceClass) {
+    A annotation = resourceMethod == null ? null : resourceMethod.getAnnotation(type);
+    if (annotation == null && definitionMethod != null) {
+      annotation = definitionMethod.getAnnotation(type);
+    }
+    if (annotation == null && resourceClass != null) {
+      annotation = resourceClass.getAnnotation(type);
+    }
+    if (annotation == null && definitionMethod != null) {
+      annotation = definitionMethod.getDeclaringClass().getAnnotation(type);
+    }
+    return annotation;
   }
 
-  private SpanContext parentSpanContext(ContainerRequestContext requestContext) {
-    Span activeSpan = tracer.activeSpan();
+  @Nullable
+  private MetricName overallMetricName(String name, AggregationLevel aggregationLevel,
+                                       @Nullable Map<String, String> tags) {
+    return tags != null && granularity.reports(aggregationLevel) ? new MetricName(name, tags) :
+        null;
+  }
+
+  private void incrementCounter(@Nullable MetricName metricName) {
+    if (metricName != null) {
+      wfJerseyReporter.incrementCounter(metricName);
+    }
+  }
+
+  private void incrementDeltaCounter(@Nullable MetricName metricName) {
+    if (metricName != null) {
+      wfJerseyReporter.incrementDeltaCounter(metricName);
+    }
+  }
+
+  private SpanContext parentSpanContext(ContainerRequestContext requestContext,
+                                        boolean requestScoped) {
+    // the span active on the thread of a request scoped request belongs to another request
+    Span activeSpan = requestScoped ? null : tracer.activeSpan();
     if (activeSpan != null) {
       return activeSpan.context();
     } else {
@@ -577,17 +1247,62 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
   private class StatsContext {
     private final long startTime;
     private final long startCpuNanos;
+    // -1 when allocation is not sampled for this request
+    private final long startAllocatedBytes;
+    private final long threadId;
+    // -1 when contention is not sampled for this request
+    private final long startBlockedMillis;
+    private final long startWaitedMillis;
+    private final long startBlockedCount;
+    private final long startWaitedCount;
     @Nullable
     private final AtomicInteger apiInflight;
     @Nullable
     private final AtomicInteger totalInflight;
+    // nanos spent in the request filter, -1 when overhead is not sampled for this request
+    private long overheadNanos = -1;
+    // whether the request thread locals were set on the request thread
+    private final boolean threadLocalsBound;
+    // set once the request is out of the in-flight gauges, see INFLIGHT_RELEASED
+    volatile int inflightReleased;
+    @Nullable
+    private OutboundCallFilter.OutboundCalls outboundCalls;
 
-    StatsContext(long startTime, long startCpuNanos, AtomicInteger apiInflight,
-                 AtomicInteger totalInflight) {
+    StatsContext(long startTime, long startCpuNanos, long startAllocatedBytes,
+                 @Nullable ThreadInfo startThreadInfo, AtomicInteger apiInflight,
+                 AtomicInteger totalInflight, boolean threadLocalsBound) {
       this.startTime = startTime;
       this.startCpuNanos = startCpuNanos;
+      this.startAllocatedBytes = startAllocatedBytes;
+      this.threadId = Thread.currentThread().getId();
+      this.startBlockedMillis = startThreadInfo == null ? -1 : startThreadInfo.getBlockedTime();
+      this.startWaitedMillis = startThreadInfo == null ? -1 : startThreadInfo.getWaitedTime();
+      this.startBlockedCount = startThreadInfo == null ? -1 : startThreadInfo.getBlockedCount();
+      this.startWaitedCount = startThreadInfo == null ? -1 : startThreadInfo.getWaitedCount();
       this.apiInflight = apiInflight;
       this.totalInflight = totalInflight;
+      this.threadLocalsBound = threadLocalsBound;
+    }
+
+    public boolean isThreadLocalsBound() {
+      return threadLocalsBound;
+    }
+
+    public long getOverheadNanos() {
+      return overheadNanos;
+    }
+
+    public void setOverheadNanos(long overheadNanos) {
+      this.overheadNanos = overheadNanos;
+    }
+
+    @Nullable
+    public OutboundCallFilter.OutboundCalls getOutboundCalls() {
+      return outboundCalls;
+    }
+
+    public void setOutboundCalls(@Nullable OutboundCallFilter.OutboundCalls outboundCalls) {
+      this.outboundCalls = outboundCalls;
     }
 
     public long getStartTime() {
@@ -598,6 +1313,30 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
       return startCpuNanos;
     }
 
+    public long getStartAllocatedBytes() {
+      return startAllocatedBytes;
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public long getStartBlockedMillis() {
+      return startBlockedMillis;
+    }
+
+    public long getStartWaitedMillis() {
+      return startWaitedMillis;
+    }
+
+    public long getStartBlockedCount() {
+      return startBlockedCount;
+    }
+
+    public long getStartWaitedCount() {
+      return startWaitedCount;
+    }
+
     public AtomicInteger getApiInflight() {
       return apiInflight;
     }
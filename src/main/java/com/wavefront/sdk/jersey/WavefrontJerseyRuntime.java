@@ -0,0 +1,200 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.config.WavefrontReportingConfig;
+import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.InstrumentedSpanReporter;
+import com.wavefront.sdk.jersey.reporter.InstrumentedWavefrontSender;
+
+import org.apache.commons.lang3.BooleanUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.config.ReportingUtils.constructWavefrontReportingConfig;
+import static com.wavefront.config.ReportingUtils.constructWavefrontSender;
+import static com.wavefront.sdk.common.Constants.APPLICATION_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.COMPONENT_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.HEART_BEAT_METRIC;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static com.wavefront.sdk.jersey.Constants.JERSEY_SERVER_COMPONENT;
+
+/**
+ * Reporting runtime shared by the Jersey applications of a JVM which report to the same
+ * Wavefront proxy or cluster. Instead of one set per {@link WavefrontJerseyFactory}, the JVM
+ * then has a single {@code WavefrontSender} (one connection pool, one flush thread), a single
+ * span reporter, a single scheduler for the periodic tasks of the reporters, including the
+ * flushes of their metric registries, and a single heartbeat task reporting every application.
+ * Each application keeps its own {@code ApplicationTags}:
+ *
+ * <pre>
+ * WavefrontJerseyRuntime runtime = WavefrontJerseyRuntime.forReportingConfig(
+ *     wfReportingConfigYamlFile);
+ * WavefrontJerseyFactory ordering = new WavefrontJerseyFactory(orderingTagsYamlFile, runtime);
+ * WavefrontJerseyFactory billing = new WavefrontJerseyFactory(billingTagsYamlFile, runtime);
+ * </pre>
+ *
+ * <p>The metric registries of the reporters are not shared: their point tags identify the
+ * application, so each of them keeps its own reporting interval.
+ */
+public final class WavefrontJerseyRuntime implements Closeable {
+  private static final Logger logger = Logger.getLogger(WavefrontJerseyRuntime.class.getName());
+
+  private static final long HEARTBEAT_INTERVAL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+  // runtimes of the JVM, by absolute path of their reporting configuration
+  private static final ConcurrentMap<String, WavefrontJerseyRuntime> runtimes =
+      new ConcurrentHashMap<>();
+
+  @Nullable
+  private final String key;
+  private final String source;
+  private final InstrumentedWavefrontSender wavefrontSender;
+  @Nullable
+  private final WavefrontSpanReporter wfSpanReporter;
+  @Nullable
+  private final InstrumentedSpanReporter spanReporter;
+  private final ScheduledExecutorService scheduler;
+  // point tags of the heartbeat of every application
+  private final Set<Map<String, String>> heartbeats = ConcurrentHashMap.newKeySet();
+
+  private WavefrontJerseyRuntime(@Nullable String key,
+                                 WavefrontReportingConfig wfReportingConfig) {
+    Preconditions.checkNotNull(wfReportingConfig, "Invalid WavefrontReportingConfig");
+    this.key = key;
+    this.source = wfReportingConfig.getSource() != null ? wfReportingConfig.getSource() :
+        localHostName();
+    this.wavefrontSender = new InstrumentedWavefrontSender(
+        constructWavefrontSender(wfReportingConfig));
+    this.wfSpanReporter = BooleanUtils.isTrue(wfReportingConfig.getReportTraces()) ?
+        new WavefrontSpanReporter.Builder().withSource(source).build(wavefrontSender) : null;
+    this.spanReporter = wfSpanReporter == null ? null :
+        new InstrumentedSpanReporter(wfSpanReporter, wavefrontSender);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-runtime");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this::reportHeartbeats, 1, HEARTBEAT_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param wfReportingConfigYamlFile path of the Wavefront reporting configuration.
+   * @return the runtime of the JVM for the given reporting configuration, created on first use.
+   */
+  public static WavefrontJerseyRuntime forReportingConfig(String wfReportingConfigYamlFile) {
+    String key = Paths.get(wfReportingConfigYamlFile).toAbsolutePath().normalize().toString();
+    return runtimes.computeIfAbsent(key, path -> new WavefrontJerseyRuntime(path,
+        constructWavefrontReportingConfig(path)));
+  }
+
+  /**
+   * Create a runtime which is not registered JVM-wide, e.g. for tests.
+   *
+   * @param wfReportingConfig the Wavefront reporting configuration.
+   * @return the runtime.
+   */
+  public static WavefrontJerseyRuntime of(WavefrontReportingConfig wfReportingConfig) {
+    return new WavefrontJerseyRuntime(null, wfReportingConfig);
+  }
+
+  /**
+   * Report the heartbeat of the given application with the other ones.
+   *
+   * @param applicationTags tags of the application.
+   */
+  void registerApplication(ApplicationTags applicationTags) {
+    heartbeats.add(new HashMap<String, String>() {{
+      put(APPLICATION_TAG_KEY, applicationTags.getApplication());
+      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+          applicationTags.getCluster());
+      put(SERVICE_TAG_KEY, applicationTags.getService());
+      put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+          applicationTags.getShard());
+      put(COMPONENT_TAG_KEY, JERSEY_SERVER_COMPONENT);
+    }});
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public boolean isReportTraces() {
+    return spanReporter != null;
+  }
+
+  public InstrumentedWavefrontSender getWavefrontSender() {
+    return wavefrontSender;
+  }
+
+  /**
+   * @return the span reporter shared by the tracers, {@code null} when traces are not reported.
+   * Build the tracers on its {@link InstrumentedSpanReporter#getTracerReporter()}.
+   */
+  @Nullable
+  public InstrumentedSpanReporter getSpanReporter() {
+    return spanReporter;
+  }
+
+  /**
+   * @return the scheduler shared by the periodic tasks of the reporters, not to be shut down.
+   */
+  public ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  private void reportHeartbeats() {
+    long timestamp = System.currentTimeMillis();
+    for (Map<String, String> tags : heartbeats) {
+      try {
+        wavefrontSender.sendMetric(HEART_BEAT_METRIC, 1.0, timestamp, source, tags);
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Cannot report " + HEART_BEAT_METRIC + " to Wavefront", t);
+      }
+    }
+  }
+
+  /**
+   * Stop the runtime and close its sender, once every application using it is stopped.
+   */
+  @Override
+  public void close() throws IOException {
+    if (key != null) {
+      runtimes.remove(key, this);
+    }
+    scheduler.shutdownNow();
+    if (wfSpanReporter != null) {
+      wfSpanReporter.close();
+    }
+    wavefrontSender.flush();
+    wavefrontSender.close();
+  }
+
+  private static String localHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "unknown";
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.wavefront.sdk.jersey;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tunes the metrics {@link WavefrontJerseyFilter} reports for a resource method, or for every
+ * resource method of a resource class. An annotation on the method takes precedence over the
+ * one on its class. Read once per route, on its first request.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface WavefrontMetrics {
+
+  /**
+   * @return whether to report the response histograms selected by the
+   * {@link MetricGranularity} of the filter. Without them the request only updates counters
+   * and the CPU time, allocations and contention of its thread are not measured.
+   */
+  boolean histograms() default true;
+}
@@ -0,0 +1,26 @@
+package com.wavefront.sdk.jersey;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tunes the tracing of a resource method, or of every resource method of a resource class, when
+ * {@link WavefrontJerseyFilter} has a tracer. An annotation on the method takes precedence over
+ * the one on its class. Read once per route, on its first request.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface WavefrontTrace {
+
+  /**
+   * @return the fraction of the requests whose span is reported, between 0 (never) and 1
+   * (always). Every request creates a span, so the span-derived RED metrics count them all, the
+   * others are tagged with a {@code sampling.priority} of 0. Requests continuing a trace started
+   * upstream follow the sampling decision of the trace so traces are not broken.
+   */
+  double sampleRate() default 1.0;
+}
@@ -0,0 +1,229 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Reporter used while the {@link WavefrontJerseyReporter} is being built in the background, so
+ * the application can serve requests before the sender is connected and the source resolved.
+ * Until {@link #ready(WavefrontJerseyReporter)} is called, counters are summed and histogram
+ * values buffered in memory (at most {@code maxBufferedValues} values per histogram, the others
+ * are dropped); they are then handed over to the reporter and every later call goes straight to
+ * it.
+ */
+public class DeferredJerseyReporter implements SdkReporter {
+
+  @Nullable
+  private volatile WavefrontJerseyReporter delegate;
+  private volatile boolean discarded;
+
+  private final ConcurrentMap<MetricName, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, AtomicLong> deltaCounters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, ValueBuffer> histograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, AtomicInteger> gauges = new ConcurrentHashMap<>();
+  private final Function<MetricName, AtomicLong> newCounter = metricName -> new AtomicLong();
+  private final Function<MetricName, ValueBuffer> newHistogram;
+  private final LongAdder droppedValues = new LongAdder();
+
+  public DeferredJerseyReporter() {
+    this(1024);
+  }
+
+  /**
+   * @param maxBufferedValues maximum number of values buffered per histogram.
+   */
+  public DeferredJerseyReporter(int maxBufferedValues) {
+    Preconditions.checkArgument(maxBufferedValues >= 0, "Invalid maxBufferedValues");
+    this.newHistogram = metricName -> new ValueBuffer(maxBufferedValues);
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName) {
+    incrementCounter(metricName, 1);
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName, long n) {
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.incrementCounter(metricName, n);
+    } else if (!discarded) {
+      getOrCreate(counters, metricName, newCounter).addAndGet(n);
+      drainIfReady();
+    }
+  }
+
+  @Override
+  public void incrementDeltaCounter(MetricName metricName) {
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.incrementDeltaCounter(metricName);
+    } else if (!discarded) {
+      getOrCreate(deltaCounters, metricName, newCounter).incrementAndGet();
+      drainIfReady();
+    }
+  }
+
+  @Override
+  public void registerGauge(MetricName metricName, AtomicInteger value) {
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.registerGauge(metricName, value);
+    } else if (!discarded) {
+      gauges.putIfAbsent(metricName, value);
+      drainIfReady();
+    }
+  }
+
+  @Override
+  public void updateHistogram(MetricName metricName, long latencyMillis) {
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.updateHistogram(metricName, latencyMillis);
+    } else if (!discarded) {
+      if (!getOrCreate(histograms, metricName, newHistogram).add(latencyMillis)) {
+        droppedValues.increment();
+      }
+      drainIfReady();
+    }
+  }
+
+  /**
+   * The delegate is started by its owner.
+   */
+  @Override
+  public void start() {
+    // no-op
+  }
+
+  @Override
+  public void stop() {
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.stop();
+    } else {
+      discard();
+    }
+  }
+
+  /**
+   * Hand the buffered data over to the given reporter and forward every later call to it.
+   *
+   * @param reporter the reporter, already started.
+   */
+  public void ready(WavefrontJerseyReporter reporter) {
+    Preconditions.checkNotNull(reporter, "Invalid JerseyReporter");
+    delegate = reporter;
+    drain(reporter);
+  }
+
+  /**
+   * Drop the buffered data and ignore every later call, e.g. when the reporter can't be built.
+   */
+  public void discard() {
+    discarded = true;
+    counters.clear();
+    deltaCounters.clear();
+    histograms.clear();
+    gauges.clear();
+  }
+
+  /**
+   * @return the reporter the calls are forwarded to, {@code null} until ready.
+   */
+  @Nullable
+  public WavefrontJerseyReporter getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return number of histogram values dropped because the buffer of their histogram was full.
+   */
+  public long getDroppedValues() {
+    return droppedValues.sum();
+  }
+
+  private void drainIfReady() {
+    // the reporter may have become ready after the value was buffered
+    WavefrontJerseyReporter reporter = delegate;
+    if (reporter != null) {
+      drain(reporter);
+    }
+  }
+
+  private void drain(WavefrontJerseyReporter reporter) {
+    for (Map.Entry<MetricName, AtomicLong> entry : counters.entrySet()) {
+      long n = entry.getValue().getAndSet(0);
+      if (n != 0) {
+        reporter.incrementCounter(entry.getKey(), n);
+      }
+    }
+    for (Map.Entry<MetricName, AtomicLong> entry : deltaCounters.entrySet()) {
+      long n = entry.getValue().getAndSet(0);
+      if (n != 0) {
+        reporter.incrementDeltaCounter(entry.getKey(), n);
+      }
+    }
+    for (Map.Entry<MetricName, ValueBuffer> entry : histograms.entrySet()) {
+      for (long value : entry.getValue().drain()) {
+        reporter.updateHistogram(entry.getKey(), value);
+      }
+    }
+    for (Map.Entry<MetricName, AtomicInteger> entry : gauges.entrySet()) {
+      if (gauges.remove(entry.getKey(), entry.getValue())) {
+        reporter.registerGauge(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static <K, T> T getOrCreate(ConcurrentMap<K, T> handles, K key,
+                                      Function<K, T> factory) {
+    T handle = handles.get(key);
+    return handle != null ? handle : handles.computeIfAbsent(key, factory);
+  }
+
+  private static final class ValueBuffer {
+    private static final long[] EMPTY = new long[0];
+
+    private final int capacity;
+    private long[] values = EMPTY;
+    private int size;
+
+    private ValueBuffer(int capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized boolean add(long value) {
+      if (size == capacity) {
+        return false;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, Math.min(capacity, Math.max(16, size * 2)));
+      }
+      values[size++] = value;
+      return true;
+    }
+
+    synchronized long[] drain() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      long[] drained = Arrays.copyOf(values, size);
+      size = 0;
+      return drained;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Sender used while the actual {@link WavefrontSender} is being built in the background, so the
+ * tracer, its span reporter and the client filter can be built right away. Until
+ * {@link #ready(WavefrontSender)} is called, at most {@code maxBufferedCalls} points and spans
+ * are buffered in memory, the others are rejected with an {@link IOException}; they are then
+ * handed over to the sender and every later call goes straight to it.
+ *
+ * <p>The source may not be known yet either: the span reporter and the tracer can be built with
+ * {@link #DEFERRED_SOURCE}, which is replaced by the source given to
+ * {@link #ready(WavefrontSender, String)} in every point and span.
+ */
+public class DeferredWavefrontSender implements WavefrontSender {
+  private static final Logger logger = Logger.getLogger(DeferredWavefrontSender.class.getName());
+
+  /**
+   * Source to build the span reporter and the tracer with until the actual source is resolved.
+   */
+  public static final String DEFERRED_SOURCE = "~deferred-source";
+
+  private interface Call {
+    void send(WavefrontSender sender) throws IOException;
+  }
+
+  private final ArrayBlockingQueue<Call> calls;
+  private final LongAdder droppedCalls = new LongAdder();
+  @Nullable
+  private volatile WavefrontSender delegate;
+  @Nullable
+  private volatile String source;
+  private volatile boolean discarded;
+
+  public DeferredWavefrontSender() {
+    this(10_000);
+  }
+
+  /**
+   * @param maxBufferedCalls maximum number of points and spans buffered until the sender is
+   *                         ready.
+   */
+  public DeferredWavefrontSender(int maxBufferedCalls) {
+    Preconditions.checkArgument(maxBufferedCalls > 0, "Invalid maxBufferedCalls");
+    this.calls = new ArrayBlockingQueue<>(maxBufferedCalls);
+  }
+
+  @Override
+  public void sendMetric(String name, double value, @Nullable Long timestamp,
+                         @Nullable String source, @Nullable Map<String, String> tags)
+      throws IOException {
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      sender.sendMetric(name, value, timestamp, source(source), tags);
+    } else {
+      buffer(s -> s.sendMetric(name, value, timestamp, source(source), tags));
+    }
+  }
+
+  @Override
+  public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      sender.sendDistribution(name, centroids, histogramGranularities, timestamp,
+          source(source), tags);
+    } else {
+      buffer(s -> s.sendDistribution(name, centroids, histogramGranularities, timestamp,
+          source(source), tags));
+    }
+  }
+
+  @Override
+  public void sendSpan(String name, long startMillis, long durationMillis,
+                       @Nullable String source, UUID traceId, UUID spanId,
+                       @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                       @Nullable List<Pair<String, String>> tags,
+                       @Nullable List<SpanLog> spanLogs) throws IOException {
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      sender.sendSpan(name, startMillis, durationMillis, source(source), traceId, spanId,
+          parents, followsFrom, tags, spanLogs);
+    } else {
+      buffer(s -> s.sendSpan(name, startMillis, durationMillis, source(source), traceId, spanId,
+          parents, followsFrom, tags, spanLogs));
+    }
+  }
+
+  /**
+   * A no-op until the sender is ready, the buffered calls are sent by {@link #ready}.
+   */
+  @Override
+  public void flush() throws IOException {
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      sender.flush();
+    }
+  }
+
+  @Override
+  public int getFailureCount() {
+    WavefrontSender sender = delegate;
+    return (int) droppedCalls.sum() + (sender == null ? 0 : sender.getFailureCount());
+  }
+
+  @Override
+  public void close() throws IOException {
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      sender.close();
+    } else {
+      discard();
+    }
+  }
+
+  /**
+   * Hand the buffered calls over to the given sender and forward every later call to it.
+   *
+   * @param sender the sender.
+   */
+  public void ready(WavefrontSender sender) {
+    ready(sender, null);
+  }
+
+  /**
+   * Hand the buffered calls over to the given sender and forward every later call to it, with
+   * the given source instead of {@link #DEFERRED_SOURCE}.
+   *
+   * @param sender the sender.
+   * @param source the source, {@code null} to keep {@link #DEFERRED_SOURCE}.
+   */
+  public void ready(WavefrontSender sender, @Nullable String source) {
+    Preconditions.checkNotNull(sender, "Invalid wavefrontSender");
+    // set before the delegate, the buffered calls are sent with it
+    this.source = source;
+    delegate = sender;
+    drain(sender);
+  }
+
+  /**
+   * Drop the buffered calls and every later call, e.g. when the sender can't be built. Ignored
+   * once the sender is ready.
+   */
+  public void discard() {
+    discarded = true;
+    int dropped = calls.size();
+    calls.clear();
+    droppedCalls.add(dropped);
+  }
+
+  /**
+   * @return the sender the calls are forwarded to, {@code null} until ready.
+   */
+  @Nullable
+  public WavefrontSender getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return number of points and spans dropped, because the buffer was full or the sender could
+   * not be built.
+   */
+  public long getDroppedCalls() {
+    return droppedCalls.sum();
+  }
+
+  @Nullable
+  private String source(@Nullable String source) {
+    String resolved = this.source;
+    return resolved != null && DEFERRED_SOURCE.equals(source) ? resolved : source;
+  }
+
+  private void buffer(Call call) throws IOException {
+    if (discarded) {
+      // counted, not thrown: the periodic reporters keep sending once the startup failed
+      droppedCalls.increment();
+      return;
+    }
+    if (!calls.offer(call)) {
+      droppedCalls.increment();
+      throw new IOException("Wavefront sender not ready, buffer full");
+    }
+    // the sender may have become ready after the call was buffered
+    WavefrontSender sender = delegate;
+    if (sender != null) {
+      drain(sender);
+    }
+  }
+
+  private void drain(WavefrontSender sender) {
+    Call call;
+    while ((call = calls.poll()) != null) {
+      try {
+        call.send(sender);
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to send buffered point", e);
+      }
+    }
+  }
+}
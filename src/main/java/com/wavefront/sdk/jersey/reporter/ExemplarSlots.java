@@ -0,0 +1,65 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.opentracing.SpanContext;
+
+/**
+ * Fixed number of exemplar slots for one latency histogram, one slot per power of two bucket
+ * (&le; 1ms, &le; 2ms, &le; 4ms, ... , &gt; 16s). The first request of an interval landing in a
+ * bucket claims its slot, the following ones only read the slot, so at most {@link #BUCKETS}
+ * exemplars are allocated per histogram and per interval.
+ */
+final class ExemplarSlots {
+
+  static final int BUCKETS = 16;
+
+  private final AtomicReferenceArray<Exemplar> slots = new AtomicReferenceArray<>(BUCKETS);
+
+  /**
+   * @return the bucket of the value if the request claimed its slot, -1 otherwise.
+   */
+  int offer(long value, SpanContext spanContext, long timestampMillis) {
+    int bucket = bucket(value);
+    if (slots.get(bucket) == null && slots.compareAndSet(bucket, null,
+        new Exemplar(spanContext.toTraceId(), spanContext.toSpanId(), value, timestampMillis))) {
+      return bucket;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the exemplar of the bucket, removing it from its slot, or {@code null}.
+   */
+  Exemplar poll(int bucket) {
+    return slots.getAndSet(bucket, null);
+  }
+
+  static int bucket(long value) {
+    if (value <= 1) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value - 1));
+  }
+
+  /**
+   * @return the upper bound of the bucket in milliseconds, {@code +Inf} for the last one.
+   */
+  static String upperBound(int bucket) {
+    return bucket == BUCKETS - 1 ? "+Inf" : Long.toString(1L << bucket);
+  }
+
+  static final class Exemplar {
+    final String traceId;
+    final String spanId;
+    final long value;
+    final long timestampMillis;
+
+    private Exemplar(String traceId, String spanId, long value, long timestampMillis) {
+      this.traceId = traceId;
+      this.spanId = spanId;
+      this.value = value;
+      this.timestampMillis = timestampMillis;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.reporting.CompositeReporter;
+import com.wavefront.opentracing.reporting.Reporter;
+import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Counts the spans a tracer hands over to a {@link WavefrontSpanReporter}. Combined with the
+ * spans the {@link InstrumentedWavefrontSender} actually sent and the spans the span reporter
+ * dropped this yields the number of spans still waiting in the span reporter's buffer.
+ *
+ * <p>Build the tracer on {@link #getTracerReporter()}: the span reporter is then part of a
+ * {@link CompositeReporter}, so the tracer still finds its sender to report the span-derived
+ * RED metrics and the tracing heartbeat.
+ */
+public class InstrumentedSpanReporter implements Reporter {
+
+  private final WavefrontSpanReporter spanReporter;
+  private final InstrumentedWavefrontSender wavefrontSender;
+  private final Reporter tracerReporter;
+  private final LongAdder spansReceived = new LongAdder();
+
+  public InstrumentedSpanReporter(WavefrontSpanReporter spanReporter,
+                                  InstrumentedWavefrontSender wavefrontSender) {
+    Preconditions.checkNotNull(spanReporter, "Invalid span reporter");
+    Preconditions.checkNotNull(wavefrontSender, "Invalid wavefrontSender");
+    this.spanReporter = spanReporter;
+    this.wavefrontSender = wavefrontSender;
+    this.tracerReporter = new CompositeReporter(this, spanReporter);
+  }
+
+  /**
+   * Only counts the span, the {@link CompositeReporter} of {@link #getTracerReporter()} reports
+   * it.
+   */
+  @Override
+  public void report(WavefrontSpan span) {
+    spansReceived.increment();
+  }
+
+  @Override
+  public int getFailureCount() {
+    return 0;
+  }
+
+  @Override
+  public void flush() {
+    // no-op, the span reporter is flushed by the composite reporter
+  }
+
+  @Override
+  public void close() {
+    // no-op, the span reporter is closed by the composite reporter
+  }
+
+  /**
+   * @return the reporter to build the tracer on: this reporter and the span reporter.
+   */
+  public Reporter getTracerReporter() {
+    return tracerReporter;
+  }
+
+  /**
+   * @return number of spans received but neither sent nor dropped yet.
+   */
+  public long getBufferOccupancy() {
+    // the failures of the span reporter are the spans dropped when its queue is full and the
+    // spans the sender failed to send, the latter are not subtracted twice
+    return Math.max(0, spansReceived.sum() - wavefrontSender.getSpansSent() -
+        Math.max(spanReporter.getFailureCount(), wavefrontSender.getSpansDropped()));
+  }
+}
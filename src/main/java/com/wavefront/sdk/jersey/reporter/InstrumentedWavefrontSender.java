@@ -0,0 +1,121 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * A {@link WavefrontSender} decorator that keeps track of how many points and spans the SDK hands
+ * to the underlying sender and how many of them were dropped. Bookkeeping is limited to
+ * {@link LongAdder} increments so it stays off the contended path.
+ */
+public class InstrumentedWavefrontSender implements WavefrontSender {
+
+  private final WavefrontSender delegate;
+  private final LongAdder pointsSent = new LongAdder();
+  private final LongAdder pointsDropped = new LongAdder();
+  private final LongAdder spansSent = new LongAdder();
+  private final LongAdder spansDropped = new LongAdder();
+
+  public InstrumentedWavefrontSender(WavefrontSender delegate) {
+    Preconditions.checkNotNull(delegate, "Invalid wavefrontSender");
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void sendMetric(String name, double value, @Nullable Long timestamp,
+                         @Nullable String source, @Nullable Map<String, String> tags)
+      throws IOException {
+    try {
+      delegate.sendMetric(name, value, timestamp, source, tags);
+      pointsSent.increment();
+    } catch (IOException | RuntimeException e) {
+      pointsDropped.increment();
+      throw e;
+    }
+  }
+
+  @Override
+  public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                               Set<HistogramGranularity> histogramGranularities,
+                               @Nullable Long timestamp, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    try {
+      delegate.sendDistribution(name, centroids, histogramGranularities, timestamp, source, tags);
+      pointsSent.increment();
+    } catch (IOException | RuntimeException e) {
+      pointsDropped.increment();
+      throw e;
+    }
+  }
+
+  @Override
+  public void sendSpan(String name, long startMillis, long durationMillis,
+                       @Nullable String source, UUID traceId, UUID spanId,
+                       @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                       @Nullable List<Pair<String, String>> tags,
+                       @Nullable List<SpanLog> spanLogs) throws IOException {
+    try {
+      delegate.sendSpan(name, startMillis, durationMillis, source, traceId, spanId, parents,
+          followsFrom, tags, spanLogs);
+      spansSent.increment();
+    } catch (IOException | RuntimeException e) {
+      spansDropped.increment();
+      throw e;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    delegate.flush();
+  }
+
+  @Override
+  public int getFailureCount() {
+    return delegate.getFailureCount();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  /**
+   * @return the sender being decorated.
+   */
+  public WavefrontSender getDelegate() {
+    return delegate;
+  }
+
+  public long getPointsSent() {
+    return pointsSent.sum();
+  }
+
+  /**
+   * @return points rejected by the sender when handed to it. The failures the sender counts on
+   * its own, including the asynchronous ones, are reported by {@link #getFailureCount()}.
+   */
+  public long getPointsDropped() {
+    return pointsDropped.sum();
+  }
+
+  public long getSpansSent() {
+    return spansSent.sum();
+  }
+
+  public long getSpansDropped() {
+    return spansDropped.sum();
+  }
+}
@@ -0,0 +1,200 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.COUNT_OFFSET;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.HEADER_SIZE;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.MAGIC;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.MAX_DATAGRAM_SIZE;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.SEQUENCE_OFFSET;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.VERSION;
+
+/**
+ * Ships the deltas of the delta counters of a {@link WavefrontJerseyReporter} to the
+ * {@link NodeAggregator} of the host. The deltas are summed in memory and sent once per
+ * reporting interval.
+ *
+ * <p>UDP gives no delivery guarantee. A datagram sent while the aggregator is not running is
+ * only reported, through an ICMP port unreachable error, by the next send: the deltas of the
+ * datagram which failed and of the previous datagram are then handed to the fallback to be
+ * reported directly. The datagrams dropped by a running aggregator, e.g. because its receive
+ * buffer is full, are lost; the aggregator counts them from the gaps of the sequence numbers.
+ */
+final class NodeAggregationClient implements Closeable {
+  private static final Logger logger = Logger.getLogger(NodeAggregationClient.class.getName());
+
+  private static final String SOURCE_TAG_KEY = "source";
+
+  interface Fallback {
+    void report(MetricName metricName, long delta);
+  }
+
+  private final String prefix;
+  private final String source;
+  private final Map<String, String> pointTags;
+  private final DatagramChannel channel;
+  private final Fallback fallback;
+  private final ConcurrentMap<MetricName, Delta> deltas = new ConcurrentHashMap<>();
+  private final Function<MetricName, Delta> newDelta = this::newDelta;
+  private final ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+  private List<Delta> datagramDeltas = new ArrayList<>();
+  private List<Long> datagramValues = new ArrayList<>();
+  // deltas of the last datagram sent, until the next send tells whether it was unreachable
+  private List<Delta> previousDeltas = new ArrayList<>();
+  private List<Long> previousValues = new ArrayList<>();
+  private int sequence;
+
+  /**
+   * @param prefix     prefix of the metric names, e.g. {@code jersey.server.}.
+   * @param source     source of the metrics without a {@code source} tag.
+   * @param pointTags  point tags added to every metric, e.g. the application.
+   * @param aggregator address of the node aggregator.
+   * @param fallback   reports the deltas which can't be sent to the aggregator.
+   * @throws IOException if the socket can't be opened.
+   */
+  NodeAggregationClient(String prefix, String source, Map<String, String> pointTags,
+                        InetSocketAddress aggregator, Fallback fallback) throws IOException {
+    this.prefix = prefix;
+    this.source = source;
+    this.pointTags = pointTags;
+    this.fallback = fallback;
+    // connected, so that an unreachable aggregator fails the next send
+    this.channel = DatagramChannel.open().connect(aggregator);
+  }
+
+  void add(MetricName metricName, long n) {
+    Delta delta = deltas.get(metricName);
+    if (delta == null) {
+      delta = deltas.computeIfAbsent(metricName, newDelta);
+    }
+    delta.value.addAndGet(n);
+  }
+
+  /**
+   * Send the deltas accumulated since the previous flush.
+   */
+  synchronized void flush() {
+    datagram.clear();
+    datagram.position(HEADER_SIZE);
+    for (Delta delta : deltas.values()) {
+      long value = delta.value.getAndSet(0);
+      if (value == 0) {
+        continue;
+      }
+      if (delta.series.length + Long.BYTES > MAX_DATAGRAM_SIZE - HEADER_SIZE) {
+        // never fits, too many or too long tags
+        fallback.report(delta.metricName, value);
+        continue;
+      }
+      if (datagram.remaining() < delta.series.length + Long.BYTES) {
+        send();
+      }
+      datagram.put(delta.series);
+      datagram.putLong(value);
+      datagramDeltas.add(delta);
+      datagramValues.add(value);
+    }
+    send();
+  }
+
+  private void send() {
+    if (datagramDeltas.isEmpty()) {
+      return;
+    }
+    datagram.putShort(0, MAGIC);
+    datagram.put(2, VERSION);
+    datagram.putInt(SEQUENCE_OFFSET, sequence);
+    datagram.putShort(COUNT_OFFSET, (short) datagramDeltas.size());
+    datagram.flip();
+    try {
+      channel.write(datagram);
+      sequence++;
+      // the previous datagram was not reported unreachable, keep this one until the next send
+      List<Delta> sentDeltas = datagramDeltas;
+      List<Long> sentValues = datagramValues;
+      datagramDeltas = previousDeltas;
+      datagramValues = previousValues;
+      previousDeltas = sentDeltas;
+      previousValues = sentValues;
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Unable to reach the node aggregator, reporting directly", e);
+      if (e instanceof PortUnreachableException) {
+        // the error is raised by the send following the unreachable datagram
+        reportDirectly(previousDeltas, previousValues);
+      }
+      reportDirectly(datagramDeltas, datagramValues);
+    }
+    datagramDeltas.clear();
+    datagramValues.clear();
+    datagram.clear();
+    datagram.position(HEADER_SIZE);
+  }
+
+  private void reportDirectly(List<Delta> deltas, List<Long> values) {
+    for (int i = 0; i < deltas.size(); i++) {
+      fallback.report(deltas.get(i).metricName, values.get(i));
+    }
+    deltas.clear();
+    values.clear();
+  }
+
+  private Delta newDelta(MetricName metricName) {
+    Map<String, String> tags = new HashMap<>(pointTags);
+    tags.putAll(metricName.getTags());
+    String seriesSource = tags.remove(SOURCE_TAG_KEY);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeUTF(prefix + metricName.getKey());
+      out.writeUTF(seriesSource == null ? source : seriesSource);
+      out.writeByte(Math.min(tags.size(), 255));
+      int count = 0;
+      for (Map.Entry<String, String> tag : tags.entrySet()) {
+        if (count++ == 255) {
+          break;
+        }
+        out.writeUTF(tag.getKey());
+        out.writeUTF(tag.getValue());
+      }
+    } catch (IOException e) {
+      // not thrown by a ByteArrayOutputStream
+      throw new IllegalStateException(e);
+    }
+    return new Delta(metricName, bytes.toByteArray());
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static final class Delta {
+    private final MetricName metricName;
+    // encoded name, source and tags
+    private final byte[] series;
+    private final AtomicLong value = new AtomicLong();
+
+    private Delta(MetricName metricName, byte[] series) {
+      this.metricName = metricName;
+      this.series = series;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Datagrams exchanged between the {@link WavefrontJerseyReporter}s of a host and the
+ * {@link NodeAggregator}. A datagram holds the deltas of a batch of delta counters:
+ *
+ * <pre>
+ * magic (short) version (byte) sequence (int) count (short)
+ * count x [ name (UTF) source (UTF) tagCount (byte) tagCount x [ key (UTF) value (UTF) ]
+ *           delta (long) ]
+ * </pre>
+ *
+ * The sequence number is incremented by every datagram a reporter sends, so the aggregator
+ * counts the datagrams lost in between.
+ */
+final class NodeAggregationProtocol {
+
+  static final short MAGIC = 0x5746;
+  static final byte VERSION = 2;
+  // fits the loopback MTU of common systems, never fragmented
+  static final int MAX_DATAGRAM_SIZE = 8192;
+  static final int HEADER_SIZE = 9;
+  static final int SEQUENCE_OFFSET = 3;
+  static final int COUNT_OFFSET = 7;
+  /**
+   * Prefix of the name of the delta counters, see {@code DeltaCounter}.
+   */
+  static final String DELTA_PREFIX = "\u2206";
+
+  private NodeAggregationProtocol() {
+  }
+
+  /**
+   * Delta counter series: full name, source and point tags.
+   */
+  static final class Series {
+    final String name;
+    final String source;
+    final Map<String, String> tags;
+    private final int hashCode;
+
+    Series(String name, String source, Map<String, String> tags) {
+      this.name = name;
+      this.source = source;
+      this.tags = tags;
+      this.hashCode = Objects.hash(name, source, tags);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Series)) {
+        return false;
+      }
+      Series series = (Series) o;
+      return name.equals(series.name) && source.equals(series.source) &&
+          tags.equals(series.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  interface DeltaConsumer {
+    void accept(Series series, long delta);
+  }
+
+  /**
+   * Decode a datagram.
+   *
+   * @param datagram the datagram.
+   * @param length   length of the datagram.
+   * @param consumer receives every delta of the datagram.
+   * @return the sequence number of the datagram.
+   * @throws IOException if the datagram is not valid.
+   */
+  static int decode(byte[] datagram, int length, DeltaConsumer consumer) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(datagram, 0, length));
+    if (in.readShort() != MAGIC || in.readByte() != VERSION) {
+      throw new IOException("Unknown datagram");
+    }
+    int sequence = in.readInt();
+    int count = in.readUnsignedShort();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      String source = in.readUTF();
+      int tagCount = in.readUnsignedByte();
+      Map<String, String> tags = new HashMap<>(tagCount * 2);
+      for (int j = 0; j < tagCount; j++) {
+        tags.put(in.readUTF(), in.readUTF());
+      }
+      consumer.accept(new Series(name, source, tags), in.readLong());
+    }
+    return sequence;
+  }
+}
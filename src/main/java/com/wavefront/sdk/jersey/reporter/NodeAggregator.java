@@ -0,0 +1,274 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.config.WavefrontReportingConfig;
+import com.wavefront.sdk.common.WavefrontSender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+import static com.wavefront.config.ReportingUtils.constructWavefrontReportingConfig;
+import static com.wavefront.config.ReportingUtils.constructWavefrontSender;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.DELTA_PREFIX;
+import static com.wavefront.sdk.jersey.reporter.NodeAggregationProtocol.MAX_DATAGRAM_SIZE;
+
+/**
+ * Node-local aggregator of the delta counters of the {@link WavefrontJerseyReporter}s running
+ * on the same host (see {@link WavefrontJerseyReporter.Builder#withNodeAggregator(int)}). The
+ * reporters send the deltas of their shard, cluster and application aggregates to the
+ * aggregator over the loopback interface; the aggregator sums the deltas of every series across
+ * processes and forwards each series once per flush interval, instead of once per process.
+ *
+ * <p>Run it as a process of its own:
+ *
+ * <pre>
+ * java -cp wavefront-jersey-sdk-java.jar com.wavefront.sdk.jersey.reporter.NodeAggregator \
+ *     wf-reporting-config.yaml [port]
+ * </pre>
+ *
+ * or in-process, e.g. in tests, with {@link Builder}.
+ *
+ * <p>The datagrams a reporter sends are numbered, the datagrams lost on the way (e.g. dropped
+ * because the receive buffer of the aggregator is full) are counted from the gaps and forwarded
+ * as the {@code jersey.node_aggregator.lost_datagrams} delta counter.
+ */
+public class NodeAggregator implements Closeable {
+  private static final Logger logger = Logger.getLogger(NodeAggregator.class.getName());
+
+  public static final int DEFAULT_PORT = 50505;
+  private static final String LOST_DATAGRAMS = "jersey.node_aggregator.lost_datagrams";
+  private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+  // bounds the sequences kept for reporters which stopped
+  private static final int MAX_TRACKED_SENDERS = 10_000;
+
+  private final WavefrontSender wavefrontSender;
+  private final DatagramChannel channel;
+  private final ConcurrentMap<NodeAggregationProtocol.Series, AtomicLong> deltas =
+      new ConcurrentHashMap<>();
+  // sender address -> sequence number of its last datagram, only accessed by the receiver
+  private final Map<SocketAddress, Integer> sequences = new HashMap<>();
+  private final AtomicLong receivedDatagrams = new AtomicLong();
+  private final AtomicLong lostDatagrams = new AtomicLong();
+  private final AtomicLong unreportedLostDatagrams = new AtomicLong();
+  private final String source;
+  private final Thread receiver;
+  private final ScheduledExecutorService scheduler;
+
+  private NodeAggregator(WavefrontSender wavefrontSender, int port, int flushIntervalSeconds)
+      throws IOException {
+    Preconditions.checkNotNull(wavefrontSender, "Invalid wavefrontSender");
+    Preconditions.checkArgument(port >= 0, "Invalid port");
+    Preconditions.checkArgument(flushIntervalSeconds > 0, "Invalid flushIntervalSeconds");
+    this.wavefrontSender = wavefrontSender;
+    this.source = localHostName();
+    this.channel = DatagramChannel.open().
+        setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE).
+        bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    this.receiver = new Thread(this::receive, "wavefront-jersey-node-aggregator");
+    receiver.setDaemon(true);
+    receiver.start();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wavefront-jersey-node-aggregator-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this::flush, flushIntervalSeconds, flushIntervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  public static final class Builder {
+    private final WavefrontSender wavefrontSender;
+    private int port = DEFAULT_PORT;
+    private int flushIntervalSeconds = 60;
+
+    /**
+     * @param wavefrontSender sender forwarding the aggregated deltas to Wavefront.
+     */
+    public Builder(WavefrontSender wavefrontSender) {
+      this.wavefrontSender = wavefrontSender;
+    }
+
+    /**
+     * @param port loopback port to listen on, 0 for any free port, defaults to
+     *             {@link #DEFAULT_PORT}.
+     * @return {@code this}.
+     */
+    public Builder port(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * @param flushIntervalSeconds how often the aggregated deltas are forwarded, defaults to 60.
+     * @return {@code this}.
+     */
+    public Builder flushIntervalSeconds(int flushIntervalSeconds) {
+      this.flushIntervalSeconds = flushIntervalSeconds;
+      return this;
+    }
+
+    /**
+     * Build and start the aggregator.
+     *
+     * @return the aggregator.
+     * @throws IOException if the port can't be bound.
+     */
+    public NodeAggregator build() throws IOException {
+      return new NodeAggregator(wavefrontSender, port, flushIntervalSeconds);
+    }
+  }
+
+  /**
+   * @return the loopback port the aggregator listens on.
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+
+  /**
+   * @return number of valid datagrams received since the aggregator started.
+   */
+  public long getReceivedDatagrams() {
+    return receivedDatagrams.get();
+  }
+
+  /**
+   * @return number of datagrams lost between the reporters and the aggregator since it started.
+   */
+  public long getLostDatagrams() {
+    return lostDatagrams.get();
+  }
+
+  private void receive() {
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    while (channel.isOpen()) {
+      try {
+        buffer.clear();
+        SocketAddress sender = channel.receive(buffer);
+        int sequence = NodeAggregationProtocol.decode(buffer.array(), buffer.position(),
+            this::add);
+        trackSequence(sender, sequence);
+        receivedDatagrams.incrementAndGet();
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Invalid datagram", e);
+      }
+    }
+  }
+
+  private void trackSequence(SocketAddress sender, int sequence) {
+    if (sequences.size() >= MAX_TRACKED_SENDERS && !sequences.containsKey(sender)) {
+      sequences.clear();
+    }
+    Integer previous = sequences.put(sender, sequence);
+    // a negative gap is a reordered datagram or a new reporter reusing the port
+    int gap = previous == null ? 0 : sequence - previous - 1;
+    if (gap > 0) {
+      lostDatagrams.addAndGet(gap);
+      unreportedLostDatagrams.addAndGet(gap);
+    }
+  }
+
+  private void add(NodeAggregationProtocol.Series series, long delta) {
+    AtomicLong value = deltas.get(series);
+    if (value == null) {
+      value = deltas.computeIfAbsent(series, key -> new AtomicLong());
+    }
+    value.addAndGet(delta);
+  }
+
+  /**
+   * Forward the deltas received since the previous flush.
+   */
+  public void flush() {
+    long timestamp = System.currentTimeMillis();
+    for (Map.Entry<NodeAggregationProtocol.Series, AtomicLong> entry : deltas.entrySet()) {
+      long value = entry.getValue().getAndSet(0);
+      if (value == 0) {
+        continue;
+      }
+      NodeAggregationProtocol.Series series = entry.getKey();
+      try {
+        wavefrontSender.sendMetric(DELTA_PREFIX + series.name, value, timestamp, series.source,
+            series.tags);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to send " + series.name, e);
+      }
+    }
+    long lost = unreportedLostDatagrams.getAndSet(0);
+    if (lost > 0) {
+      logger.log(Level.WARNING, lost + " datagrams of the reporters were lost since the " +
+          "previous flush");
+      try {
+        wavefrontSender.sendMetric(DELTA_PREFIX + LOST_DATAGRAMS, lost, timestamp, source,
+            Collections.emptyMap());
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to send " + LOST_DATAGRAMS, e);
+      }
+    }
+  }
+
+  private static String localHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "unknown";
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    scheduler.shutdownNow();
+    channel.close();
+    flush();
+    wavefrontSender.flush();
+  }
+
+  /**
+   * Run the aggregator until the JVM is stopped.
+   *
+   * @param args path of the Wavefront reporting configuration and, optionally, the port.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: NodeAggregator <wf-reporting-config.yaml> [port]");
+      System.exit(1);
+    }
+    WavefrontReportingConfig wfReportingConfig = constructWavefrontReportingConfig(args[0]);
+    WavefrontSender wavefrontSender = constructWavefrontSender(wfReportingConfig);
+    NodeAggregator aggregator = new Builder(wavefrontSender).
+        port(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT).build();
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        aggregator.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to flush the node aggregator", e);
+      }
+      stopped.countDown();
+    }));
+    stopped.await();
+  }
+}
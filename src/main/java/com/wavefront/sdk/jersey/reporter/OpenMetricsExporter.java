@@ -0,0 +1,257 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Counter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Snapshot;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.WavefrontHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jersey.repackaged.com.google.common.base.Preconditions;
+
+/**
+ * Writes the metrics recorded by a {@link WavefrontJerseyReporter} in the OpenMetrics text
+ * format, so the same registry can be scraped (pull) and reported to Wavefront (push) without
+ * recording anything twice.
+ *
+ * <p>Counters are exposed as counters, gauges as gauges and histograms as summaries of the
+ * current minute bins (quantiles only). Delta counters ({@code *.aggregated_per_*}) are reset
+ * every time they are reported to Wavefront and are not exposed, the scraper aggregates the
+ * per source series instead.
+ *
+ * <p>The series names and labels are encoded once per series and cached, a scrape only encodes
+ * the values and streams them to the output. Metrics whose names collide once sanitized, e.g.
+ * {@code a.b} and {@code a_b}, with a different type or the same labels, are kept apart: the
+ * metric exposed last gets a suffix, e.g. {@code jersey_server_a_b_gauge}.
+ */
+public class OpenMetricsExporter {
+  private static final Logger logger = Logger.getLogger(OpenMetricsExporter.class.getName());
+
+  public static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  private static final String NAME_PREFIX = "jersey_server_";
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+  private static final byte[][] QUANTILE_LABELS = new byte[QUANTILES.length][];
+  private static final byte[] EOF = "# EOF\n".getBytes(StandardCharsets.UTF_8);
+
+  static {
+    for (int i = 0; i < QUANTILES.length; i++) {
+      QUANTILE_LABELS[i] = ("quantile=\"" + QUANTILES[i] + "\"").
+          getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private final WavefrontJerseyReporter reporter;
+  // by type, a counter and a gauge may share the same metric name
+  private final Map<Type, ConcurrentMap<MetricName, Series>> series = new EnumMap<>(Type.class);
+  // guarded by itself, only updated when a series is first exposed
+  private final Map<String, Type> familyTypes = new HashMap<>();
+  private final Set<String> sampleNames = new HashSet<>();
+
+  public OpenMetricsExporter(WavefrontJerseyReporter reporter) {
+    Preconditions.checkNotNull(reporter, "Invalid WavefrontJerseyReporter");
+    this.reporter = reporter;
+    for (Type type : Type.values()) {
+      series.put(type, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Write all the metrics to the given stream, which is neither flushed nor closed.
+   *
+   * @param out stream to write to, buffering is up to the caller.
+   * @throws IOException if writing to the stream fails.
+   */
+  public void write(OutputStream out) throws IOException {
+    // families must be contiguous, only the references to the cached series are grouped
+    Map<String, List<Series>> families = new TreeMap<>();
+    group(families, reporter.getCounters(), Type.COUNTER);
+    group(families, reporter.getGauges(), Type.GAUGE);
+    group(families, reporter.getHistograms(), Type.SUMMARY);
+    for (List<Series> family : families.values()) {
+      out.write(family.get(0).typeLine);
+      for (Series entry : family) {
+        entry.write(out);
+      }
+    }
+    out.write(EOF);
+  }
+
+  private void group(Map<String, List<Series>> families, Map<MetricName, ?> handles, Type type) {
+    ConcurrentMap<MetricName, Series> cache = series.get(type);
+    for (Map.Entry<MetricName, ?> handle : handles.entrySet()) {
+      Series entry = cache.get(handle.getKey());
+      if (entry == null) {
+        entry = cache.computeIfAbsent(handle.getKey(), metricName -> newSeries(metricName,
+            type, handle.getValue()));
+      }
+      families.computeIfAbsent(entry.family, family -> new ArrayList<>()).add(entry);
+    }
+  }
+
+  private Series newSeries(MetricName metricName, Type type, Object handle) {
+    String labels = labels(metricName, reporter.getReporterPointTags());
+    String name = NAME_PREFIX + sanitize(metricName.getKey());
+    synchronized (familyTypes) {
+      String family = name;
+      for (int i = 1; !claim(family, type, labels); i++) {
+        family = name + "_" + type.value + (i == 1 ? "" : "_" + i);
+      }
+      if (!family.equals(name)) {
+        logger.log(Level.WARNING, metricName.getKey() + " exposed as " + family + ", " + name +
+            " is already taken by another metric");
+      }
+      return new Series(family, type, handle, labels);
+    }
+  }
+
+  /**
+   * Claim the family name for the given type and the sample name for the labels, unless taken
+   * by a family of another type or a sample with the same labels.
+   */
+  private boolean claim(String family, Type type, String labels) {
+    Type familyType = familyTypes.get(family);
+    if (familyType != null && familyType != type) {
+      return false;
+    }
+    if (familyType == null) {
+      // the samples of a counter family are named <family>_total
+      if (type == Type.COUNTER && familyTypes.containsKey(family + "_total")) {
+        return false;
+      }
+      if (family.endsWith("_total") && familyTypes.get(family.substring(0,
+          family.length() - "_total".length())) == Type.COUNTER) {
+        return false;
+      }
+    }
+    String sampleName = Series.sampleName(family, type) + labels;
+    if (!sampleNames.add(sampleName)) {
+      return false;
+    }
+    familyTypes.put(family, type);
+    return true;
+  }
+
+  private static String labels(MetricName metricName, Map<String, String> pointTags) {
+    StringBuilder labels = new StringBuilder("{");
+    Map<String, String> tags = new TreeMap<>(pointTags);
+    tags.putAll(metricName.getTags());
+    boolean first = true;
+    for (Map.Entry<String, String> label : tags.entrySet()) {
+      if (!first) {
+        labels.append(',');
+      }
+      first = false;
+      labels.append(sanitize(label.getKey())).append("=\"");
+      appendEscaped(labels, label.getValue());
+      labels.append('"');
+    }
+    return labels.toString();
+  }
+
+  private enum Type {
+    COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+    private final String value;
+
+    Type(String value) {
+      this.value = value;
+    }
+  }
+
+  private static final class Series {
+    private final String family;
+    private final Type type;
+    private final byte[] typeLine;
+    // e.g. "jersey_server_response_inventory_GET_200_total_time_total{application=\"...\""
+    private final byte[] samplePrefix;
+    private final Object handle;
+
+    private Series(String family, Type type, Object handle, String labels) {
+      this.family = family;
+      this.type = type;
+      this.handle = handle;
+      this.typeLine = ("# TYPE " + family + " " + type.value + "\n").
+          getBytes(StandardCharsets.UTF_8);
+      this.samplePrefix = (sampleName(family, type) + labels).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sampleName(String family, Type type) {
+      return type == Type.COUNTER ? family + "_total" : family;
+    }
+
+    private void write(OutputStream out) throws IOException {
+      switch (type) {
+        case COUNTER:
+          writeSample(out, null, Long.toString(((Counter) handle).getCount()));
+          break;
+        case GAUGE:
+          writeSample(out, null, Integer.toString(((AtomicInteger) handle).get()));
+          break;
+        case SUMMARY:
+          Snapshot snapshot = ((WavefrontHistogram) handle).getSnapshot();
+          for (int i = 0; i < QUANTILES.length; i++) {
+            writeSample(out, QUANTILE_LABELS[i],
+                Double.toString(snapshot.getValue(QUANTILES[i])));
+          }
+          break;
+      }
+    }
+
+    private void writeSample(OutputStream out, byte[] extraLabel, String value)
+        throws IOException {
+      out.write(samplePrefix);
+      if (extraLabel != null) {
+        // samplePrefix ends with '{' when there are no labels
+        if (samplePrefix[samplePrefix.length - 1] != '{') {
+          out.write(',');
+        }
+        out.write(extraLabel);
+      }
+      out.write('}');
+      out.write(' ');
+      out.write(value.getBytes(StandardCharsets.US_ASCII));
+      out.write('\n');
+    }
+  }
+
+  private static String sanitize(String name) {
+    StringBuilder sanitized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' ||
+          (i > 0 && c >= '0' && c <= '9');
+      sanitized.append(valid ? c : '_');
+    }
+    return sanitized.toString();
+  }
+
+  private static void appendEscaped(StringBuilder text, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        text.append('\\').append(c);
+      } else if (c == '\n') {
+        text.append("\\n");
+      } else {
+        text.append(c);
+      }
+    }
+  }
+}
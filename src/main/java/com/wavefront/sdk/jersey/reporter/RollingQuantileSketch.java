@@ -0,0 +1,143 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, fixed size latency histogram over a rolling time window, used to answer quantile
+ * and error rate queries in-process.
+ *
+ * <p>The window is split in {@code windows} sub-windows of {@code windowMillis} each. Every
+ * sub-window holds log-linear latency buckets (16 linear sub-buckets per power of two, i.e. at
+ * most ~6% relative error, values up to 2^32) plus a request and an error count. Recording is
+ * a couple of atomic increments; a sub-window is recycled by the first writer that observes it
+ * is stale. Reads never block writers: they sum the live sub-windows, weighting older ones less
+ * ({@code decay^age}) so the estimate favours recent traffic.
+ */
+class RollingQuantileSketch {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+  private static final int BUCKETS = SUB_BUCKETS + (32 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+  // per sub-window: BUCKETS latency buckets, then the request count and the error count
+  private static final int COUNT_INDEX = BUCKETS;
+  private static final int ERRORS_INDEX = BUCKETS + 1;
+  private static final int STRIDE = BUCKETS + 2;
+
+  private final int windows;
+  private final long windowMillis;
+  private final double decay;
+  private final AtomicLongArray counts;
+  private final AtomicLongArray windowIds;
+
+  RollingQuantileSketch(int windows, long windowMillis, double decay) {
+    this.windows = windows;
+    this.windowMillis = windowMillis;
+    this.decay = decay;
+    this.counts = new AtomicLongArray(windows * STRIDE);
+    this.windowIds = new AtomicLongArray(windows);
+    for (int i = 0; i < windows; i++) {
+      windowIds.set(i, -1);
+    }
+  }
+
+  void record(long value, boolean error, long nowMillis) {
+    long windowId = nowMillis / windowMillis;
+    int window = (int) (windowId % windows);
+    long current = windowIds.get(window);
+    if (current != windowId) {
+      if (current < windowId && windowIds.compareAndSet(window, current, windowId)) {
+        int offset = window * STRIDE;
+        for (int i = 0; i < STRIDE; i++) {
+          counts.set(offset + i, 0);
+        }
+      } else if (windowIds.get(window) != windowId) {
+        // late write for a window that was already recycled
+        return;
+      }
+    }
+    int offset = window * STRIDE;
+    counts.incrementAndGet(offset + bucket(Math.max(0, value)));
+    counts.incrementAndGet(offset + COUNT_INDEX);
+    if (error) {
+      counts.incrementAndGet(offset + ERRORS_INDEX);
+    }
+  }
+
+  /**
+   * Compute the decayed quantiles of the window without allocating.
+   *
+   * @param quantiles quantiles to compute, e.g. {@code 0.5, 0.99}.
+   * @param scratch   reusable array of {@link #scratchSize()} elements, holds the decayed
+   *                  request and error counts on return, see {@link #count} and {@link #errors}.
+   * @param values    receives the value for each quantile.
+   * @param nowMillis current time in milliseconds.
+   */
+  void snapshot(double[] quantiles, double[] scratch, long[] values, long nowMillis) {
+    long currentWindowId = nowMillis / windowMillis;
+    Arrays.fill(scratch, 0, STRIDE, 0);
+    for (int window = 0; window < windows; window++) {
+      long age = currentWindowId - windowIds.get(window);
+      if (age < 0 || age >= windows) {
+        continue;
+      }
+      double weight = Math.pow(decay, age);
+      int offset = window * STRIDE;
+      for (int i = 0; i < STRIDE; i++) {
+        long count = counts.get(offset + i);
+        if (count != 0) {
+          scratch[i] += count * weight;
+        }
+      }
+    }
+    double total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += scratch[i];
+    }
+    for (int q = 0; q < quantiles.length; q++) {
+      values[q] = total == 0 ? 0 : valueAt(scratch, total * quantiles[q]);
+    }
+  }
+
+  static int scratchSize() {
+    return STRIDE;
+  }
+
+  static double count(double[] scratch) {
+    return scratch[COUNT_INDEX];
+  }
+
+  static double errors(double[] scratch) {
+    return scratch[ERRORS_INDEX];
+  }
+
+  private static long valueAt(double[] buckets, double rank) {
+    double seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i];
+      if (seen >= rank && buckets[i] > 0) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+    int subBucket = (int) (value >>> exponent) - HALF_SUB_BUCKETS;
+    return Math.min(BUCKETS - 1, SUB_BUCKETS + (exponent - 1) * HALF_SUB_BUCKETS + subBucket);
+  }
+
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+    int subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+    return ((long) (subBucket + 1) << exponent) - 1;
+  }
+}
@@ -0,0 +1,67 @@
+package com.wavefront.sdk.jersey.reporter;
+
+/**
+ * Immutable, time-decayed view of the latency and error rate of a route, computed in-process
+ * from the last few seconds of traffic. Meant for autoscaling, load shedding and SLO decisions
+ * which cannot wait for a round trip through Wavefront.
+ */
+public final class RouteSnapshot {
+
+  static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final String route;
+  private final double requestCount;
+  private final double errorRate;
+  private final long p50Millis;
+  private final long p90Millis;
+  private final long p99Millis;
+  private final long p999Millis;
+
+  RouteSnapshot(String route, double requestCount, double errorCount, long[] quantileValues) {
+    this.route = route;
+    this.requestCount = requestCount;
+    this.errorRate = requestCount == 0 ? 0 : errorCount / requestCount;
+    this.p50Millis = quantileValues[0];
+    this.p90Millis = quantileValues[1];
+    this.p99Millis = quantileValues[2];
+    this.p999Millis = quantileValues[3];
+  }
+
+  /**
+   * @return the route, i.e. the metric name of the API without the status code, e.g.
+   * {@code api.v2.alert.summary.GET}.
+   */
+  public String getRoute() {
+    return route;
+  }
+
+  /**
+   * @return number of requests in the window, older requests being weighted less.
+   */
+  public double getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * @return ratio of 4xx/5xx responses in the window, between 0 and 1.
+   */
+  public double getErrorRate() {
+    return errorRate;
+  }
+
+  public long getP50Millis() {
+    return p50Millis;
+  }
+
+  public long getP90Millis() {
+    return p90Millis;
+  }
+
+  public long getP99Millis() {
+    return p99Millis;
+  }
+
+  public long getP999Millis() {
+    return p999Millis;
+  }
+}
@@ -2,23 +2,39 @@ package com.wavefront.sdk.jersey.reporter;
 
 import com.wavefront.internal.reporter.SdkReporter;
 import com.wavefront.internal.reporter.WavefrontInternalReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Counter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.DeltaCounter;
 import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.WavefrontHistogram;
 import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.application.ApplicationTags;
 import com.wavefront.sdk.common.application.HeartbeaterService;
 import com.wavefront.sdk.entities.metrics.WavefrontMetricSender;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
+import io.opentracing.Span;
 import jersey.repackaged.com.google.common.base.Preconditions;
 
 import static com.wavefront.sdk.common.Constants.APPLICATION_TAG_KEY;
@@ -32,11 +48,72 @@ import static com.wavefront.sdk.jersey.Constants.JERSEY_SERVER_COMPONENT;
  * @author Sushant Dewan (sushant@wavefront.com).
  */
 public class WavefrontJerseyReporter implements SdkReporter {
+  private static final Logger logger = Logger.getLogger(WavefrontJerseyReporter.class.getName());
+  /**
+   * Logs the trace and span of every exemplar at FINE level, they are not sent as point tags.
+   */
+  private static final Logger exemplarLogger = Logger.getLogger(
+      WavefrontJerseyReporter.class.getPackage().getName() + ".exemplars");
+
+  private static final String PREFIX = "jersey.server";
+
+  /**
+   * Tag of the span of an exemplar, the name of the latency histogram.
+   */
+  public static final String EXEMPLAR_TAG = "exemplar";
+  /**
+   * Tag of the span of an exemplar, the upper bound of its bucket, same as the exemplar point.
+   */
+  public static final String LE_TAG = "le";
+
+  /**
+   * Sub-windows of the route snapshot window, each one is weighted
+   * {@code ROUTE_SNAPSHOT_DECAY} times less than the next one.
+   */
+  private static final int ROUTE_SNAPSHOT_SUB_WINDOWS = 6;
+  private static final double ROUTE_SNAPSHOT_DECAY = 0.75;
 
   private final WavefrontInternalReporter wfReporter;
   private final WavefrontInternalReporter sdkMetricsReporter;
   private final int reportingIntervalSeconds;
+  @Nullable
   private final HeartbeaterService heartbeaterService;
+  private final ConcurrentMap<MetricName, Counter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, DeltaCounter> deltaCounters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, WavefrontHistogram> histograms =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, AtomicInteger> gauges = new ConcurrentHashMap<>();
+  private final Map<String, String> reporterPointTags;
+  private final WavefrontMetricSender wavefrontMetricSender;
+  private final String source;
+  private final boolean reportExemplars;
+  private final ConcurrentMap<MetricName, ExemplarSlots> exemplars = new ConcurrentHashMap<>();
+  @Nullable
+  private ScheduledExecutorService executor;
+  // shared scheduler of the runtime, not owned by the reporter
+  @Nullable
+  private final ScheduledExecutorService scheduler;
+  @Nullable
+  private ScheduledFuture<?> reportTask;
+  @Nullable
+  private ScheduledFuture<?> sdkMetricsTask;
+  @Nullable
+  private ScheduledFuture<?> exemplarTask;
+  @Nullable
+  private final NodeAggregationClient nodeAggregationClient;
+  @Nullable
+  private ScheduledFuture<?> nodeAggregationTask;
+  @Nullable
+  private final WavefrontHistogram filterOverheadNanos;
+  private final ConcurrentMap<String, RollingQuantileSketch> routeSketches =
+      new ConcurrentHashMap<>();
+  private final long routeSnapshotWindowMillis;
+  private final Function<String, RollingQuantileSketch> newRouteSketch;
+  private final ThreadLocal<SnapshotScratch> snapshotScratch =
+      ThreadLocal.withInitial(SnapshotScratch::new);
+  // reports of the metrics to the sender, by the scheduler or on stop
+  private final AtomicLong flushes = new AtomicLong();
+  private volatile long lastFlushDurationNanos;
 
   @Deprecated
   private WavefrontJerseyReporter(WavefrontInternalReporter wfReporter,
@@ -45,7 +122,7 @@ public class WavefrontJerseyReporter implements SdkReporter {
                                   ApplicationTags applicationTags,
                                   String source) {
     this(wfReporter, reportingIntervalSeconds, wavefrontMetricSender, applicationTags, source,
-        null);
+        null, 0, false, true, null, null);
   }
 
   private WavefrontJerseyReporter(WavefrontInternalReporter wfReporter,
@@ -53,52 +130,346 @@ public class WavefrontJerseyReporter implements SdkReporter {
                                   WavefrontMetricSender wavefrontMetricSender,
                                   ApplicationTags applicationTags,
                                   String source,
-                                  WavefrontInternalReporter sdkMetricsReporter) {
+                                  WavefrontInternalReporter sdkMetricsReporter,
+                                  long routeSnapshotWindowMillis,
+                                  boolean reportExemplars,
+                                  boolean reportHeartbeats,
+                                  @Nullable ScheduledExecutorService scheduler,
+                                  @Nullable InetSocketAddress nodeAggregator) {
     Preconditions.checkNotNull(wfReporter, "Invalid wfReporter");
     Preconditions.checkNotNull(wavefrontMetricSender, "Invalid wavefrontSender");
     Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
     this.wfReporter = wfReporter;
     this.reportingIntervalSeconds = reportingIntervalSeconds;
     this.sdkMetricsReporter = sdkMetricsReporter;
-    heartbeaterService = new HeartbeaterService(wavefrontMetricSender, applicationTags,
-        Collections.singletonList(JERSEY_SERVER_COMPONENT), source);
+    this.routeSnapshotWindowMillis = routeSnapshotWindowMillis;
+    this.reporterPointTags = Collections.unmodifiableMap(pointTags(applicationTags));
+    this.wavefrontMetricSender = wavefrontMetricSender;
+    this.source = source;
+    this.reportExemplars = reportExemplars;
+    this.scheduler = scheduler;
+    this.nodeAggregationClient = nodeAggregator == null ? null :
+        nodeAggregationClient(nodeAggregator);
+    long subWindowMillis = Math.max(1, routeSnapshotWindowMillis / ROUTE_SNAPSHOT_SUB_WINDOWS);
+    this.newRouteSketch = route -> new RollingQuantileSketch(ROUTE_SNAPSHOT_SUB_WINDOWS,
+        subWindowMillis, ROUTE_SNAPSHOT_DECAY);
+    heartbeaterService = reportHeartbeats ? new HeartbeaterService(wavefrontMetricSender,
+        applicationTags, Collections.singletonList(JERSEY_SERVER_COMPONENT), source) : null;
+    if (sdkMetricsReporter != null) {
+      /*
+       * SDK self metrics
+       * 1) ~sdk.java.jersey.filter.overhead_ns (WavefrontHistogram, sampled)
+       * 2) ~sdk.java.jersey.registered_series (Gauge)
+       * 3) ~sdk.java.jersey.points.sent / points.dropped / sender.failures (Gauge)
+       * 4) ~sdk.java.jersey.flush.count / flush.duration_ns (Gauge)
+       */
+      filterOverheadNanos = sdkMetricsReporter.newWavefrontHistogram(
+          new MetricName("filter.overhead_ns", Collections.emptyMap()));
+      sdkMetricsReporter.newGauge(new MetricName("registered_series", Collections.emptyMap()),
+          () -> (() -> (double) getRegisteredSeriesCount()));
+      sdkMetricsReporter.newGauge(new MetricName("flush.count", Collections.emptyMap()),
+          () -> (() -> (double) flushes.get()));
+      sdkMetricsReporter.newGauge(new MetricName("flush.duration_ns", Collections.emptyMap()),
+          () -> (() -> (double) lastFlushDurationNanos));
+      if (wavefrontMetricSender instanceof InstrumentedWavefrontSender) {
+        InstrumentedWavefrontSender sender = (InstrumentedWavefrontSender) wavefrontMetricSender;
+        sdkMetricsReporter.newGauge(new MetricName("points.sent", Collections.emptyMap()),
+            () -> (() -> (double) sender.getPointsSent()));
+        sdkMetricsReporter.newGauge(new MetricName("points.dropped", Collections.emptyMap()),
+            () -> (() -> (double) sender.getPointsDropped()));
+        // asynchronous failures of the sender (e.g. of its flush thread) included
+        sdkMetricsReporter.newGauge(new MetricName("sender.failures", Collections.emptyMap()),
+            () -> (() -> (double) sender.getFailureCount()));
+      }
+    } else {
+      filterOverheadNanos = null;
+    }
   }
 
   @Override
   public void incrementCounter(MetricName metricName) {
-    wfReporter.newCounter(metricName).inc();
+    getOrCreate(counters, metricName, wfReporter::newCounter).inc();
   }
 
   @Override
   public void incrementCounter(MetricName metricName, long n) {
-    wfReporter.newCounter(metricName).inc(n);
+    getOrCreate(counters, metricName, wfReporter::newCounter).inc(n);
+  }
+
+  /**
+   * Returns the counter of the given name, registering it if needed, so hot paths can keep it
+   * and increment it without looking it up on every request.
+   *
+   * @param metricName name of the counter.
+   * @return the counter.
+   */
+  public Counter counter(MetricName metricName) {
+    return getOrCreate(counters, metricName, wfReporter::newCounter);
+  }
+
+  /**
+   * Returns the histogram of the given name, registering it if needed, so hot paths can keep it
+   * and update it without looking it up on every request.
+   *
+   * @param metricName name of the histogram.
+   * @return the histogram.
+   */
+  public WavefrontHistogram histogram(MetricName metricName) {
+    return getOrCreate(histograms, metricName, wfReporter::newWavefrontHistogram);
   }
 
   @Override
   public void incrementDeltaCounter(MetricName metricName) {
-    wfReporter.newDeltaCounter(metricName).inc();
+    incrementDeltaCounter(metricName, 1);
+  }
+
+  /**
+   * Increment the delta counter of the given name by {@code n}.
+   *
+   * @param metricName name of the delta counter.
+   * @param n          the increment.
+   */
+  public void incrementDeltaCounter(MetricName metricName, long n) {
+    if (nodeAggregationClient != null) {
+      nodeAggregationClient.add(metricName, n);
+    } else {
+      getOrCreate(deltaCounters, metricName, wfReporter::newDeltaCounter).inc(n);
+    }
+  }
+
+  @Nullable
+  private NodeAggregationClient nodeAggregationClient(InetSocketAddress nodeAggregator) {
+    try {
+      // the deltas which can't be sent to the aggregator are reported by this reporter
+      return new NodeAggregationClient(PREFIX + ".", source, reporterPointTags, nodeAggregator,
+          (metricName, n) -> getOrCreate(deltaCounters, metricName,
+              wfReporter::newDeltaCounter).inc(n));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to reach the node aggregator, reporting directly", e);
+      return null;
+    }
   }
 
   @Override
   public void registerGauge(MetricName metricName, AtomicInteger value) {
+    gauges.putIfAbsent(metricName, value);
     wfReporter.newGauge(metricName, () -> (() -> (double) value.get()));
   }
 
   @Override
   public void updateHistogram(MetricName metricName, long latencyMillis) {
-    wfReporter.newWavefrontHistogram(metricName).update(latencyMillis);
+    getOrCreate(histograms, metricName, wfReporter::newWavefrontHistogram).update(latencyMillis);
+  }
+
+  /**
+   * Record the time spent inside {@code WavefrontJerseyFilter} for a sampled request.
+   *
+   * @param nanos nanoseconds spent in the request and response filters.
+   */
+  public void recordFilterOverhead(long nanos) {
+    if (filterOverheadNanos != null) {
+      filterOverheadNanos.update(nanos);
+    }
+  }
+
+  /**
+   * Record a request in the rolling window of its route, a no-op unless route snapshots are
+   * enabled with {@link Builder#routeSnapshotWindowSeconds(int)}.
+   *
+   * @param route         route of the request, e.g. {@code api.v2.alert.summary.GET}.
+   * @param latencyMillis latency of the request.
+   * @param error         whether the response is a 4xx/5xx.
+   */
+  public void recordRouteLatency(String route, long latencyMillis, boolean error) {
+    if (routeSnapshotWindowMillis <= 0) {
+      return;
+    }
+    getOrCreate(routeSketches, route, newRouteSketch).
+        record(latencyMillis, error, System.currentTimeMillis());
+  }
+
+  /**
+   * Offer a traced request as an exemplar of a latency histogram. At most one exemplar per
+   * histogram bucket is kept per reporting interval; it is reported as
+   * {@code <histogram>.exemplar} with the {@code le} (bucket upper bound) point tag, at the start
+   * time of the request. The span of the exemplar is tagged with {@value #EXEMPLAR_TAG} (the
+   * name of the histogram) and {@value #LE_TAG}, so a slow bucket links to an actual trace
+   * without a series per trace. A no-op unless enabled with
+   * {@link Builder#reportExemplars(boolean)}.
+   *
+   * @param histogramName name of the latency histogram the value was recorded in.
+   * @param latencyMillis value recorded in the histogram.
+   * @param startMillis   start time of the request.
+   * @param span          span of the request, not finished yet.
+   */
+  public void recordExemplar(MetricName histogramName, long latencyMillis, long startMillis,
+                             Span span) {
+    if (!reportExemplars) {
+      return;
+    }
+    int bucket = getOrCreate(exemplars, histogramName, key -> new ExemplarSlots()).
+        offer(latencyMillis, span.context(), startMillis);
+    if (bucket >= 0) {
+      span.setTag(EXEMPLAR_TAG, PREFIX + "." + histogramName.getKey());
+      span.setTag(LE_TAG, ExemplarSlots.upperBound(bucket));
+    }
+  }
+
+  /**
+   * Compute the time-decayed latency quantiles and error rate of a route over the last
+   * {@link Builder#routeSnapshotWindowSeconds(int)} seconds. Reading does not block the requests
+   * being recorded and only allocates the returned snapshot.
+   *
+   * @param route route, e.g. {@code api.v2.alert.summary.GET}, see {@link #getSnapshotRoutes()}.
+   * @return the snapshot, or {@code null} if no request was recorded for the route.
+   */
+  @Nullable
+  public RouteSnapshot snapshot(String route) {
+    RollingQuantileSketch sketch = routeSketches.get(route);
+    if (sketch == null) {
+      return null;
+    }
+    SnapshotScratch scratch = snapshotScratch.get();
+    sketch.snapshot(RouteSnapshot.QUANTILES, scratch.buckets, scratch.quantileValues,
+        System.currentTimeMillis());
+    return new RouteSnapshot(route, RollingQuantileSketch.count(scratch.buckets),
+        RollingQuantileSketch.errors(scratch.buckets), scratch.quantileValues);
+  }
+
+  /**
+   * @return the routes which can be passed to {@link #snapshot(String)}.
+   */
+  public Set<String> getSnapshotRoutes() {
+    return Collections.unmodifiableSet(routeSketches.keySet());
+  }
+
+  /**
+   * Report the number of spans buffered in the span reporter but not yet sent.
+   *
+   * @param spanReporter span reporter used by the tracer of your application.
+   */
+  public void registerSpanReporter(InstrumentedSpanReporter spanReporter) {
+    if (sdkMetricsReporter != null) {
+      sdkMetricsReporter.newGauge(new MetricName("spans.buffer_occupancy",
+          Collections.emptyMap()), () -> (() -> (double) spanReporter.getBufferOccupancy()));
+    }
+  }
+
+  /**
+   * @return number of distinct metric/histogram series registered through this reporter.
+   */
+  public int getRegisteredSeriesCount() {
+    return counters.size() + deltaCounters.size() + histograms.size() + gauges.size();
+  }
+
+  Map<MetricName, Counter> getCounters() {
+    return counters;
+  }
+
+  Map<MetricName, DeltaCounter> getDeltaCounters() {
+    return deltaCounters;
+  }
+
+  Map<MetricName, AtomicInteger> getGauges() {
+    return gauges;
+  }
+
+  Map<MetricName, WavefrontHistogram> getHistograms() {
+    return histograms;
+  }
+
+  /**
+   * @return point tags added to every metric/histogram by the reporter, e.g. the application.
+   */
+  Map<String, String> getReporterPointTags() {
+    return reporterPointTags;
+  }
+
+  void reportExemplars() {
+    try {
+      for (Map.Entry<MetricName, ExemplarSlots> entry : exemplars.entrySet()) {
+        for (int bucket = 0; bucket < ExemplarSlots.BUCKETS; bucket++) {
+          ExemplarSlots.Exemplar exemplar = entry.getValue().poll(bucket);
+          if (exemplar == null) {
+            continue;
+          }
+          // the trace and span IDs are unbounded, they would make a series per trace
+          String le = ExemplarSlots.upperBound(bucket);
+          Map<String, String> tags = new HashMap<>(entry.getKey().getTags());
+          tags.put(LE_TAG, le);
+          String name = entry.getKey().getKey() + ".exemplar";
+          sendPoint(name, exemplar.value, exemplar.timestampMillis, tags);
+          if (exemplarLogger.isLoggable(Level.FINE)) {
+            exemplarLogger.fine(PREFIX + "." + name + " " + tags + " value=" + exemplar.value +
+                " traceId=" + exemplar.traceId + " spanId=" + exemplar.spanId);
+          }
+        }
+      }
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error reporting exemplars", t);
+    }
+  }
+
+  /**
+   * Send a single point right away, bypassing the metrics registry. Meant for the short lived
+   * series reported once per interval (exemplars, heavy hitters) which must not be registered
+   * forever.
+   *
+   * @param name            name of the point, prefixed with {@code jersey.server.}.
+   * @param value           value of the point.
+   * @param timestampMillis timestamp of the point.
+   * @param tags            point tags, in addition to the reporter point tags.
+   */
+  public void sendPoint(String name, double value, long timestampMillis,
+                        Map<String, String> tags) {
+    Map<String, String> pointTags = new HashMap<>(reporterPointTags);
+    pointTags.putAll(tags);
+    try {
+      wavefrontMetricSender.sendMetric(PREFIX + "." + name, value, timestampMillis, source,
+          pointTags);
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Unable to send " + name, e);
+    }
+  }
+
+  private static Map<String, String> pointTags(ApplicationTags applicationTags) {
+    Map<String, String> pointTags = new HashMap<>();
+    pointTags.put(APPLICATION_TAG_KEY, applicationTags.getApplication());
+    if (applicationTags.getCustomTags() != null) {
+      pointTags.putAll(applicationTags.getCustomTags());
+    }
+    return pointTags;
+  }
+
+  private static <K, T> T getOrCreate(ConcurrentMap<K, T> handles, K key,
+                                      Function<K, T> factory) {
+    // plain get first, computeIfAbsent may lock the bin even when the key is present
+    T handle = handles.get(key);
+    return handle != null ? handle : handles.computeIfAbsent(key, factory);
+  }
+
+  private static final class SnapshotScratch {
+    private final double[] buckets = new double[RollingQuantileSketch.scratchSize()];
+    private final long[] quantileValues = new long[RouteSnapshot.QUANTILES.length];
   }
 
   public static class Builder {
     // Required parameters
     private final ApplicationTags applicationTags;
-    private final String prefix = "jersey.server";
+    private final String prefix = PREFIX;
 
     // Optional parameters
     private int reportingIntervalSeconds = 60;
+    private int routeSnapshotWindowSeconds = 0;
+    private boolean reportExemplars = false;
+    private boolean reportHeartbeats = true;
+    @Nullable
+    private InetSocketAddress nodeAggregator;
 
     @Nullable
     private String source;
+    @Nullable
+    private ScheduledExecutorService scheduler;
 
     /**
      * Builder to build WavefrontJerseyReporter.
@@ -122,6 +493,74 @@ public class WavefrontJerseyReporter implements SdkReporter {
       return this;
     }
 
+    /**
+     * Keep a rolling, time-decayed latency sketch and error rate per route in-process so they
+     * can be read with {@link WavefrontJerseyReporter#snapshot(String)}, e.g. to drive
+     * autoscaling or load shedding. Disabled by default.
+     *
+     * @param routeSnapshotWindowSeconds length of the rolling window in seconds, 0 to disable.
+     * @return {@code this}.
+     */
+    public Builder routeSnapshotWindowSeconds(int routeSnapshotWindowSeconds) {
+      Preconditions.checkArgument(routeSnapshotWindowSeconds >= 0,
+          "Invalid routeSnapshotWindowSeconds");
+      this.routeSnapshotWindowSeconds = routeSnapshotWindowSeconds;
+      return this;
+    }
+
+    /**
+     * Report, once per reporting interval, up to one traced request per latency histogram
+     * bucket as an exemplar linking the bucket to a trace (see
+     * {@link WavefrontJerseyReporter#recordExemplar}). Only used when the filter is configured
+     * with a tracer. Disabled by default.
+     *
+     * @param reportExemplars whether to report exemplars.
+     * @return {@code this}.
+     */
+    public Builder reportExemplars(boolean reportExemplars) {
+      this.reportExemplars = reportExemplars;
+      return this;
+    }
+
+    /**
+     * Report the heartbeat of the application, enabled by default. Disabled when the heartbeats
+     * are reported by a shared {@code WavefrontJerseyRuntime}.
+     *
+     * @param reportHeartbeats whether to report heartbeats.
+     * @return {@code this}.
+     */
+    public Builder reportHeartbeats(boolean reportHeartbeats) {
+      this.reportHeartbeats = reportHeartbeats;
+      return this;
+    }
+
+    /**
+     * Run the periodic tasks of the reporter (metrics, SDK metrics, exemplars and node
+     * aggregation) on the given scheduler instead of a thread of its own, e.g. the scheduler
+     * shared by the applications of the JVM. The scheduler is not shut down by the reporter.
+     *
+     * @param scheduler the scheduler to use.
+     * @return {@code this}.
+     */
+    public Builder withScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Send the shard, cluster and application aggregates (delta counters) to the
+     * {@link NodeAggregator} of the host, listening on the given loopback port, which merges
+     * them with those of the other processes of the host before forwarding them. The deltas are
+     * reported directly when the aggregator can't be reached.
+     *
+     * @param port loopback port of the node aggregator, see {@link NodeAggregator#DEFAULT_PORT}.
+     * @return {@code this}.
+     */
+    public Builder withNodeAggregator(int port) {
+      this.nodeAggregator = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+      return this;
+    }
+
     /**
      * Set the source tag for your metric and histograms.
      *
@@ -140,6 +579,9 @@ public class WavefrontJerseyReporter implements SdkReporter {
      * @return An instance of {@link WavefrontJerseyReporter}.
      */
     public WavefrontJerseyReporter build(WavefrontSender wavefrontSender) {
+      if (!(wavefrontSender instanceof InstrumentedWavefrontSender)) {
+        wavefrontSender = new InstrumentedWavefrontSender(wavefrontSender);
+      }
       if (source == null) {
         try {
           source = InetAddress.getLocalHost().getHostName();
@@ -149,11 +591,7 @@ public class WavefrontJerseyReporter implements SdkReporter {
         }
       }
 
-      Map<String, String> pointTags = new HashMap<>();
-      pointTags.put(APPLICATION_TAG_KEY, applicationTags.getApplication());
-      if (applicationTags.getCustomTags() != null) {
-        pointTags.putAll(applicationTags.getCustomTags());
-      }
+      Map<String, String> pointTags = pointTags(applicationTags);
 
       WavefrontInternalReporter wfReporter = new WavefrontInternalReporter.Builder().
           prefixedWith(prefix).withSource(source).withReporterPointTags(pointTags).
@@ -167,21 +605,97 @@ public class WavefrontJerseyReporter implements SdkReporter {
           () -> (() -> sdkVersion));
 
       return new WavefrontJerseyReporter(wfReporter, reportingIntervalSeconds, wavefrontSender,
-              applicationTags, source, sdkMetricsReporter);
+              applicationTags, source, sdkMetricsReporter,
+              TimeUnit.SECONDS.toMillis(routeSnapshotWindowSeconds), reportExemplars,
+              reportHeartbeats, scheduler, nodeAggregator);
     }
   }
 
   @Override
   public void start() {
-    wfReporter.start(reportingIntervalSeconds, TimeUnit.SECONDS);
+    ScheduledExecutorService tasks = scheduler;
+    if (tasks == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wavefront-jersey-reporter");
+        thread.setDaemon(true);
+        return thread;
+      });
+      tasks = executor;
+    }
+    // the internal reporters are not started, which would start a thread each, their metrics
+    // are reported by the scheduler of this reporter
+    reportTask = tasks.scheduleAtFixedRate(this::flush, reportingIntervalSeconds,
+        reportingIntervalSeconds, TimeUnit.SECONDS);
     if (sdkMetricsReporter != null) {
-      sdkMetricsReporter.start(1, TimeUnit.MINUTES);
+      sdkMetricsTask = tasks.scheduleAtFixedRate(() -> report(sdkMetricsReporter), 1, 1,
+          TimeUnit.MINUTES);
+    }
+    if (reportExemplars) {
+      exemplarTask = tasks.scheduleAtFixedRate(this::reportExemplars,
+          reportingIntervalSeconds, reportingIntervalSeconds, TimeUnit.SECONDS);
+    }
+    if (nodeAggregationClient != null) {
+      nodeAggregationTask = tasks.scheduleAtFixedRate(this::flushNodeAggregation,
+          reportingIntervalSeconds, reportingIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Report the metrics to the sender, timed for the flush.count and flush.duration_ns gauges.
+   */
+  private void flush() {
+    long start = System.nanoTime();
+    report(wfReporter);
+    lastFlushDurationNanos = System.nanoTime() - start;
+    flushes.incrementAndGet();
+  }
+
+  private static void report(WavefrontInternalReporter reporter) {
+    try {
+      reporter.report();
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error reporting the metrics", t);
+    }
+  }
+
+  private void flushNodeAggregation() {
+    try {
+      nodeAggregationClient.flush();
+    } catch (Throwable t) {
+      logger.log(Level.WARNING, "Error sending deltas to the node aggregator", t);
     }
   }
 
   @Override
   public void stop() {
-    heartbeaterService.close();
+    if (heartbeaterService != null) {
+      heartbeaterService.close();
+    }
+    if (reportTask != null) {
+      reportTask.cancel(false);
+    }
+    if (sdkMetricsTask != null) {
+      sdkMetricsTask.cancel(false);
+    }
+    if (exemplarTask != null) {
+      exemplarTask.cancel(false);
+    }
+    if (nodeAggregationTask != null) {
+      nodeAggregationTask.cancel(false);
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (nodeAggregationClient != null) {
+      flushNodeAggregation();
+      try {
+        nodeAggregationClient.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to close the node aggregation socket", e);
+      }
+    }
+    // report one last time
+    flush();
     wfReporter.stop();
     if (sdkMetricsReporter != null) {
       sdkMetricsReporter.stop();
@@ -0,0 +1,162 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.finishedEvent;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ConcurrencyLimitFilter} admits and rejects requests from the in-flight
+ * counts of {@link WavefrontJerseyFilter}, and how {@link AdaptiveConcurrencyLimit} converges
+ * under simulated latencies.
+ */
+public class ConcurrencyLimitFilterTest {
+
+  private static final String ROUTE = "sample.foo.bar._id_.GET";
+  private static final long WINDOW_MILLIS = 1_000;
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+  private final WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+      applicationTags).build();
+  private long now;
+
+  @Test
+  public void testAdmit() {
+    ConcurrencyLimitFilter limitFilter = new ConcurrencyLimitFilter.Builder(filter).
+        initialLimit(2).build();
+    ContainerRequest first = request(limitFilter);
+    ContainerRequest second = request(limitFilter);
+    assertNull(first.getAbortResponse());
+    assertNull(second.getAbortResponse());
+    assertEquals(2, reporter.gauges.get("request." + ROUTE + ".inflight").get());
+    assertEquals(2, reporter.gauges.get("request." + ROUTE + ".concurrency_limit").get());
+    assertEquals(20, reporter.gauges.get("total_requests.concurrency_limit").get());
+    assertNull(reporter.counters.get("total_requests.rejected"));
+  }
+
+  @Test
+  public void testReject() {
+    ConcurrencyLimitFilter limitFilter = new ConcurrencyLimitFilter.Builder(filter).
+        initialLimit(1).retryAfterSeconds(5).build();
+    ContainerRequest admitted = request(limitFilter);
+    ContainerRequest rejected = request(limitFilter);
+    assertNull(admitted.getAbortResponse());
+    Response response = rejected.getAbortResponse();
+    assertNotNull(response);
+    assertEquals(503, response.getStatus());
+    assertEquals("5", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+    assertEquals(1, reporter.counters.get("request." + ROUTE + ".rejected").get());
+    assertEquals(1, reporter.counters.get("total_requests.rejected").get());
+
+    // the rejected request is reported as a 503
+    filter.filter(rejected, new ContainerResponse(rejected, response));
+    assertEquals(1, reporter.counters.get("response." + ROUTE + ".503.cumulative").get());
+    filter.filter(admitted, new ContainerResponse(admitted, Response.ok().build()));
+    assertNull(request(limitFilter).getAbortResponse());
+  }
+
+  @Test
+  public void testFinishedWithoutResponseFilter() {
+    ConcurrencyLimitFilter limitFilter = new ConcurrencyLimitFilter.Builder(filter).
+        initialLimit(1).build();
+    ContainerRequest request = request(limitFilter);
+    // e.g. an unmapped exception, Jersey skips the response filters
+    limitFilter.onRequest(null).onEvent(finishedEvent(request));
+    assertEquals(0, reporter.gauges.get("request." + ROUTE + ".inflight").get());
+    assertEquals(0, filter.getTotalInflight().get());
+    assertNull(request(limitFilter).getAbortResponse());
+    // released only once
+    limitFilter.onRequest(null).onEvent(finishedEvent(request));
+    assertEquals(1, reporter.gauges.get("request." + ROUTE + ".inflight").get());
+  }
+
+  @Test
+  public void testGrowsWhileLimited() {
+    AdaptiveConcurrencyLimit limit = newLimit(10, 1);
+    for (int i = 0; i < 100; i++) {
+      // more requests than the limit, at a steady latency
+      window(limit, limit.getLimit().get() + 1, 10);
+    }
+    assertEquals(100, limit.getLimit().get());
+  }
+
+  @Test
+  public void testHoldsWhileNotLimited() {
+    AdaptiveConcurrencyLimit limit = newLimit(20, 1);
+    for (int i = 0; i < 100; i++) {
+      // less than half of the limit in flight
+      window(limit, 9, 10);
+    }
+    assertEquals(20, limit.getLimit().get());
+  }
+
+  @Test
+  public void testShrinksWhenLatencyBuildsUp() {
+    AdaptiveConcurrencyLimit limit = newLimit(100, 1);
+    window(limit, 101, 10);
+    for (int i = 0; i < 10; i++) {
+      window(limit, limit.getLimit().get() + 1, 40);
+    }
+    assertTrue(limit.getLimit().toString(), limit.getLimit().get() < 70);
+    // back up once the latency is back to normal
+    for (int i = 0; i < 30; i++) {
+      window(limit, limit.getLimit().get() + 1, 10);
+    }
+    assertEquals(100, limit.getLimit().get());
+  }
+
+  @Test
+  public void testMinLimit() {
+    AdaptiveConcurrencyLimit limit = newLimit(100, 5);
+    for (int i = 0; i < 40; i++) {
+      window(limit, 1, 10L << i);
+    }
+    assertEquals(5, limit.getLimit().get());
+  }
+
+  @Test
+  public void testWindow() {
+    AdaptiveConcurrencyLimit limit = newLimit(50, 1);
+    limit.tryAcquire(51);
+    limit.record(10, WINDOW_MILLIS - 1);
+    // the limit is only recomputed once the window is over
+    assertEquals(50, limit.getLimit().get());
+    limit.record(10, WINDOW_MILLIS);
+    assertTrue(limit.getLimit().toString(), limit.getLimit().get() > 50);
+  }
+
+  private ContainerRequest request(ConcurrencyLimitFilter limitFilter) {
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    limitFilter.filter(request);
+    return request;
+  }
+
+  private static AdaptiveConcurrencyLimit newLimit(int initialLimit, int minLimit) {
+    return new AdaptiveConcurrencyLimit(initialLimit, minLimit, 100, 0.2, 1.5, WINDOW_MILLIS, 0);
+  }
+
+  /**
+   * A window with one request completing at the given latency while the given number of
+   * requests is in flight.
+   */
+  private void window(AdaptiveConcurrencyLimit limit, int inflight, long latencyMillis) {
+    now += WINDOW_MILLIS;
+    limit.tryAcquire(inflight);
+    limit.record(latencyMillis, now);
+  }
+}
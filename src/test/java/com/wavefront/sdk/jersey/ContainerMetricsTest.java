@@ -0,0 +1,114 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the containers {@link ContainerMetrics} detects, the gauges it registers for each of
+ * them and the values it polls.
+ */
+public class ContainerMetricsTest {
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+
+  @Test
+  public void testThreadPoolExecutor() throws Exception {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 4, 1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<>(10));
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // 2 busy threads and 1 queued task
+      for (int i = 0; i < 3; i++) {
+        executor.execute(() -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+      try (ContainerMetrics ignored = new ContainerMetrics.Builder(reporter, applicationTags).
+          build(executor)) {
+        awaitGauge("container.threads.busy", 2);
+        assertEquals(2, reporter.gauges.get("container.threads.total").get());
+        assertEquals(4, reporter.gauges.get("container.threads.max").get());
+        assertEquals(50, reporter.gauges.get("container.threads.utilization_pct").get());
+        assertEquals(1, reporter.gauges.get("container.queue.depth").get());
+        assertNull(reporter.gauges.get("container.connections"));
+      }
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testJettyServer() throws Exception {
+    Server server = new Server(new QueuedThreadPool(16));
+    try (ContainerMetrics ignored = new ContainerMetrics.Builder(reporter, applicationTags).
+        build(server)) {
+      awaitGauge("container.threads.max", 16);
+      // no connector
+      assertNotNull(reporter.gauges.get("container.connections"));
+      assertEquals(0, reporter.gauges.get("container.connections").get());
+      assertNotNull(reporter.gauges.get("container.threads.busy"));
+      assertNotNull(reporter.gauges.get("container.queue.depth"));
+    }
+  }
+
+  @Test
+  public void testUnsupportedContainer() {
+    try {
+      new ContainerMetrics.Builder(reporter, applicationTags).build(new Object());
+      fail("the container is not supported");
+    } catch (IllegalArgumentException expected) {
+      // not a container
+    }
+  }
+
+  @Test
+  public void testResolve() throws Exception {
+    // declared by a non-public class
+    Method method = ContainerMetrics.resolve(HiddenPool.class, "getBusyThreads");
+    assertNotNull(method);
+    assertEquals(3, method.invoke(new HiddenPool()));
+    assertNull(ContainerMetrics.resolve(HiddenPool.class, "getMaxThreads"));
+    assertNull(ContainerMetrics.resolve(null, "getBusyThreads"));
+  }
+
+  private void awaitGauge(String name, int value) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (System.currentTimeMillis() < deadline) {
+      AtomicInteger gauge = reporter.gauges.get(name);
+      if (gauge != null && gauge.get() == value) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail(name + ": " + reporter.gauges.get(name));
+  }
+
+  private static final class HiddenPool {
+    public int getBusyThreads() {
+      return 3;
+    }
+  }
+}
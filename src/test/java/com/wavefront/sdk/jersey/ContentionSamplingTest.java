@@ -0,0 +1,95 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the blocked and waited times and counts {@link WavefrontJerseyFilter} reports for the
+ * requests sampled for contention.
+ */
+public class ContentionSamplingTest {
+
+  private static final String PREFIX = "response.sample.foo.bar._id_.GET.200.";
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+
+  @Test
+  public void testContention() throws Exception {
+    assumeTrue("thread contention monitoring is not supported by this JVM",
+        ManagementFactory.getThreadMXBean().isThreadContentionMonitoringSupported());
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).contentionSamplingRate(1).build();
+    Object lock = new Object();
+    CountDownLatch locked = new CountDownLatch(1);
+    Thread holder = new Thread(() -> {
+      synchronized (lock) {
+        locked.countDown();
+        sleep(100);
+      }
+    });
+    holder.start();
+    locked.await();
+
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    // blocked until the holder releases the lock, then waits
+    synchronized (lock) {
+      lock.wait(50);
+    }
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+    holder.join();
+
+    for (String histogram : new String[]{"blocked_ms", "waited_ms", "blocked_count",
+        "waited_count"}) {
+      assertEquals(histogram, 1, reporter.histograms.get(PREFIX + histogram).get());
+    }
+    assertTrue(reporter.histogramSums.toString(),
+        reporter.histogramSums.get(PREFIX + "blocked_count").get() >= 1);
+    assertTrue(reporter.histogramSums.toString(),
+        reporter.histogramSums.get(PREFIX + "waited_count").get() >= 1);
+    // the times are measured in milliseconds
+    assertTrue(reporter.histogramSums.toString(),
+        reporter.histogramSums.get(PREFIX + "blocked_ms").get() >= 10);
+    assertTrue(reporter.histogramSums.toString(),
+        reporter.histogramSums.get(PREFIX + "waited_ms").get() >= 10);
+  }
+
+  @Test
+  public void testNotSampled() throws Exception {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).build();
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+    assertTrue(reporter.histograms.containsKey(PREFIX + "latency"));
+    for (String histogram : reporter.histograms.keySet()) {
+      assertFalse(histogram, histogram.endsWith("_count") || histogram.endsWith("blocked_ms") ||
+          histogram.endsWith("waited_ms"));
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.DeferredWavefrontSender;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jaxrs.Constants.WF_SPAN_HEADER;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the number of bytes {@link WavefrontJerseyFilter} and the {@link WavefrontJerseyReporter}
+ * it reports to allocate per request for a warm route. Any change that makes them allocate more
+ * than the per-scenario budget fails this test; lower the budgets whenever the filter gets
+ * cheaper so the gain is locked in.
+ *
+ * <p>The sizes of the objects depend on the JVM (object headers, compressed references, compact
+ * strings), so the budgets are not in bytes but in baseline units: the bytes allocated by a
+ * reference workload of a small array, a short string and a single entry map, measured by the
+ * test on the JVM running it.
+ */
+public class FilterAllocationBudgetTest {
+
+  private static final int WARMUP_REQUESTS = 20_000;
+  private static final int MEASURED_REQUESTS = 2_000;
+
+  // Budgets in baseline units per request, about 25% over the allocations of the filter and
+  // the reporter: a regression of a few objects per request fails the test.
+  private static final double METRICS_BUDGET = 8;
+  private static final double METRICS_WITH_HEADER_TAGS_BUDGET = 10;
+  private static final double TRACING_BUDGET = 28;
+  private static final double TRACING_WITH_HEADER_TAGS_BUDGET = 30;
+
+  private static final String TENANT_HEADER = "X-Tenant";
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").cluster("prod").shard("secondary").build();
+  private com.sun.management.ThreadMXBean threadMXBean;
+  // keeps the allocations of the reference workload from being optimized away
+  private Object sink;
+
+  @Before
+  public void setup() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  public void testMetricsOnly() {
+    assertWithinBudget("metrics", newFilter(false, false), false, METRICS_BUDGET);
+  }
+
+  @Test
+  public void testMetricsWithHeaderTags() {
+    assertWithinBudget("metrics with header tags", newFilter(false, true), true,
+        METRICS_WITH_HEADER_TAGS_BUDGET);
+  }
+
+  @Test
+  public void testTracing() {
+    assertWithinBudget("tracing", newFilter(true, false), false, TRACING_BUDGET);
+  }
+
+  @Test
+  public void testTracingWithHeaderTags() {
+    assertWithinBudget("tracing with header tags", newFilter(true, true), true,
+        TRACING_WITH_HEADER_TAGS_BUDGET);
+  }
+
+  private void assertWithinBudget(String scenario, WavefrontJerseyFilter filter,
+                                  boolean tenantHeader, double budget) {
+    ContainerRequest request = newRequest(tenantHeader);
+    ContainerResponse response = new ContainerResponse(request, Response.ok().build());
+
+    for (int i = 0; i < WARMUP_REQUESTS; i++) {
+      invoke(filter, request, response);
+      reference(i);
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_REQUESTS; i++) {
+      reference(i);
+    }
+    double baseline = (double) (threadMXBean.getThreadAllocatedBytes(threadId) - before) /
+        MEASURED_REQUESTS;
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_REQUESTS; i++) {
+      invoke(filter, request, response);
+    }
+    long bytesPerRequest = (threadMXBean.getThreadAllocatedBytes(threadId) - before) /
+        MEASURED_REQUESTS;
+    assertTrue(scenario + ": " + bytesPerRequest + " bytes allocated per request, budget is " +
+        Math.round(budget * baseline) + " (" + budget + " x " + Math.round(baseline) + ")",
+        bytesPerRequest <= budget * baseline);
+  }
+
+  /**
+   * The reference workload, one baseline unit.
+   */
+  private void reference(int i) {
+    Map<String, Object[]> map = new HashMap<>();
+    map.put(Integer.toString(1_000_000 + i), new Object[]{map, null, null, null});
+    sink = map;
+  }
+
+  private static void invoke(WavefrontJerseyFilter filter, ContainerRequest request,
+                             ContainerResponse response) {
+    filter.filter(request);
+    filter.filter(request, response);
+    response.getHeaders().remove(WF_SPAN_HEADER);
+  }
+
+  private WavefrontJerseyFilter newFilter(boolean tracing, boolean headerTags) {
+    // the reporter is not started, the metrics are only reported to the sender when flushed
+    WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(applicationTags).
+        withSource("budget").reportHeartbeats(false).build(new DeferredWavefrontSender());
+    WavefrontJerseyFilter.Builder builder = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags);
+    if (tracing) {
+      builder.withTracer(new WavefrontTracer.Builder(new FilterTestFixtures.NoopSpanReporter(),
+          applicationTags).build());
+    }
+    if (headerTags) {
+      builder.headerTags(Collections.singleton(TENANT_HEADER));
+    }
+    return builder.build();
+  }
+
+  private static ContainerRequest newRequest(boolean tenantHeader) {
+    ContainerRequest request = FilterTestFixtures.newRequest();
+    if (tenantHeader) {
+      request.header(TENANT_HEADER, "tenant-1");
+    }
+    return request;
+  }
+}
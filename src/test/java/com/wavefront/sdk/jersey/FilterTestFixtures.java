@@ -0,0 +1,314 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.reporting.Reporter;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.process.Inflector;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.server.internal.monitoring.RequestEventImpl;
+import org.glassfish.jersey.server.internal.routing.UriRoutingContext;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.container.ContainerRequestContext;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Requests and reporters to invoke {@link WavefrontJerseyFilter} without a running application.
+ * Published in the test jar, the benchmarks build their requests on it as well.
+ */
+final class FilterTestFixtures {
+
+  static final Resource MATCHED_RESOURCE = matchedResource();
+
+  /**
+   * Set by the virtual-threads profile: the virtual thread tests fail instead of being skipped
+   * when the JVM does not support virtual threads.
+   */
+  static final String VIRTUAL_THREADS_REQUIRED_PROPERTY = "wavefront.virtualThreads.required";
+
+  private FilterTestFixtures() {
+  }
+
+  /**
+   * @return a GET request to /sample/foo/bar/1 matching {@link SampleResource#barGet()}.
+   */
+  static ContainerRequest newRequest() {
+    return newRequest("GET", MATCHED_RESOURCE);
+  }
+
+  /**
+   * @return a request matching the given resource, its path parameters all set to 1.
+   */
+  static ContainerRequest newRequest(String httpMethod, Resource matchedResource) {
+    return new StubbedContainerRequest(httpMethod, matchedResource, SampleResource.class,
+        StubbedContainerRequest.RESOURCE_METHOD);
+  }
+
+  /**
+   * @return a request matching the given resource, handled by the given resource method.
+   */
+  static ContainerRequest newRequest(String httpMethod, Resource matchedResource,
+                                     Class<?> resourceClass, Method resourceMethod) {
+    return new StubbedContainerRequest(httpMethod, matchedResource, resourceClass,
+        resourceMethod);
+  }
+
+  /**
+   * @return the event Jersey sends to the request event listeners once the request is finished.
+   */
+  static RequestEvent finishedEvent(ContainerRequest request) {
+    return requestEvent(RequestEvent.Type.FINISHED, request);
+  }
+
+  /**
+   * @return an event of the given type Jersey sends to the request event listeners.
+   */
+  static RequestEvent requestEvent(RequestEvent.Type type, ContainerRequest request) {
+    return new RequestEventImpl.Builder().setContainerRequest(request).build(type);
+  }
+
+  /**
+   * @return an executor starting a virtual thread per task. The calling test is skipped when the
+   * JVM does not support virtual threads (JDK < 21), unless they are required.
+   */
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    ExecutorService executor;
+    try {
+      executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").
+          invoke(null);
+    } catch (ReflectiveOperationException e) {
+      executor = null;
+    }
+    if (Boolean.getBoolean(VIRTUAL_THREADS_REQUIRED_PROPERTY)) {
+      assertNotNull("virtual threads are not supported by this JVM", executor);
+    } else {
+      assumeTrue("virtual threads are not supported by this JVM", executor != null);
+    }
+    return executor;
+  }
+
+  /**
+   * @return an outbound request to the given URI, only its URI and properties are stubbed.
+   */
+  static ClientRequestContext clientRequest(String uri) {
+    URI requestUri = URI.create(uri);
+    Map<String, Object> properties = new HashMap<>();
+    return (ClientRequestContext) Proxy.newProxyInstance(FilterTestFixtures.class.getClassLoader(),
+        new Class<?>[]{ClientRequestContext.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getUri":
+              return requestUri;
+            case "getProperty":
+              return properties.get(args[0]);
+            case "setProperty":
+              properties.put((String) args[0], args[1]);
+              return null;
+            case "removeProperty":
+              properties.remove(args[0]);
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * @return the response of an outbound request, only its status and length are stubbed.
+   */
+  static ClientResponseContext clientResponse(int status, int length) {
+    return (ClientResponseContext) Proxy.newProxyInstance(
+        FilterTestFixtures.class.getClassLoader(), new Class<?>[]{ClientResponseContext.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getStatus":
+              return status;
+            case "getLength":
+              return length;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static Resource matchedResource() {
+    Resource.Builder child = Resource.builder("bar/{id}");
+    child.addMethod("GET").handledBy(
+        (Inflector<ContainerRequestContext, String>) containerRequestContext -> "ok");
+    Resource.Builder parent = Resource.builder("/sample/foo");
+    parent.addChildResource(child.build());
+    // parent links are only set on the resources created by the outermost build()
+    return parent.build().getChildResources().get(0);
+  }
+
+  /**
+   * A container request whose routing information is stubbed with the given matched resource,
+   * so the filter can be invoked without a running application.
+   */
+  static final class StubbedContainerRequest extends ContainerRequest {
+    private static final Method RESOURCE_METHOD;
+
+    static {
+      try {
+        RESOURCE_METHOD = SampleResource.class.getMethod("barGet");
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private final ExtendedUriInfo uriInfo;
+
+    StubbedContainerRequest(String httpMethod, Resource matchedResource,
+                            Class<?> resourceClass, Method resourceMethod) {
+      super(URI.create("http://localhost/"), requestUri(matchedResource), httpMethod, null,
+          new MapPropertiesDelegate());
+      this.uriInfo = new UriRoutingContext(this) {
+        @Override
+        public Resource getMatchedModelResource() {
+          return matchedResource;
+        }
+
+        @Override
+        public Class<?> getResourceClass() {
+          return resourceClass;
+        }
+
+        @Override
+        public Method getResourceMethod() {
+          return resourceMethod;
+        }
+      };
+    }
+
+    @Override
+    public ExtendedUriInfo getUriInfo() {
+      return uriInfo;
+    }
+
+    private static URI requestUri(Resource matchedResource) {
+      StringBuilder path = new StringBuilder();
+      for (Resource resource = matchedResource; resource != null;
+           resource = resource.getParent()) {
+        String segment = resource.getPath().replaceAll("^/+|/+$", "");
+        path.insert(0, "/" + segment.replaceAll("\\{[^}]*}", "1"));
+      }
+      return URI.create("http://localhost" + path);
+    }
+  }
+
+  public static class SampleResource {
+    public String barGet() {
+      return "ok";
+    }
+  }
+
+  static class NoopSdkReporter implements SdkReporter {
+    @Override
+    public void incrementCounter(MetricName metricName) {
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName, long n) {
+    }
+
+    @Override
+    public void incrementDeltaCounter(MetricName metricName) {
+    }
+
+    @Override
+    public void registerGauge(MetricName metricName, AtomicInteger value) {
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long latencyMillis) {
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
+
+  /**
+   * Records the counters, the delta counters, the number of updates and the sum of the values of
+   * the histograms and the gauges by metric key.
+   */
+  static final class RecordingSdkReporter extends NoopSdkReporter {
+    final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, AtomicLong> deltaCounters = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, AtomicLong> histograms = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, AtomicLong> histogramSums = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, AtomicInteger> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public void incrementCounter(MetricName metricName) {
+      incrementCounter(metricName, 1);
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName, long n) {
+      counters.computeIfAbsent(metricName.getKey(), key -> new AtomicLong()).addAndGet(n);
+    }
+
+    @Override
+    public void incrementDeltaCounter(MetricName metricName) {
+      deltaCounters.computeIfAbsent(metricName.getKey(), key -> new AtomicLong()).
+          incrementAndGet();
+    }
+
+    @Override
+    public void registerGauge(MetricName metricName, AtomicInteger value) {
+      gauges.put(metricName.getKey(), value);
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long latencyMillis) {
+      histograms.computeIfAbsent(metricName.getKey(), key -> new AtomicLong()).
+          incrementAndGet();
+      histogramSums.computeIfAbsent(metricName.getKey(), key -> new AtomicLong()).
+          addAndGet(latencyMillis);
+    }
+  }
+
+  static class NoopSpanReporter implements Reporter {
+    @Override
+    public void report(WavefrontSpan span) {
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the Space-Saving sketch of {@link HeavyHitters}: eviction, error bound and ties, and
+ * that the header values are reported hashed.
+ */
+public class HeavyHittersTest {
+
+  @Test
+  public void testEviction() {
+    HeavyHitters.SpaceSaving sketch = new HeavyHitters.SpaceSaving(2);
+    sketch.offer("a", 10, false);
+    sketch.offer("a", 10, false);
+    sketch.offer("b", 10, true);
+    // replaces b, the value with the lowest count, and inherits its count
+    sketch.offer("c", 10, false);
+    assertEquals(2, sketch.count("a"));
+    assertEquals(0, sketch.count("b"));
+    assertEquals(2, sketch.count("c"));
+    // the error count of b was reset: c is not among the top values by error count
+    assertArrayEquals(new boolean[]{true, false}, sketch.top(1));
+  }
+
+  @Test
+  public void testErrorBound() {
+    int capacity = 16;
+    int heavyRequests = 1_000;
+    HeavyHitters.SpaceSaving sketch = new HeavyHitters.SpaceSaving(capacity);
+    int requests = 0;
+    for (int i = 0; i < heavyRequests; i++) {
+      for (int heavy = 0; heavy < 4; heavy++) {
+        // the heavier values are offered more often
+        for (int j = 0; j <= heavy; j++) {
+          sketch.offer("heavy-" + heavy, 1, false);
+          requests++;
+        }
+      }
+      sketch.offer("light-" + i, 1, false);
+      requests++;
+    }
+    for (int heavy = 0; heavy < 4; heavy++) {
+      long actual = (long) heavyRequests * (heavy + 1);
+      long count = sketch.count("heavy-" + heavy);
+      assertTrue("heavy-" + heavy + ": " + count, count >= actual);
+      assertTrue("heavy-" + heavy + ": " + count, count <= actual + requests / capacity);
+    }
+  }
+
+  @Test
+  public void testTopTies() {
+    HeavyHitters.SpaceSaving sketch = new HeavyHitters.SpaceSaving(4);
+    for (String value : new String[]{"a", "b", "c", "d"}) {
+      sketch.offer(value, 0, false);
+    }
+    // ties are broken by slot and never exceed K, latency sums and error counts of 0 are not
+    // reported
+    assertArrayEquals(new boolean[]{true, true, false, false}, sketch.top(2));
+    sketch.offer("c", 5, true);
+    assertArrayEquals(new boolean[]{true, false, true, false}, sketch.top(2));
+  }
+
+  @Test
+  public void testHashedValues() {
+    RecordingSender sender = new RecordingSender();
+    ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront", "alerting").
+        build();
+    WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(applicationTags).
+        withSource("host-1").reportHeartbeats(false).build(sender);
+    try (HeavyHitters heavyHitters = new HeavyHitters.Builder(reporter, applicationTags,
+        "X-Api-Key").stripes(4).build()) {
+      for (int i = 0; i < 3; i++) {
+        heavyHitters.record("api.v2.alert.summary.GET", "secret-key", 10, false);
+      }
+      heavyHitters.record("api.v2.alert.summary.GET", "other-key", 10, false);
+      heavyHitters.report();
+    }
+    String requests = "jersey.server.response.api.v2.alert.summary.GET.heavy_hitter.requests";
+    assertEquals(3.0, sender.values.get(requests + ":" + HeavyHitters.hash("secret-key")),
+        0);
+    assertEquals(1.0, sender.values.get(requests + ":" + HeavyHitters.hash("other-key")), 0);
+    assertEquals(16, HeavyHitters.hash("secret-key").length());
+    for (String point : sender.values.keySet()) {
+      assertTrue(point, !point.contains("secret-key") && !point.contains("other-key"));
+    }
+  }
+
+  /**
+   * Records the value of the points by name and X-Api-Key tag.
+   */
+  private static final class RecordingSender implements WavefrontSender {
+    private final ConcurrentMap<String, Double> values = new ConcurrentHashMap<>();
+
+    @Override
+    public void sendMetric(String name, double value, @Nullable Long timestamp,
+                           @Nullable String source, @Nullable Map<String, String> tags) {
+      if (tags != null && tags.containsKey("X-Api-Key")) {
+        values.put(name + ":" + tags.get("X-Api-Key"), value);
+      }
+    }
+
+    @Override
+    public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                 Set<HistogramGranularity> histogramGranularities,
+                                 @Nullable Long timestamp, @Nullable String source,
+                                 @Nullable Map<String, String> tags) {
+      // no-op
+    }
+
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis,
+                         @Nullable String source, UUID traceId, UUID spanId,
+                         @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                         @Nullable List<Pair<String, String>> tags,
+                         @Nullable List<SpanLog> spanLogs) {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.wavefront.sdk.jersey;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.finishedEvent;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the requests {@link InflightRequestRegistry} tracks and releases, the bound of its
+ * probe, and the JSON listing of {@link InflightRequestsResource}.
+ */
+public class InflightRequestRegistryTest {
+
+  private final InflightRequestRegistry registry = new InflightRequestRegistry.Builder().
+      capacity(16).
+      build();
+
+  @After
+  public void tearDown() {
+    registry.close();
+  }
+
+  @Test
+  public void testRegister() throws InterruptedException {
+    ContainerRequest first = newRequest();
+    registry.register(first, "SampleResource.barGet", "GET", "sample/foo/bar/1", null);
+    Thread.sleep(20);
+    ContainerRequest second = newRequest();
+    registry.register(second, "SampleResource.barDelete", "DELETE", "sample/foo/bar/2", null);
+
+    List<InflightRequestRegistry.InflightRequest> requests = registry.snapshot();
+    assertEquals(2, requests.size());
+    // oldest first
+    InflightRequestRegistry.InflightRequest oldest = requests.get(0);
+    assertEquals("SampleResource.barGet", oldest.getOperationName());
+    assertEquals("GET", oldest.getHttpMethod());
+    assertEquals("sample/foo/bar/1", oldest.getPath());
+    assertEquals(Thread.currentThread().getName(), oldest.getThreadName());
+    assertNull(oldest.getTraceId());
+    assertTrue(Long.toString(oldest.getAgeMillis()), oldest.getAgeMillis() >= 20);
+
+    registry.unregister(first);
+    // released twice, e.g. by the response filter and the FINISHED event
+    registry.unregister(first);
+    requests = registry.snapshot();
+    assertEquals(1, requests.size());
+    assertEquals("SampleResource.barDelete", requests.get(0).getOperationName());
+  }
+
+  @Test
+  public void testFinishedEvent() {
+    ContainerRequest request = newRequest();
+    registry.register(request, "SampleResource.barGet", "GET", "sample/foo/bar/1", null);
+    // e.g. an unmapped exception, the response filter did not run
+    registry.onRequest(null).onEvent(finishedEvent(request));
+    assertTrue(registry.snapshot().isEmpty());
+  }
+
+  @Test
+  public void testBoundedProbe() {
+    List<ContainerRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      ContainerRequest request = newRequest();
+      requests.add(request);
+      registry.register(request, "SampleResource.barGet", "GET", "sample/foo/bar/1", null);
+    }
+    // the requests of one thread only probe the slots from its start, half of the registry
+    assertEquals(InflightRequestRegistry.MAX_PROBES, registry.snapshot().size());
+    assertEquals(16 - InflightRequestRegistry.MAX_PROBES, registry.getUntrackedCount());
+
+    // the released slots are claimed again
+    registry.unregister(requests.get(0));
+    ContainerRequest request = newRequest();
+    registry.register(request, "SampleResource.barGet", "GET", "sample/foo/bar/1", null);
+    assertEquals(InflightRequestRegistry.MAX_PROBES, registry.snapshot().size());
+    assertEquals(16 - InflightRequestRegistry.MAX_PROBES, registry.getUntrackedCount());
+  }
+
+  @Test
+  public void testResource() {
+    registry.register(newRequest(), "SampleResource.barGet", "GET", "sample/\"foo\"/bar", null);
+    String json = new InflightRequestsResource(registry).getInflightRequests();
+    assertTrue(json, json.startsWith("{\"untracked\":0,\"requests\":[{\"operationName\":" +
+        "\"SampleResource.barGet\",\"httpMethod\":\"GET\",\"path\":\"sample/\\\"foo\\\"/bar\"," +
+        "\"traceId\":null,\"thread\":"));
+    assertTrue(json, json.endsWith("}]}"));
+
+    StringBuilder escaped = new StringBuilder();
+    InflightRequestsResource.appendString(escaped, "a\\b\nc");
+    assertEquals("\"a\\\\b\\u000ac\"", escaped.toString());
+  }
+}
@@ -0,0 +1,160 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.process.Inflector;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.Resource;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Response;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link WavefrontExclude}, {@link WavefrontMetrics} and {@link WavefrontTrace} tune
+ * the metrics and spans of the resource methods and classes they annotate.
+ */
+public class InstrumentationAnnotationsTest {
+
+  public static class AnnotatedResource {
+    @WavefrontExclude
+    public String excluded() {
+      return "excluded";
+    }
+
+    @WavefrontMetrics(histograms = false)
+    public String countersOnly() {
+      return "counters";
+    }
+
+    @WavefrontTrace(sampleRate = 0)
+    public String unsampled() {
+      return "unsampled";
+    }
+
+    public String traced() {
+      return "traced";
+    }
+  }
+
+  @WavefrontExclude
+  public static class ExcludedResource {
+    public String get() {
+      return "excluded";
+    }
+  }
+
+  @WavefrontTrace(sampleRate = 0)
+  public static class UnsampledResource {
+    public String get() {
+      return "unsampled";
+    }
+
+    @WavefrontTrace
+    public String sampled() {
+      return "sampled";
+    }
+  }
+
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+  private final List<WavefrontSpan> spans = new CopyOnWriteArrayList<>();
+  private final WavefrontTracer tracer = new WavefrontTracer.Builder(
+      new FilterTestFixtures.NoopSpanReporter() {
+        @Override
+        public void report(WavefrontSpan span) {
+          spans.add(span);
+        }
+      }, new ApplicationTags.Builder("wavefront", "alerting").build()).build();
+  private final WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+      new ApplicationTags.Builder("wavefront", "alerting").build()).withTracer(tracer).build();
+
+  @Test
+  public void testExclude() throws Exception {
+    invoke(AnnotatedResource.class, "excluded");
+    invoke(ExcludedResource.class, "get");
+    assertEquals(2, reporter.counters.get("total_requests.excluded").get());
+    assertNull(reporter.counters.get("response.annotatedresource.excluded.GET.200.cumulative"));
+    assertNull(reporter.counters.get("response.excludedresource.get.GET.200.cumulative"));
+    assertTrue(reporter.histograms.toString(), reporter.histograms.isEmpty());
+    assertTrue(spans.isEmpty());
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    invoke(AnnotatedResource.class, "countersOnly");
+    invoke(AnnotatedResource.class, "traced");
+    String countersOnly = "response.annotatedresource.countersonly.GET.200.";
+    assertEquals(1, reporter.counters.get(countersOnly + "cumulative").get());
+    assertFalse(reporter.histograms.toString(),
+        reporter.histograms.keySet().stream().anyMatch(name -> name.startsWith(countersOnly)));
+    assertTrue(reporter.histograms.toString(), reporter.histograms.containsKey(
+        "response.annotatedresource.traced.GET.200.latency"));
+  }
+
+  @Test
+  public void testTraceSampleRate() throws Exception {
+    invoke(AnnotatedResource.class, "unsampled");
+    invoke(AnnotatedResource.class, "traced");
+    invoke(UnsampledResource.class, "get");
+    invoke(UnsampledResource.class, "sampled");
+    assertEquals(0, reported("AnnotatedResource.unsampled"));
+    assertEquals(1, reported("AnnotatedResource.traced"));
+    // the annotation of the method takes precedence over the one of its class
+    assertEquals(0, reported("UnsampledResource.get"));
+    assertEquals(1, reported("UnsampledResource.sampled"));
+    // the unsampled requests are still counted
+    assertEquals(1, reporter.counters.get(
+        "response.annotatedresource.unsampled.GET.200.cumulative").get());
+  }
+
+  @Test
+  public void testTraceSampleRateWithParent() throws Exception {
+    // requests continuing a trace follow the sampling decision of the trace
+    Span parent = tracer.buildSpan("upstream").start();
+    try (Scope scope = tracer.activateSpan(parent)) {
+      invoke(AnnotatedResource.class, "unsampled");
+    }
+    assertEquals(1, reported("AnnotatedResource.unsampled"));
+  }
+
+  /**
+   * Processes a GET request to /{resource class}/{method} handled by the given method.
+   */
+  private void invoke(Class<?> resourceClass, String methodName) throws Exception {
+    Resource.Builder resource = Resource.builder(
+        "/" + resourceClass.getSimpleName().toLowerCase() + "/" + methodName.toLowerCase());
+    resource.addMethod("GET").handledBy(
+        (Inflector<ContainerRequestContext, String>) containerRequestContext -> methodName);
+    ContainerRequest request = FilterTestFixtures.newRequest("GET", resource.build(),
+        resourceClass, resourceClass.getMethod(methodName));
+    filter.filter(request);
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+  }
+
+  /**
+   * @return the number of spans of the operation reported and not dropped by their sampling
+   * priority.
+   */
+  private long reported(String operationName) {
+    return spans.stream().filter(span -> span.getOperationName().equals(operationName) &&
+        span.getTagsAsList().stream().noneMatch(tag ->
+            tag._1.equals(Tags.SAMPLING_PRIORITY.getKey()) && tag._2.equals("0"))).
+        count();
+  }
+}
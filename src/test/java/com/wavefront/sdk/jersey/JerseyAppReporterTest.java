@@ -32,6 +32,7 @@ import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
 import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * Test class to test reported metric/histogram for Dropwizard (Jersey) apps requests/responses
@@ -57,6 +58,7 @@ public class JerseyAppReporterTest {
     testDelete();
     testGetAll();
     testError();
+    testExcluded();
     testOverallAggregatedMetrics();
   }
 
@@ -79,6 +81,9 @@ public class JerseyAppReporterTest {
     assertEquals(1, sampleApp.reportedValue(new MetricName(
         "response.sample.foo.bar.POST.204.cumulative", tags)));
 
+    // Business metric of the resource
+    assertEquals(1, sampleApp.reportedValue(new MetricName("custom.bar.created", tags)));
+
     // Aggregated metrics (delta counters)
     assertEquals(1, sampleApp.reportedValue(new MetricName(
         "response.sample.foo.bar.POST.204.aggregated_per_application",
@@ -506,6 +511,31 @@ public class JerseyAppReporterTest {
     // Response counter metric
     assertEquals(1, sampleApp.reportedValue(new MetricName(
         "response.sample.foo.bar._id_.GET.errors", tags)));
+    // Exception counter metric
+    tags.put("exception.class", RuntimeException.class.getName());
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.exceptions", tags)));
+  }
+
+  private void testExcluded() throws IOException {
+    assertEquals(200, invokeGetRequest("sample/foo/ping"));
+
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "total_requests.excluded", new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, SampleApp.CLUSTER);
+          put(SERVICE_TAG_KEY, SampleApp.SERVICE);
+          put(SHARD_TAG_KEY, SampleApp.SHARD);
+        }})));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.ping.GET.200.cumulative", new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, SampleApp.CLUSTER);
+          put(SERVICE_TAG_KEY, SampleApp.SERVICE);
+          put(SHARD_TAG_KEY, SampleApp.SHARD);
+          put("jersey.resource.class", SampleApp.SampleResource.class.getCanonicalName());
+          put("jersey.resource.method", "ping");
+          put("operationName", "SampleResource.ping");
+        }})));
+    assertNull(sampleApp.reportedSpan("SampleResource.ping"));
   }
 
   private int invokePostRequest(String pathSegments) throws IOException {
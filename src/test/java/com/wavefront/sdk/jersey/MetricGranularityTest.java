@@ -0,0 +1,114 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.MetricGranularity.AggregationLevel;
+import com.wavefront.sdk.jersey.MetricGranularity.ResponseHistogram;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the loading of a {@link MetricGranularity} from YAML, and the metrics the filter
+ * reports with a reduced granularity.
+ */
+public class MetricGranularityTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testFromYamlFile() throws IOException {
+    MetricGranularity granularity = MetricGranularity.fromYamlFile(yaml(
+        "aggregationLevels: [source, Service]\n" +
+        "statusClasses: true\n" +
+        "histograms: [latency]\n"));
+    assertEquals(EnumSet.of(AggregationLevel.SOURCE, AggregationLevel.SERVICE),
+        granularity.getAggregationLevels());
+    assertTrue(granularity.isStatusClasses());
+    assertEquals(EnumSet.of(ResponseHistogram.LATENCY), granularity.getHistograms());
+    assertEquals("2xx", granularity.status(201));
+  }
+
+  @Test
+  public void testDefaults() throws IOException {
+    // the missing properties keep their default
+    MetricGranularity granularity = MetricGranularity.fromYamlFile(yaml("statusClasses: true\n"));
+    assertEquals(EnumSet.allOf(AggregationLevel.class), granularity.getAggregationLevels());
+    assertEquals(EnumSet.allOf(ResponseHistogram.class), granularity.getHistograms());
+    assertEquals("201", MetricGranularity.DEFAULT.status(201));
+    // empty file
+    assertEquals(EnumSet.allOf(AggregationLevel.class),
+        MetricGranularity.fromYamlFile(yaml("")).getAggregationLevels());
+  }
+
+  @Test
+  public void testInvalidYaml() throws IOException {
+    for (String yaml : new String[]{"histograms: [latency, throughput]\n",
+        "aggregationLevels: source\n"}) {
+      try {
+        MetricGranularity.fromYamlFile(yaml(yaml));
+        fail(yaml);
+      } catch (IllegalArgumentException expected) {
+        // invalid value
+      }
+    }
+    try {
+      MetricGranularity.fromYamlFile(new File(folder.getRoot(), "missing.yaml").getPath());
+      fail("the file does not exist");
+    } catch (IllegalArgumentException expected) {
+      // not found
+    }
+  }
+
+  @Test
+  public void testFilterGranularity() {
+    FilterTestFixtures.RecordingSdkReporter reporter =
+        new FilterTestFixtures.RecordingSdkReporter();
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        new ApplicationTags.Builder("wavefront", "alerting").cluster("prod").shard("primary").
+            build()).
+        granularity(new MetricGranularity.Builder().
+            aggregationLevels(AggregationLevel.SOURCE, AggregationLevel.SERVICE).
+            statusClasses(true).
+            histograms(ResponseHistogram.LATENCY).
+            build()).
+        build();
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    filter.filter(request, new ContainerResponse(request, Response.status(201).build()));
+
+    String prefix = "response.sample.foo.bar._id_.GET.2xx.";
+    assertEquals(1, reporter.counters.get(prefix + "cumulative").get());
+    assertEquals(1, reporter.deltaCounters.get(prefix + "aggregated_per_service").get());
+    assertEquals(1, reporter.histograms.get(prefix + "latency").get());
+    for (String deltaCounter : reporter.deltaCounters.keySet()) {
+      assertFalse(deltaCounter, deltaCounter.startsWith(prefix + "aggregated_per_shard") ||
+          deltaCounter.startsWith(prefix + "aggregated_per_cluster") ||
+          deltaCounter.startsWith(prefix + "aggregated_per_application"));
+    }
+    assertEquals(reporter.histograms.toString(), 1, reporter.histograms.size());
+  }
+
+  private String yaml(String content) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+}
@@ -0,0 +1,187 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.client.ClientRequestContext;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.clientRequest;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.clientResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Drives {@link OutboundCallFilter} with stubbed client requests: the cap on the remote hosts,
+ * the error counting, the attribution to the server request and the reuse of the call markers.
+ */
+public class OutboundCallFilterTest {
+
+  private static final String ROUTE = "sample.foo.bar._id_.GET";
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final MetricsByHost reporter = new MetricsByHost();
+
+  @After
+  public void clearCurrentCalls() {
+    OutboundCallFilter.setCurrentCalls(null);
+  }
+
+  @Test
+  public void testHostCap() {
+    OutboundCallFilter filter = new OutboundCallFilter.Builder(reporter, applicationTags).
+        maxHosts(2).build();
+    call(filter, "http://inventory/items", 200);
+    call(filter, "http://billing/invoices", 200);
+    call(filter, "http://shipping/orders", 200);
+    call(filter, "http://tracking/parcels", 200);
+    // the hosts reported first keep their series
+    call(filter, "http://inventory/items", 200);
+    assertEquals(2, reporter.latencies("inventory", "none"));
+    assertEquals(1, reporter.latencies("billing", "none"));
+    assertEquals(0, reporter.latencies("shipping", "none"));
+    assertEquals(2, reporter.latencies("other", "none"));
+  }
+
+  @Test
+  public void testErrors() {
+    OutboundCallFilter filter = new OutboundCallFilter.Builder(reporter, applicationTags).
+        build();
+    call(filter, "http://inventory/items", 200);
+    call(filter, "http://inventory/items", 404);
+    call(filter, "http://inventory/items", 503);
+    assertEquals(3, reporter.latencies("inventory", "none"));
+    assertEquals(2, reporter.count("client.errors", "inventory", "none"));
+    // the response length is known
+    assertEquals(3, reporter.count("client.response_bytes", "inventory", "none"));
+  }
+
+  @Test
+  public void testRouteAttribution() {
+    OutboundCallFilter filter = new OutboundCallFilter.Builder(reporter, applicationTags).
+        build();
+    OutboundCallFilter.OutboundCalls calls = new OutboundCallFilter.OutboundCalls(ROUTE);
+    OutboundCallFilter.setCurrentCalls(calls);
+    call(filter, "http://inventory/items", 200);
+    call(filter, "http://billing/invoices", 200);
+    assertEquals(2, calls.getCount());
+    assertEquals(1, reporter.latencies("inventory", ROUTE));
+    assertEquals(1, reporter.latencies("billing", ROUTE));
+
+    // outside of a server request
+    OutboundCallFilter.setCurrentCalls(null);
+    call(filter, "http://inventory/items", 200);
+    assertEquals(2, calls.getCount());
+    assertEquals(1, reporter.latencies("inventory", "none"));
+  }
+
+  @Test
+  public void testCallMarkerReuse() {
+    OutboundCallFilter filter = new OutboundCallFilter.Builder(reporter, applicationTags).
+        build();
+    OutboundCallFilter.setCurrentCalls(new OutboundCallFilter.OutboundCalls(ROUTE));
+    ClientRequestContext first = clientRequest("http://inventory/items");
+    filter.filter(first);
+    Object marker = first.getProperty(OutboundCallFilter.PROPERTY_NAME);
+    assertNotNull(marker);
+    // concurrent call
+    ClientRequestContext concurrent = clientRequest("http://inventory/items");
+    filter.filter(concurrent);
+    assertNotNull(concurrent.getProperty(OutboundCallFilter.PROPERTY_NAME));
+    filter.filter(first, clientResponse(200, 10));
+    assertNull(first.getProperty(OutboundCallFilter.PROPERTY_NAME));
+
+    // the next call reuses the marker of the completed one
+    ClientRequestContext next = clientRequest("http://inventory/items");
+    filter.filter(next);
+    assertSame(marker, next.getProperty(OutboundCallFilter.PROPERTY_NAME));
+  }
+
+  /**
+   * Concurrent first calls to a new host use a single host slot.
+   */
+  @Test
+  public void testConcurrentNewHost() throws Exception {
+    OutboundCallFilter filter = new OutboundCallFilter.Builder(reporter, applicationTags).
+        maxHosts(2).build();
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          call(filter, "http://inventory/items", 200);
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    call(filter, "http://billing/invoices", 200);
+    assertEquals(threads, reporter.latencies("inventory", "none"));
+    assertEquals(1, reporter.latencies("billing", "none"));
+    assertEquals(0, reporter.latencies("other", "none"));
+  }
+
+  private static void call(OutboundCallFilter filter, String uri, int status) {
+    ClientRequestContext request = clientRequest(uri);
+    filter.filter(request);
+    filter.filter(request, clientResponse(status, 10));
+  }
+
+  /**
+   * Records the number of updates of the metrics by name, remote host and route.
+   */
+  private static final class MetricsByHost extends FilterTestFixtures.NoopSdkReporter {
+    private final ConcurrentMap<String, AtomicLong> updates = new ConcurrentHashMap<>();
+
+    @Override
+    public void incrementCounter(MetricName metricName) {
+      record(metricName);
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long latencyMillis) {
+      record(metricName);
+    }
+
+    private void record(MetricName metricName) {
+      updates.computeIfAbsent(key(metricName.getKey(), metricName.getTags().get("remote.host"),
+          metricName.getTags().get("jersey.route")), key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private long latencies(String host, String route) {
+      return count("client.latency", host, route);
+    }
+
+    private long count(String name, String host, String route) {
+      AtomicLong count = updates.get(key(name, host, route));
+      return count == null ? 0 : count.get();
+    }
+
+    private static String key(String name, String host, String route) {
+      return name + ":" + host + ":" + route;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.wavefront.sdk.jersey;
+
+import org.junit.Test;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which routes {@link RouteExclusions} excludes by path, resource class and annotation.
+ */
+public class RouteExclusionsTest {
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Internal {
+  }
+
+  public static class HealthResource {
+    public String get() {
+      return "ok";
+    }
+  }
+
+  public static class ItemsResource {
+    public String get() {
+      return "item";
+    }
+
+    @Internal
+    public String debug() {
+      return "debug";
+    }
+  }
+
+  @Internal
+  public static class AdminResource {
+    public String get() {
+      return "admin";
+    }
+  }
+
+  @Test
+  public void testPaths() throws Exception {
+    RouteExclusions exclusions = new RouteExclusions.Builder().
+        paths("/healthcheck", "items/{id}/", "/assets/*").
+        build();
+    Method get = ItemsResource.class.getMethod("get");
+    assertTrue(exclusions.excludes("healthcheck", ItemsResource.class, get));
+    assertTrue(exclusions.excludes("/items/{id}", ItemsResource.class, get));
+    assertFalse(exclusions.excludes("items", ItemsResource.class, get));
+    assertFalse(exclusions.excludes("items/{id}/tags", ItemsResource.class, get));
+    // the prefix and every route below it
+    assertTrue(exclusions.excludes("assets", ItemsResource.class, get));
+    assertTrue(exclusions.excludes("assets/css/{file}", ItemsResource.class, get));
+    assertFalse(exclusions.excludes("assetsmanager", ItemsResource.class, get));
+  }
+
+  @Test
+  public void testResourceClasses() throws Exception {
+    RouteExclusions exclusions = new RouteExclusions.Builder().
+        resourceClasses(HealthResource.class).
+        build();
+    assertTrue(exclusions.excludes("health", HealthResource.class,
+        HealthResource.class.getMethod("get")));
+    assertFalse(exclusions.excludes("health", ItemsResource.class,
+        ItemsResource.class.getMethod("get")));
+    assertFalse(exclusions.excludes("health", null, null));
+  }
+
+  @Test
+  public void testAnnotations() throws Exception {
+    RouteExclusions exclusions = new RouteExclusions.Builder().
+        annotations(Internal.class, WavefrontExclude.class).
+        build();
+    // on the resource method
+    assertTrue(exclusions.excludes("items/debug", ItemsResource.class,
+        ItemsResource.class.getMethod("debug")));
+    assertFalse(exclusions.excludes("items", ItemsResource.class,
+        ItemsResource.class.getMethod("get")));
+    // on the resource class
+    assertTrue(exclusions.excludes("admin", AdminResource.class,
+        AdminResource.class.getMethod("get")));
+  }
+}
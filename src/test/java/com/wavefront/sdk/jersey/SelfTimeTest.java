@@ -0,0 +1,91 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.clientRequest;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.clientResponse;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the split of the latency of a request into {@code .downstream_time}, the time spent in
+ * its outbound calls, and {@code .self_time}.
+ */
+public class SelfTimeTest {
+
+  private static final String PREFIX = "response.sample.foo.bar._id_.GET.200.";
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+  private final OutboundCallFilter outboundCallFilter = new OutboundCallFilter.Builder(
+      new FilterTestFixtures.NoopSdkReporter(), applicationTags).build();
+
+  @After
+  public void clearCurrentCalls() {
+    OutboundCallFilter.setCurrentCalls(null);
+  }
+
+  @Test
+  public void testSelfTime() throws InterruptedException {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).reportSelfTime(true).build();
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    Thread.sleep(20);
+    for (int i = 0; i < 2; i++) {
+      ClientRequestContext call = clientRequest("http://inventory/items");
+      outboundCallFilter.filter(call);
+      Thread.sleep(30);
+      outboundCallFilter.filter(call, clientResponse(200, 10));
+    }
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+
+    assertEquals(1, reporter.histograms.get(PREFIX + "downstream_time").get());
+    assertEquals(1, reporter.histograms.get(PREFIX + "self_time").get());
+    long latency = reporter.histogramSums.get(PREFIX + "latency").get();
+    long downstream = reporter.histogramSums.get(PREFIX + "downstream_time").get();
+    long self = reporter.histogramSums.get(PREFIX + "self_time").get();
+    assertTrue(Long.toString(downstream), downstream >= 60);
+    assertTrue(Long.toString(self), self >= 20);
+    // both are truncated to milliseconds
+    assertTrue(latency + " " + downstream + " " + self,
+        Math.abs(latency - downstream - self) <= 1);
+  }
+
+  @Test
+  public void testNoOutboundCalls() {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).reportSelfTime(true).build();
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+    assertTrue(reporter.histograms.containsKey(PREFIX + "latency"));
+    assertFalse(reporter.histograms.containsKey(PREFIX + "downstream_time"));
+    assertFalse(reporter.histograms.containsKey(PREFIX + "self_time"));
+  }
+
+  @Test
+  public void testDisabled() {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).build();
+    ContainerRequest request = newRequest();
+    filter.filter(request);
+    ClientRequestContext call = clientRequest("http://inventory/items");
+    outboundCallFilter.filter(call);
+    outboundCallFilter.filter(call, clientResponse(200, 10));
+    filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+    assertFalse(reporter.histograms.containsKey(PREFIX + "downstream_time"));
+  }
+}
@@ -0,0 +1,85 @@
+package com.wavefront.sdk.jersey;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static com.wavefront.sdk.jersey.FilterTestFixtures.requestEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bounds of the samples {@link SlowRequestSampler} keeps per request, and that a
+ * request is no longer sampled once its resource method returns.
+ */
+public class SlowRequestSamplerTest {
+
+  private final SlowRequestSampler sampler = new SlowRequestSampler.Builder().
+      thresholdMillis(0).
+      samplingIntervalMillis(1).
+      maxSamplesPerRequest(50).
+      build();
+
+  @After
+  public void tearDown() {
+    sampler.close();
+  }
+
+  @Test
+  public void testMaxStacks() {
+    SlowRequestSampler.InflightRequest request = new SlowRequestSampler.InflightRequest(
+        "SampleResource.barGet", Thread.currentThread(), 0, 2);
+    request.startSampling();
+    for (String stack : new String[]{"a;b", "a;b", "a;b", "a;c", "a;d", "a;e"}) {
+      request.addSample(stack);
+    }
+    assertEquals(6, request.sampleCount());
+    // the samples of the stacks over the limit are counted together, most frequent first
+    assertEquals("a;b 3\n" + SlowRequestSampler.OTHER_STACKS + " 2\na;c 1\n",
+        request.foldedStacks(Integer.MAX_VALUE));
+    // the stacks which do not fit are left out
+    assertEquals("a;b 3\na;c 1\n", request.foldedStacks(12));
+  }
+
+  @Test
+  public void testMaxSamples() throws InterruptedException {
+    SlowRequestSampler.InflightRequest request = sampler.start("SampleResource.barGet");
+    try {
+      waitForSamples(request, 50);
+      Thread.sleep(50);
+      assertEquals(50, request.sampleCount());
+    } finally {
+      sampler.finish(request, null);
+    }
+  }
+
+  @Test
+  public void testResourceMethodFinished() throws InterruptedException {
+    ContainerRequest containerRequest = newRequest();
+    SlowRequestSampler.InflightRequest request = sampler.start("SampleResource.barGet");
+    containerRequest.setProperty(SlowRequestSampler.PROPERTY_NAME, request);
+    waitForSamples(request, 1);
+    // e.g. a suspended async request, the thread goes on serving other requests
+    sampler.onRequest(null).onEvent(requestEvent(RequestEvent.Type.RESOURCE_METHOD_FINISHED,
+        containerRequest));
+    int samples = request.sampleCount();
+    Thread.sleep(50);
+    assertEquals(samples, request.sampleCount());
+    // the samples are still reported when the request finishes
+    assertTrue(request.foldedStacks(Integer.MAX_VALUE).contains(
+        SlowRequestSamplerTest.class.getName() + ".testResourceMethodFinished"));
+    sampler.onRequest(null).onEvent(requestEvent(RequestEvent.Type.FINISHED,
+        containerRequest));
+  }
+
+  private static void waitForSamples(SlowRequestSampler.InflightRequest request, int samples)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (request.sampleCount() < samples && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertTrue(request.sampleCount() + " samples", request.sampleCount() >= samples);
+  }
+}
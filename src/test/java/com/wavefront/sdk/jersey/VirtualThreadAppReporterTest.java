@@ -0,0 +1,96 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.app.SampleApp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs {@link SampleApp} with Jetty serving every request on a virtual thread, and checks the
+ * reported metrics. Skipped on JDKs without virtual threads, run on JDK 21 by the
+ * virtual-threads profile.
+ */
+public class VirtualThreadAppReporterTest {
+
+  private final OkHttpClient client = new OkHttpClient();
+  private SampleApp sampleApp;
+
+  @Before
+  public void setup() throws Exception {
+    sampleApp = new SampleApp(FilterTestFixtures.newVirtualThreadPerTaskExecutor());
+    sampleApp.run("server");
+  }
+
+  @Test
+  public void testRequests() throws IOException {
+    assertEquals(204, invoke(new Request.Builder().post(RequestBody.create(null, new byte[0])),
+        "sample/foo/bar"));
+    Map<String, String> tags = tags("barCreate");
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.POST.204.cumulative", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.POST.204.latency", tags)));
+    // RequestMetrics is bound to the virtual thread of the request
+    assertEquals(1, sampleApp.reportedValue(new MetricName("custom.bar.created", tags)));
+    // the CPU time of a virtual thread is the one of its carriers
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.POST.204.cpu_ns", tags)));
+    assertNotNull(sampleApp.reportedSpan("SampleResource.barCreate"));
+
+    assertEquals(200, invoke(new Request.Builder().get(), "sample/foo/bar/123"));
+    tags = tags("barGet");
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.latency", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cpu_ns", tags)));
+    assertNotNull(sampleApp.reportedSpan("SampleResource.barGet"));
+
+    // the response filters found the context of their requests
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.sample.foo.bar.POST.inflight", tags("barCreate"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.inflight", new HashMap<String, String>() {{
+          put(CLUSTER_TAG_KEY, SampleApp.CLUSTER);
+          put(SERVICE_TAG_KEY, SampleApp.SERVICE);
+          put(SHARD_TAG_KEY, SampleApp.SHARD);
+        }})));
+  }
+
+  private int invoke(Request.Builder request, String pathSegments) throws IOException {
+    HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").
+        port(sampleApp.getHttpPort()).addPathSegments(pathSegments).build();
+    try (Response response = client.newCall(request.url(url).build()).execute()) {
+      return response.code();
+    }
+  }
+
+  private static Map<String, String> tags(String resourceMethod) {
+    return new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, SampleApp.CLUSTER);
+      put(SERVICE_TAG_KEY, SampleApp.SERVICE);
+      put(SHARD_TAG_KEY, SampleApp.SHARD);
+      put("jersey.resource.class", SampleApp.SampleResource.class.getCanonicalName());
+      put("jersey.resource.method", resourceMethod);
+      put("operationName", "SampleResource." + resourceMethod);
+    }};
+  }
+}
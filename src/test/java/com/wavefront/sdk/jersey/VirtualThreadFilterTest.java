@@ -0,0 +1,150 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.Response;
+
+import static com.wavefront.sdk.jersey.FilterTestFixtures.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link WavefrontJerseyFilter} on virtual threads, when the JVM supports them, and with
+ * response filters running on another thread than their request filters (async responses,
+ * virtual thread mode).
+ */
+public class VirtualThreadFilterTest {
+
+  private static final int REQUESTS = 200;
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").cluster("prod").shard("secondary").build();
+  private final FilterTestFixtures.RecordingSdkReporter reporter =
+      new FilterTestFixtures.RecordingSdkReporter();
+
+  @Test
+  public void testVirtualThreadExecutor() throws Exception {
+    ExecutorService executor = FilterTestFixtures.newVirtualThreadPerTaskExecutor();
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).build();
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        results.add(executor.submit(() -> {
+          ContainerRequest request = newRequest();
+          filter.filter(request);
+          boolean requestScoped = request.getProperty(
+              WavefrontJerseyFilter.STATS_CONTEXT_PROPERTY_NAME) != null;
+          filter.filter(request, new ContainerResponse(request, Response.ok().build()));
+          return WavefrontJerseyFilter.isVirtualThread(Thread.currentThread()) && requestScoped;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertRequestsReported();
+  }
+
+  @Test
+  public void testThreadHopping() throws Exception {
+    Set<UUID> traceIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    WavefrontTracer tracer = new WavefrontTracer.Builder(new FilterTestFixtures.NoopSpanReporter() {
+      @Override
+      public void report(WavefrontSpan span) {
+        traceIds.add(span.context().getTraceId());
+      }
+    }, applicationTags).build();
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).withTracer(tracer).virtualThreads(true).build();
+    ExecutorService requestExecutor = Executors.newFixedThreadPool(2);
+    ExecutorService responseExecutor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        ContainerRequest request = newRequest();
+        results.add(requestExecutor.submit(() -> {
+          filter.filter(request);
+          assertNotNull(request.getProperty(WavefrontJerseyFilter.STATS_CONTEXT_PROPERTY_NAME));
+          // nothing is left on the request thread for its next request
+          assertNull(tracer.activeSpan());
+          assertSame(RequestMetrics.of(null), RequestMetrics.current());
+          return responseExecutor.submit(() -> filter.filter(request,
+              new ContainerResponse(request, Response.ok().build()))).get();
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      requestExecutor.shutdown();
+      responseExecutor.shutdown();
+    }
+    // every span was finished and started a trace of its own
+    assertEquals(REQUESTS, traceIds.size());
+    assertRequestsReported();
+  }
+
+  @Test
+  public void testAsyncResponse() throws Exception {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).build();
+    ExecutorService responseExecutor = Executors.newSingleThreadExecutor();
+    try {
+      ContainerRequest request = newRequest();
+      filter.filter(request);
+      // an async response completed by another thread
+      responseExecutor.submit(() -> filter.filter(request,
+          new ContainerResponse(request, Response.ok().build()))).get();
+    } finally {
+      responseExecutor.shutdown();
+    }
+    assertTrue(reporter.histograms.toString(),
+        reporter.histograms.containsKey("response.sample.foo.bar._id_.GET.200.latency"));
+    // the CPU time of the request thread is not subtracted from the one of the response thread
+    assertFalse(reporter.histograms.toString(),
+        reporter.histograms.containsKey("response.sample.foo.bar._id_.GET.200.cpu_ns"));
+  }
+
+  private void assertRequestsReported() {
+    AtomicLong cumulative = reporter.counters.get(
+        "response.sample.foo.bar._id_.GET.200.cumulative");
+    assertNotNull(reporter.counters.keySet().toString(), cumulative);
+    assertEquals(REQUESTS, cumulative.get());
+    assertTrue(reporter.histograms.toString(),
+        reporter.histograms.containsKey("response.sample.foo.bar._id_.GET.200.latency"));
+    for (String histogram : reporter.histograms.keySet()) {
+      assertFalse(histogram, histogram.endsWith(".cpu_ns") ||
+          histogram.endsWith(".alloc_bytes") || histogram.endsWith(".blocked_ms"));
+    }
+    // the response filters found the context of their requests
+    for (Map.Entry<String, AtomicInteger> gauge : reporter.gauges.entrySet()) {
+      assertEquals(gauge.getKey(), 0, gauge.getValue().get());
+    }
+  }
+}
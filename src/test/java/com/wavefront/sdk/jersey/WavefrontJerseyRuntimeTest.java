@@ -0,0 +1,158 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.DeferredWavefrontSender;
+import com.wavefront.sdk.jersey.reporter.InstrumentedWavefrontSender;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the applications of a {@link WavefrontJerseyRuntime} share its sender, span
+ * reporter, scheduler and heartbeats, and that their reporters hand their periodic tasks over
+ * to the shared scheduler.
+ */
+public class WavefrontJerseyRuntimeTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testForReportingConfig() throws IOException {
+    String config = reportingConfig();
+    WavefrontJerseyRuntime runtime = WavefrontJerseyRuntime.forReportingConfig(config);
+    try {
+      // one runtime per configuration file, however its path is written
+      assertSame(runtime, WavefrontJerseyRuntime.forReportingConfig(
+          new File(folder.getRoot(), "./" + new File(config).getName()).getPath()));
+      assertEquals("runtime-host", runtime.getSource());
+      assertTrue(runtime.isReportTraces());
+    } finally {
+      runtime.close();
+    }
+    // a closed runtime is not handed out anymore
+    WavefrontJerseyRuntime next = WavefrontJerseyRuntime.forReportingConfig(config);
+    try {
+      assertNotSame(runtime, next);
+    } finally {
+      next.close();
+    }
+  }
+
+  @Test
+  public void testSharedRuntime() throws Exception {
+    WavefrontJerseyRuntime runtime = WavefrontJerseyRuntime.forReportingConfig(
+        reportingConfig());
+    long reporterThreads = reporterThreads();
+    try {
+      WavefrontJerseyFactory ordering = new WavefrontJerseyFactory(
+          applicationTags("ordering"), runtime);
+      WavefrontJerseyFactory billing = new WavefrontJerseyFactory(
+          applicationTags("billing"), runtime);
+      assertSame(runtime.getWavefrontSender(), ordering.getWavefrontSender());
+      assertSame(runtime.getWavefrontSender(), billing.getWavefrontSender());
+      assertEquals("runtime-host", ordering.getSource());
+      assertNotNull(ordering.getTracer());
+      assertNotNull(billing.getTracer());
+      assertEquals("billing", billing.getApplicationTags().getService());
+      // the reporters run on the scheduler of the runtime, not on threads of their own
+      assertEquals(reporterThreads, reporterThreads());
+
+      // one heartbeat per application, handed to the sender whether the proxy is up or not
+      InstrumentedWavefrontSender sender = runtime.getWavefrontSender();
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+      while (sender.getPointsSent() + sender.getPointsDropped() < 2 &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertTrue(sender.getPointsSent() + sender.getPointsDropped() >= 2);
+
+      ordering.getWavefrontJerseyReporter().stop();
+      billing.getWavefrontJerseyReporter().stop();
+      // the shared scheduler outlives the reporters
+      assertFalse(runtime.getScheduler().isShutdown());
+    } finally {
+      runtime.close();
+    }
+    assertTrue(runtime.getScheduler().isShutdown());
+  }
+
+  @Test
+  public void testSchedulerHandOff() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+    try {
+      WavefrontJerseyReporter ordering = reporter("ordering", scheduler);
+      WavefrontJerseyReporter billing = reporter("billing", scheduler);
+      ordering.start();
+      int orderingTasks = scheduler.getQueue().size();
+      assertTrue(orderingTasks > 0);
+      billing.start();
+      assertEquals(orderingTasks * 2, scheduler.getQueue().size());
+
+      // stopping a reporter cancels its own tasks only
+      ordering.stop();
+      assertEquals(orderingTasks, scheduler.getQueue().size());
+      billing.stop();
+      assertTrue(scheduler.getQueue().isEmpty());
+      assertFalse(scheduler.isShutdown());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private static WavefrontJerseyReporter reporter(String service,
+                                                  ScheduledThreadPoolExecutor scheduler) {
+    return new WavefrontJerseyReporter.Builder(new ApplicationTags.Builder("wavefront", service).
+        build()).withSource("runtime-host").reportHeartbeats(false).withScheduler(scheduler).
+        build(new DeferredWavefrontSender());
+  }
+
+  private static long reporterThreads() {
+    return Thread.getAllStackTraces().keySet().stream().filter(thread ->
+        thread.getName().equals("wavefront-jersey-reporter")).count();
+  }
+
+  /**
+   * @return a configuration reporting to a proxy which does not listen, the points handed to
+   * the sender are dropped.
+   */
+  private String reportingConfig() throws IOException {
+    return write("wf-reporting-config.yaml",
+        "reportingMechanism: \"proxy\"\n" +
+        "proxyHost: \"localhost\"\n" +
+        "proxyMetricsPort: 1\n" +
+        "proxyDistributionsPort: 1\n" +
+        "proxyTracingPort: 1\n" +
+        "source: \"runtime-host\"\n" +
+        "reportTraces: true\n");
+  }
+
+  private String applicationTags(String service) throws IOException {
+    return write(service + "-application-tags.yaml",
+        "application: \"wavefront\"\n" +
+        "service: \"" + service + "\"\n");
+  }
+
+  private String write(String name, String content) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+}
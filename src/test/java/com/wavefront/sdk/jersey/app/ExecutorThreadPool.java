@@ -0,0 +1,49 @@
+package com.wavefront.sdk.jersey.app;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jetty thread pool running its tasks on an executor, e.g. one starting a virtual thread per
+ * task. The threads are not pooled, so none is ever idle nor missing.
+ */
+final class ExecutorThreadPool extends AbstractLifeCycle implements ThreadPool {
+  private final ExecutorService executor;
+
+  ExecutorThreadPool(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public int getThreads() {
+    return 0;
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+
+  @Override
+  protected void doStop() {
+    executor.shutdownNow();
+  }
+}
@@ -1,5 +1,6 @@
 package com.wavefront.sdk.jersey.app;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 
 import com.wavefront.internal.reporter.SdkReporter;
@@ -8,15 +9,21 @@ import com.wavefront.opentracing.WavefrontSpan;
 import com.wavefront.opentracing.WavefrontTracer;
 import com.wavefront.opentracing.reporting.Reporter;
 import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.ExceptionMetrics;
+import com.wavefront.sdk.jersey.RequestMetrics;
+import com.wavefront.sdk.jersey.WavefrontExclude;
 import com.wavefront.sdk.jersey.WavefrontJerseyFilter;
 
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -38,17 +45,39 @@ public class SampleApp extends Application<Configuration> {
   public static final String SERVICE = "alerting";
   public static final String SHARD = "secondary";
   private int httpPort;
+  @Nullable
+  private final ExecutorService executor;
 
   private final ConcurrentMap<MetricName, AtomicInteger> cache = new ConcurrentHashMap<>();
   private final ConcurrentMap<String, WavefrontSpan> spanCache = new ConcurrentHashMap<>();
 
+  public SampleApp() {
+    this(null);
+  }
+
+  /**
+   * @param executor executor to serve the requests on, e.g. one starting a virtual thread per
+   *                 request, {@code null} for the Jetty thread pool.
+   */
+  public SampleApp(@Nullable ExecutorService executor) {
+    this.executor = executor;
+  }
+
   private AtomicInteger computeIfAbsent(MetricName metricName) {
     return cache.computeIfAbsent(metricName, key -> new AtomicInteger());
   }
 
   @Override
   public void run(Configuration configuration, Environment environment) {
-    DefaultServerFactory defaultHttp = (DefaultServerFactory) configuration.getServerFactory();
+    DefaultServerFactory defaultHttp = executor == null ?
+        (DefaultServerFactory) configuration.getServerFactory() : new DefaultServerFactory() {
+          @Override
+          protected ThreadPool createThreadPool(MetricRegistry metricRegistry) {
+            return new ExecutorThreadPool(executor);
+          }
+        };
+    // read by the server command once the application has run
+    configuration.setServerFactory(defaultHttp);
     HttpConnectorFactory appConnectorFactory = new HttpConnectorFactory();
     HttpConnectorFactory adminConnectorFactory = new HttpConnectorFactory();
     // set random available port.
@@ -66,7 +95,7 @@ public class SampleApp extends Application<Configuration> {
     });
     environment.jersey().register(new SampleResource());
     environment.getApplicationContext().setContextPath("/");
-    environment.jersey().register(new WavefrontJerseyFilter.Builder(new SdkReporter() {
+    SdkReporter reporter = new SdkReporter() {
       @Override
       public void incrementCounter(MetricName metricName) {
         computeIfAbsent(metricName).incrementAndGet();
@@ -101,7 +130,10 @@ public class SampleApp extends Application<Configuration> {
       public void stop() {
         // no-op
       }
-    }, applicationTags).withTracer(new WavefrontTracer.Builder(new Reporter() {
+    };
+    environment.jersey().register(new ExceptionMetrics.Builder(reporter, applicationTags).build());
+    environment.jersey().register(new WavefrontJerseyFilter.Builder(reporter,
+        applicationTags).withTracer(new WavefrontTracer.Builder(new Reporter() {
       @Override
       public void report(WavefrontSpan span) {
         spanCache.putIfAbsent(span.getOperationName(), span);
@@ -142,7 +174,7 @@ public class SampleApp extends Application<Configuration> {
     @POST
     @Path("/bar")
     public void barCreate() {
-      // no-op
+      RequestMetrics.current().increment("bar.created");
     }
 
     // R => read
@@ -175,6 +207,14 @@ public class SampleApp extends Application<Configuration> {
     public void barDelete() {
       // no-op
     }
+
+    // not instrumented, only counted
+    @GET
+    @Path("/ping")
+    @WavefrontExclude
+    public String ping() {
+      return "pong";
+    }
   }
 
   public int getHttpPort() {
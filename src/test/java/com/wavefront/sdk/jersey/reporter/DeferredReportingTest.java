@@ -0,0 +1,238 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link DeferredJerseyReporter} and {@link DeferredWavefrontSender} hand what they
+ * buffered over once ready, count what they drop and lose nothing when they become ready while
+ * requests are being recorded.
+ */
+public class DeferredReportingTest {
+
+  private static final int THREADS = 4;
+  private static final int CALLS_PER_THREAD = 10_000;
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final MetricName counter = new MetricName("requests", Collections.emptyMap());
+  private final MetricName deltaCounter = new MetricName("requests.aggregated_per_service",
+      Collections.emptyMap());
+  private final MetricName histogram = new MetricName("latency", Collections.emptyMap());
+  private final MetricName gauge = new MetricName("inflight", Collections.emptyMap());
+  private final RecordingSender sender = new RecordingSender();
+
+  @Test
+  public void testReporterHandOver() {
+    DeferredJerseyReporter deferred = new DeferredJerseyReporter(2);
+    deferred.incrementCounter(counter, 2);
+    for (int i = 0; i < 3; i++) {
+      deferred.incrementDeltaCounter(deltaCounter);
+      deferred.updateHistogram(histogram, i);
+    }
+    AtomicInteger inflight = new AtomicInteger(5);
+    deferred.registerGauge(gauge, inflight);
+    // the third histogram value did not fit
+    assertEquals(1, deferred.getDroppedValues());
+
+    WavefrontJerseyReporter reporter = newReporter();
+    deferred.ready(reporter);
+    assertSame(reporter, deferred.getDelegate());
+    assertEquals(2, reporter.getCounters().get(counter).getCount());
+    assertEquals(3, reporter.getDeltaCounters().get(deltaCounter).getCount());
+    assertEquals(2, reporter.getHistograms().get(histogram).getCount());
+    assertSame(inflight, reporter.getGauges().get(gauge));
+
+    // forwarded once ready
+    deferred.incrementCounter(counter);
+    deferred.updateHistogram(histogram, 3);
+    assertEquals(3, reporter.getCounters().get(counter).getCount());
+    assertEquals(3, reporter.getHistograms().get(histogram).getCount());
+  }
+
+  @Test
+  public void testReporterDiscard() {
+    DeferredJerseyReporter deferred = new DeferredJerseyReporter();
+    deferred.incrementCounter(counter);
+    deferred.discard();
+    deferred.incrementCounter(counter);
+    WavefrontJerseyReporter reporter = newReporter();
+    deferred.ready(reporter);
+    assertNull(reporter.getCounters().get(counter));
+  }
+
+  @Test
+  public void testReporterReadyWhileRecording() throws Exception {
+    DeferredJerseyReporter deferred = new DeferredJerseyReporter();
+    WavefrontJerseyReporter reporter = newReporter();
+    runConcurrently(() -> {
+      deferred.incrementCounter(counter);
+      deferred.incrementDeltaCounter(deltaCounter);
+    }, () -> deferred.ready(reporter));
+    // nothing was left in the buffers of the deferred reporter
+    assertEquals(THREADS * CALLS_PER_THREAD,
+        reporter.getCounters().get(counter).getCount());
+    assertEquals(THREADS * CALLS_PER_THREAD,
+        reporter.getDeltaCounters().get(deltaCounter).getCount());
+  }
+
+  @Test
+  public void testSenderHandOver() throws IOException {
+    DeferredWavefrontSender deferred = new DeferredWavefrontSender(2);
+    deferred.sendMetric("first", 1, null, "host-1", null);
+    deferred.sendMetric("second", 2, null, "host-1", null);
+    try {
+      deferred.sendMetric("third", 3, null, "host-1", null);
+      fail("the buffer is full");
+    } catch (IOException expected) {
+      // dropped
+    }
+    assertEquals(1, deferred.getDroppedCalls());
+    assertEquals(1, deferred.getFailureCount());
+
+    deferred.ready(sender);
+    assertEquals(2, sender.points.sum());
+    deferred.sendMetric("fourth", 4, null, "host-1", null);
+    assertEquals(3, sender.points.sum());
+  }
+
+  @Test
+  public void testSenderDeferredSource() throws IOException {
+    DeferredWavefrontSender deferred = new DeferredWavefrontSender();
+    deferred.sendMetric("buffered", 1, null, DeferredWavefrontSender.DEFERRED_SOURCE, null);
+    deferred.sendMetric("explicit", 2, null, "host-2", null);
+    deferred.ready(sender, "host-1");
+    deferred.sendMetric("forwarded", 3, null, DeferredWavefrontSender.DEFERRED_SOURCE, null);
+    assertEquals(Arrays.asList("host-1", "host-2", "host-1"), sender.sources);
+  }
+
+  @Test
+  public void testSenderDiscard() throws IOException {
+    DeferredWavefrontSender deferred = new DeferredWavefrontSender();
+    deferred.sendMetric("first", 1, null, "host-1", null);
+    deferred.discard();
+    // the periodic reporters keep sending, counted but not thrown
+    deferred.sendMetric("second", 2, null, "host-1", null);
+    assertEquals(2, deferred.getDroppedCalls());
+  }
+
+  @Test
+  public void testSenderReadyWhileSending() throws Exception {
+    DeferredWavefrontSender deferred = new DeferredWavefrontSender(THREADS * CALLS_PER_THREAD);
+    runConcurrently(() -> {
+      try {
+        deferred.sendMetric("requests", 1, null, "host-1", null);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }, () -> deferred.ready(sender));
+    assertEquals(THREADS * CALLS_PER_THREAD, sender.points.sum());
+    assertEquals(0, deferred.getDroppedCalls());
+  }
+
+  private WavefrontJerseyReporter newReporter() {
+    return new WavefrontJerseyReporter.Builder(applicationTags).withSource("host-1").
+        reportHeartbeats(false).build(sender);
+  }
+
+  /**
+   * Run the call {@link #CALLS_PER_THREAD} times on each of {@link #THREADS} threads, and the
+   * hand over once half of the calls are made.
+   */
+  private static void runConcurrently(Runnable call, Runnable handOver) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch halfway = new CountDownLatch(THREADS);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        results.add(executor.submit(() -> {
+          for (int j = 0; j < CALLS_PER_THREAD; j++) {
+            if (j == CALLS_PER_THREAD / 2) {
+              halfway.countDown();
+            }
+            call.run();
+          }
+        }));
+      }
+      halfway.await();
+      handOver.run();
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static final class RecordingSender implements WavefrontSender {
+    private final LongAdder points = new LongAdder();
+    private final List<String> sources = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void sendMetric(String name, double value, @Nullable Long timestamp,
+                           @Nullable String source, @Nullable Map<String, String> tags) {
+      points.increment();
+      sources.add(source);
+    }
+
+    @Override
+    public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                 Set<HistogramGranularity> histogramGranularities,
+                                 @Nullable Long timestamp, @Nullable String source,
+                                 @Nullable Map<String, String> tags) {
+      // no-op
+    }
+
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis,
+                         @Nullable String source, UUID traceId, UUID spanId,
+                         @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                         @Nullable List<Pair<String, String>> tags,
+                         @Nullable List<SpanLog> spanLogs) {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.opentracing.reporting.Reporter;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an exemplar is reported as a point at the start time of its request, without the
+ * trace and span IDs, and that its span is tagged to find it from the point.
+ */
+public class ExemplarsTest {
+
+  private static final String HISTOGRAM = "response.inventory.GET.200.latency";
+
+  private final ApplicationTags applicationTags = new ApplicationTags.Builder("wavefront",
+      "alerting").build();
+  private final RecordingSender sender = new RecordingSender();
+  private final WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(
+      applicationTags).withSource("host-1").reportHeartbeats(false).reportExemplars(true).
+      build(sender);
+  private final WavefrontTracer tracer = new WavefrontTracer.Builder(new Reporter() {
+    @Override
+    public void report(WavefrontSpan span) {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+  }, applicationTags).build();
+
+  @Test
+  public void testExemplar() {
+    MetricName histogram = new MetricName(HISTOGRAM, Collections.emptyMap());
+    WavefrontSpan exemplar = (WavefrontSpan) tracer.buildSpan("Inventory.get").start();
+    reporter.recordExemplar(histogram, 12, 1_000, exemplar);
+    // same bucket, the slot is taken
+    WavefrontSpan other = (WavefrontSpan) tracer.buildSpan("Inventory.get").start();
+    reporter.recordExemplar(histogram, 10, 2_000, other);
+
+    assertTrue(exemplar.getTagsAsList().toString(), exemplar.getTagsAsList().contains(
+        new Pair<>(WavefrontJerseyReporter.EXEMPLAR_TAG, "jersey.server." + HISTOGRAM)));
+    assertTrue(exemplar.getTagsAsList().toString(), exemplar.getTagsAsList().contains(
+        new Pair<>(WavefrontJerseyReporter.LE_TAG, "16")));
+    for (Pair<String, String> tag : other.getTagsAsList()) {
+      assertFalse(tag.toString(), tag._1.equals(WavefrontJerseyReporter.EXEMPLAR_TAG));
+    }
+
+    reporter.reportExemplars();
+    assertEquals(sender.points.toString(), 1, sender.points.size());
+    Point point = sender.points.get(0);
+    assertEquals("jersey.server." + HISTOGRAM + ".exemplar", point.name);
+    assertEquals(12, point.value, 0);
+    assertEquals(1_000, point.timestamp);
+    assertEquals("16", point.tags.get(WavefrontJerseyReporter.LE_TAG));
+    String traceId = exemplar.context().toTraceId();
+    for (String value : point.tags.values()) {
+      assertFalse(point.tags.toString(), value.equals(traceId));
+    }
+
+    // the slot is free again for the next interval
+    reporter.reportExemplars();
+    assertEquals(1, sender.points.size());
+  }
+
+  private static final class Point {
+    private final String name;
+    private final double value;
+    private final long timestamp;
+    private final Map<String, String> tags;
+
+    private Point(String name, double value, long timestamp, Map<String, String> tags) {
+      this.name = name;
+      this.value = value;
+      this.timestamp = timestamp;
+      this.tags = tags;
+    }
+
+    @Override
+    public String toString() {
+      return name + " " + value + " " + timestamp + " " + tags;
+    }
+  }
+
+  private static final class RecordingSender implements WavefrontSender {
+    private final List<Point> points = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void sendMetric(String name, double value, @Nullable Long timestamp,
+                           @Nullable String source, @Nullable Map<String, String> tags) {
+      if (name.endsWith(".exemplar")) {
+        points.add(new Point(name, value, timestamp, tags));
+      }
+    }
+
+    @Override
+    public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                 Set<HistogramGranularity> histogramGranularities,
+                                 @Nullable Long timestamp, @Nullable String source,
+                                 @Nullable Map<String, String> tags) {
+      // no-op
+    }
+
+    @Override
+    public void sendSpan(String name, long startMillis, long durationMillis,
+                         @Nullable String source, UUID traceId, UUID spanId,
+                         @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                         @Nullable List<Pair<String, String>> tags,
+                         @Nullable List<SpanLog> spanLogs) {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+  }
+}
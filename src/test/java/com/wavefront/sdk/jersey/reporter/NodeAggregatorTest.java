@@ -0,0 +1,184 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.tracing.SpanLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a {@link NodeAggregator} in-process and checks that the deltas sent by several reporters
+ * are merged into a single point per series, and that lost datagrams are accounted for.
+ */
+public class NodeAggregatorTest {
+
+  // every point sent, as name|source|tags=value
+  private final List<String> sentPoints = new CopyOnWriteArrayList<>();
+  private NodeAggregator aggregator;
+
+  @Before
+  public void setup() throws IOException {
+    aggregator = new NodeAggregator.Builder(new WavefrontSender() {
+      @Override
+      public void sendMetric(String name, double value, @Nullable Long timestamp,
+                             @Nullable String source, @Nullable Map<String, String> tags) {
+        sentPoints.add(name + "|" + source + "|" + new TreeMap<>(tags) + "=" + value);
+      }
+
+      @Override
+      public void sendDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                   Set<HistogramGranularity> histogramGranularities,
+                                   @Nullable Long timestamp, @Nullable String source,
+                                   @Nullable Map<String, String> tags) {
+        // no-op
+      }
+
+      @Override
+      public void sendSpan(String name, long startMillis, long durationMillis,
+                           @Nullable String source, UUID traceId, UUID spanId,
+                           @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                           @Nullable List<Pair<String, String>> tags,
+                           @Nullable List<SpanLog> spanLogs) {
+        // no-op
+      }
+
+      @Override
+      public void flush() {
+        // no-op
+      }
+
+      @Override
+      public int getFailureCount() {
+        return 0;
+      }
+
+      @Override
+      public void close() {
+        // no-op
+      }
+    }).port(0).flushIntervalSeconds(3600).build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    aggregator.close();
+  }
+
+  @Test
+  public void testMergeAcrossReporters() throws Exception {
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        aggregator.getPort());
+    Map<String, String> pointTags = Collections.singletonMap("application", "Ordering");
+    MetricName metricName = new MetricName("response.orders.GET.200.aggregated_per_service",
+        new HashMap<String, String>() {{
+          put("service", "Inventory");
+          put("source", "wavefront-provided");
+        }});
+    NodeAggregationClient first = new NodeAggregationClient("jersey.server.", "host-1",
+        pointTags, address, (name, delta) -> { throw new AssertionError("not sent"); });
+    NodeAggregationClient second = new NodeAggregationClient("jersey.server.", "host-1",
+        pointTags, address, (name, delta) -> { throw new AssertionError("not sent"); });
+    first.add(metricName, 2);
+    first.add(metricName, 1);
+    second.add(metricName, 4);
+    first.flush();
+    second.flush();
+
+    Map<String, String> tags = new TreeMap<>();
+    tags.put("application", "Ordering");
+    tags.put("service", "Inventory");
+    String key = NodeAggregationProtocol.DELTA_PREFIX +
+        "jersey.server.response.orders.GET.200.aggregated_per_service|wavefront-provided|" + tags;
+    // datagrams are received asynchronously, wait for both before a single flush
+    long deadline = System.currentTimeMillis() + 5000;
+    while (aggregator.getReceivedDatagrams() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    aggregator.flush();
+    assertEquals(Collections.singletonList(key + "=7.0"), sentPoints);
+    assertEquals(0, aggregator.getLostDatagrams());
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void testLostDatagramsCounted() throws Exception {
+    try (DatagramChannel channel = DatagramChannel.open().connect(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), aggregator.getPort()))) {
+      // datagrams 1 and 2 are lost
+      channel.write(emptyDatagram(0));
+      channel.write(emptyDatagram(3));
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (aggregator.getReceivedDatagrams() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, aggregator.getLostDatagrams());
+    aggregator.flush();
+    assertEquals(1, sentPoints.size());
+    assertTrue(sentPoints.get(0), sentPoints.get(0).startsWith(
+        NodeAggregationProtocol.DELTA_PREFIX + "jersey.node_aggregator.lost_datagrams|"));
+    assertTrue(sentPoints.get(0), sentPoints.get(0).endsWith("=2.0"));
+  }
+
+  @Test
+  public void testUnreachableAggregatorFallsBack() throws Exception {
+    int port;
+    try (DatagramChannel closed = DatagramChannel.open().bind(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), 0))) {
+      port = ((InetSocketAddress) closed.getLocalAddress()).getPort();
+    }
+    AtomicLong reportedDirectly = new AtomicLong();
+    NodeAggregationClient client = new NodeAggregationClient("jersey.server.", "host-1",
+        Collections.emptyMap(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        (name, delta) -> reportedDirectly.addAndGet(delta));
+    MetricName metricName = new MetricName("response.orders.GET.200.aggregated_per_service",
+        Collections.singletonMap("service", "Inventory"));
+    // the first datagrams are only reported unreachable by a following send, which then hands
+    // both to the fallback
+    long added = 0;
+    long deadline = System.currentTimeMillis() + 5000;
+    do {
+      client.add(metricName, 1);
+      added++;
+      client.flush();
+      Thread.sleep(10);
+    } while (reportedDirectly.get() != added && System.currentTimeMillis() < deadline);
+    assertEquals(added, reportedDirectly.get());
+    client.close();
+  }
+
+  private static ByteBuffer emptyDatagram(int sequence) {
+    ByteBuffer datagram = ByteBuffer.allocate(NodeAggregationProtocol.HEADER_SIZE);
+    datagram.putShort(NodeAggregationProtocol.MAGIC);
+    datagram.put(NodeAggregationProtocol.VERSION);
+    datagram.putInt(sequence);
+    datagram.putShort((short) 0);
+    datagram.flip();
+    return datagram;
+  }
+}
@@ -0,0 +1,127 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the OpenMetrics text written by {@link OpenMetricsExporter}, in particular that metrics
+ * whose names collide once sanitized are kept apart.
+ */
+public class OpenMetricsExporterTest {
+
+  private final WavefrontJerseyReporter reporter = new WavefrontJerseyReporter.Builder(
+      new ApplicationTags.Builder("wavefront", "alerting").build()).withSource("host-1").
+      reportHeartbeats(false).build(new DeferredWavefrontSender());
+  private final OpenMetricsExporter exporter = new OpenMetricsExporter(reporter);
+
+  @Test
+  public void testFormat() throws IOException {
+    reporter.incrementCounter(new MetricName("response.inventory.GET.200.cumulative",
+        Collections.singletonMap("jersey.resource.class", "Inventory\"Resource")), 2);
+    reporter.registerGauge(new MetricName("inflight", Collections.emptyMap()),
+        new AtomicInteger(3));
+    reporter.updateHistogram(new MetricName("response.inventory.GET.200.latency",
+        Collections.emptyMap()), 5);
+
+    List<String> lines = write();
+    assertEquals("# EOF", lines.get(lines.size() - 1));
+    assertTrue(lines.toString(), lines.contains(
+        "# TYPE jersey_server_response_inventory_GET_200_cumulative counter"));
+    assertTrue(lines.toString(), lines.stream().anyMatch(line -> line.startsWith(
+        "jersey_server_response_inventory_GET_200_cumulative_total{application=\"wavefront\"") &&
+        line.contains("jersey_resource_class=\"Inventory\\\"Resource\"") &&
+        line.endsWith("} 2")));
+    assertTrue(lines.toString(), lines.contains("# TYPE jersey_server_inflight gauge"));
+    assertTrue(lines.toString(), lines.stream().anyMatch(line ->
+        line.startsWith("jersey_server_inflight{") && line.endsWith("} 3")));
+    assertTrue(lines.toString(), lines.contains(
+        "# TYPE jersey_server_response_inventory_GET_200_latency summary"));
+    assertTrue(lines.toString(), lines.stream().anyMatch(line -> line.startsWith(
+        "jersey_server_response_inventory_GET_200_latency{") &&
+        line.contains(",quantile=\"0.5\"}")));
+    assertWellFormed(lines);
+  }
+
+  @Test
+  public void testSanitizedNameCollisions() throws IOException {
+    // different types
+    reporter.incrementCounter(new MetricName("a.b", Collections.emptyMap()));
+    reporter.registerGauge(new MetricName("a_b", Collections.emptyMap()), new AtomicInteger(1));
+    // same metric name, different types
+    MetricName shared = new MetricName("shared", Collections.emptyMap());
+    reporter.incrementCounter(shared);
+    reporter.updateHistogram(shared, 5);
+    // the samples of the counter family c are named c_total
+    reporter.incrementCounter(new MetricName("c", Collections.emptyMap()));
+    reporter.registerGauge(new MetricName("c.total", Collections.emptyMap()),
+        new AtomicInteger(1));
+    // same type and labels
+    reporter.incrementCounter(new MetricName("d.e", Collections.emptyMap()));
+    reporter.incrementCounter(new MetricName("d-e", Collections.emptyMap()));
+    // same type, different labels: one family
+    reporter.incrementCounter(new MetricName("f.g", Collections.singletonMap("status", "200")));
+    reporter.incrementCounter(new MetricName("f_g", Collections.singletonMap("status", "500")));
+
+    List<String> lines = write();
+    assertWellFormed(lines);
+    assertEquals(lines.toString(), 9, families(lines).size());
+    assertEquals(lines.toString(), 2, lines.stream().filter(line ->
+        line.startsWith("jersey_server_f_g_total{")).count());
+    // the families are the same on the next scrape
+    assertEquals(families(lines), families(write()));
+  }
+
+  private List<String> write() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.write(out);
+    return Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+  }
+
+  private static List<String> families(List<String> lines) {
+    return lines.stream().filter(line -> line.startsWith("# TYPE")).
+        collect(Collectors.toList());
+  }
+
+  /**
+   * Every family is declared once with a single type and before its samples, and every sample
+   * is unique and belongs to the family declared last.
+   */
+  private static void assertWellFormed(List<String> lines) {
+    Set<String> families = new HashSet<>();
+    Set<String> samples = new HashSet<>();
+    String family = null;
+    String type = null;
+    for (String line : lines) {
+      if (line.equals("# EOF")) {
+        continue;
+      }
+      if (line.startsWith("# TYPE ")) {
+        String[] declaration = line.split(" ");
+        family = declaration[2];
+        type = declaration[3];
+        assertTrue("duplicate family " + line, families.add(family));
+        continue;
+      }
+      String sample = line.substring(0, line.lastIndexOf(' '));
+      assertTrue("duplicate sample " + line, samples.add(sample));
+      String name = sample.substring(0, sample.indexOf('{'));
+      assertEquals(line, type.equals("counter") ? family + "_total" : family, name);
+    }
+  }
+}
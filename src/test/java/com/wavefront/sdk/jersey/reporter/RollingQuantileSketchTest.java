@@ -0,0 +1,65 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bucket bounds, the quantiles and the rolling of the windows of
+ * {@link RollingQuantileSketch}.
+ */
+public class RollingQuantileSketchTest {
+
+  private static final long WINDOW_MILLIS = 1_000;
+  private static final int WINDOWS = 4;
+
+  private final RollingQuantileSketch sketch = new RollingQuantileSketch(WINDOWS, WINDOW_MILLIS,
+      0.5);
+  private final double[] scratch = new double[RollingQuantileSketch.scratchSize()];
+  private final long[] values = new long[2];
+
+  @Test
+  public void testBucketBounds() {
+    for (long value = 0; value < 1L << 32; value = value * 5 / 4 + 1) {
+      long upperBound = RollingQuantileSketch.upperBound(RollingQuantileSketch.bucket(value));
+      assertTrue(value + ": " + upperBound, upperBound >= value);
+      // 16 linear sub-buckets per power of two
+      assertTrue(value + ": " + upperBound, upperBound - value <= value / 16);
+    }
+  }
+
+  @Test
+  public void testQuantiles() {
+    for (int value = 1; value <= 1_000; value++) {
+      sketch.record(value, value % 10 == 0, 0);
+    }
+    sketch.snapshot(new double[]{0.5, 0.99}, scratch, values, 0);
+    assertEquals(1_000, RollingQuantileSketch.count(scratch), 0);
+    assertEquals(100, RollingQuantileSketch.errors(scratch), 0);
+    assertTrue(Long.toString(values[0]), values[0] >= 500 && values[0] <= 500 + 500 / 16);
+    assertTrue(Long.toString(values[1]), values[1] >= 990 && values[1] <= 990 + 990 / 16);
+  }
+
+  @Test
+  public void testRollingWindows() {
+    sketch.record(10, false, 0);
+    // older windows weigh less
+    sketch.snapshot(new double[]{0.5}, scratch, values, WINDOW_MILLIS);
+    assertEquals(0.5, RollingQuantileSketch.count(scratch), 0);
+
+    // the window of time 0 is recycled for time WINDOWS * WINDOW_MILLIS
+    sketch.record(20, true, WINDOWS * WINDOW_MILLIS);
+    // a late write for the recycled window is dropped
+    sketch.record(30, false, 0);
+    sketch.snapshot(new double[]{0.5}, scratch, values, WINDOWS * WINDOW_MILLIS);
+    assertEquals(1, RollingQuantileSketch.count(scratch), 0);
+    assertEquals(1, RollingQuantileSketch.errors(scratch), 0);
+    assertEquals(20, values[0]);
+
+    // nothing left once the windows are all stale
+    sketch.snapshot(new double[]{0.5}, scratch, values, 2 * WINDOWS * WINDOW_MILLIS);
+    assertEquals(0, RollingQuantileSketch.count(scratch), 0);
+    assertEquals(0, values[0]);
+  }
+}